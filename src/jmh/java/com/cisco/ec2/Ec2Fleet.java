@@ -0,0 +1,66 @@
+package com.cisco.ec2;
+
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.amazonaws.services.ec2.model.InstanceStateName;
+import com.amazonaws.services.ec2.model.Placement;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.Tag;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic describe instances data. Instances are grouped in reservations of 1-4 instances and carry 6-14 tags,
+ * the Name tag at a random position and in varying case, the way tagging policies usually leave them.
+ */
+public class Ec2Fleet {
+
+    private static final String[] TYPES = {"t3.micro", "t3.large", "m5.xlarge", "c5.2xlarge", "r5.large"};
+    private static final String[] ZONES = {"eu-west-1a", "eu-west-1b", "eu-west-1c"};
+    private static final String[] NAME_KEYS = {"Name", "name", "NAME"};
+    private static final String[] TAG_KEYS = {"env", "team", "owner", "cost-center", "service", "version", "backup",
+            "aws:cloudformation:stack-name", "aws:autoscaling:groupName", "patch-group", "compliance", "created-by", "ttl"};
+    private static final InstanceStateName[] STATES = InstanceStateName.values();
+
+    public static List<Reservation> reservations(int instances) {
+        Random random = new Random(instances);
+        List<Reservation> reservations = new ArrayList<>();
+        int created = 0;
+        while (created < instances) {
+            int reservationSize = Math.min(1 + random.nextInt(4), instances - created);
+            List<Instance> reservationInstances = new ArrayList<>(reservationSize);
+            for (int i = 0; i < reservationSize; i++) {
+                reservationInstances.add(instance(random, created++));
+            }
+            reservations.add(new Reservation()
+                    .withReservationId(String.format("r-%017x", random.nextLong() >>> 4))
+                    .withInstances(reservationInstances));
+        }
+        return reservations;
+    }
+
+    private static Instance instance(Random random, int index) {
+        return new Instance()
+                .withInstanceId(String.format("i-%017x", random.nextLong() >>> 4))
+                .withInstanceType(TYPES[random.nextInt(TYPES.length)])
+                .withPlacement(new Placement(ZONES[random.nextInt(ZONES.length)]))
+                .withState(new InstanceState().withName(STATES[random.nextInt(STATES.length)]))
+                .withPrivateIpAddress(String.format("10.%d.%d.%d", random.nextInt(256), random.nextInt(256), random.nextInt(256)))
+                .withPublicIpAddress(String.format("54.%d.%d.%d", random.nextInt(256), random.nextInt(256), random.nextInt(256)))
+                .withTags(tags(random, index));
+    }
+
+    private static List<Tag> tags(Random random, int index) {
+        int count = 6 + random.nextInt(9);
+        int namePosition = random.nextInt(count);
+        List<Tag> tags = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tags.add(i == namePosition
+                    ? new Tag(NAME_KEYS[random.nextInt(NAME_KEYS.length)], "service-" + random.nextInt(1000) + "-" + index)
+                    : new Tag(TAG_KEYS[i % TAG_KEYS.length], Long.toHexString(random.nextLong())));
+        }
+        return tags;
+    }
+}
@@ -0,0 +1,48 @@
+package com.cisco.ec2;
+
+import com.amazonaws.services.ec2.model.Reservation;
+import com.cisco.ec2.model.Ec2Instance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of describe instances reservations, sorted by the default sort key and by each supported sort key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Ec2InstanceMapperBenchmark {
+
+    @Param({"10", "500", "50000"})
+    private int instances;
+
+    @Param({"instanceId", "name", "state", "type", "availabilityZone", "privateIp", "publicIp"})
+    private String sortKey;
+
+    private List<Reservation> reservations;
+
+    @Setup
+    public void setUp() {
+        reservations = Ec2Fleet.reservations(instances);
+    }
+
+    @Benchmark
+    public List<Ec2Instance> mapAndSort() {
+        return Ec2InstanceMapper.toEc2Instances(reservations, sortKey);
+    }
+}
@@ -0,0 +1,69 @@
+package com.cisco.ec2;
+
+import com.amazonaws.services.ec2.model.Reservation;
+import com.cisco.ec2.model.Ec2Instance;
+import com.cisco.ec2.model.GetEc2Response;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping and serialization of a page with all fields and with the fields most consumers ask for, sorted by a
+ * projected key and by one which isn't. Payload size of every combination is printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FieldProjectionBenchmark {
+
+    @Param({"500"})
+    private int instances;
+
+    @Param({"all", "instanceId,state"})
+    private String fields;
+
+    @Param({"instanceId", "name"})
+    private String sortKey;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private List<Reservation> reservations;
+    private InstanceFields instanceFields;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        reservations = Ec2Fleet.reservations(instances);
+        instanceFields = "all".equals(fields) ? InstanceFields.ALL : InstanceFields.of(Arrays.asList(fields.split(",")));
+        System.out.printf("%nPayload: instances=%d fields=%s bytes=%d%n", instances, fields, mapAndSerialize().length);
+    }
+
+    @Benchmark
+    public List<Ec2Instance> mapAndSort() {
+        return Ec2InstanceMapper.toEc2Instances(reservations, sortKey, Ec2InstanceMapper.ALL, instanceFields);
+    }
+
+    @Benchmark
+    public byte[] mapAndSerialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(GetEc2Response.builder()
+                .instances(mapAndSort())
+                .nextToken("next-token")
+                .build());
+    }
+}
@@ -0,0 +1,63 @@
+package com.cisco.ec2;
+
+import com.amazonaws.services.ec2.model.Reservation;
+import com.cisco.ec2.model.GetEc2Response;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Json serialization of a mapped page, alone and end to end from describe instances reservations. The object mapper
+ * is configured like the one spring uses for responses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GetEc2ResponseBenchmark {
+
+    @Param({"10", "500", "50000"})
+    private int instances;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private List<Reservation> reservations;
+    private GetEc2Response response;
+
+    @Setup
+    public void setUp() {
+        reservations = Ec2Fleet.reservations(instances);
+        response = GetEc2Response.builder()
+                .instances(Ec2InstanceMapper.toEc2Instances(reservations))
+                .nextToken("next-token")
+                .build();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public byte[] mapAndSerialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(GetEc2Response.builder()
+                .instances(Ec2InstanceMapper.toEc2Instances(reservations))
+                .nextToken("next-token")
+                .build());
+    }
+}
@@ -0,0 +1,180 @@
+package com.cisco.ec2;
+
+import com.cisco.Application;
+import com.cisco.ec2.model.InstanceStateChangeEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.Banner;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local stand-in for EventBridge delivering EC2 Instance State-change Notifications, to exercise the snapshot delta
+ * path without aws. Starts an Ec2StubServer and the app pointed at it, loads the snapshot of the region, then replays
+ * state changes at a steady rate: each one changes an instance of the stub (or launches one, launchRate of them) and
+ * posts the matching event to the hook. The snapshot is read once a second meanwhile, which triggers the background
+ * reload (the resync) every refreshAfterMillis, so events also arrive while the region is loaded. At the end the
+ * snapshot has to match the stub: reports hook throughput and p50/p99 latency, the ec2 calls made during the replay,
+ * snapshot versions and mismatching instances, and exits with 1 on a mismatch or a failed request.
+ * <p>
+ * Options as key=value arguments: events (2000), ratePerSecond (200), instances (5000), launchRate (0.02),
+ * refreshAfterMillis (5000), latencyMillis (50), latencyP99Millis (200).
+ */
+public class Ec2EventReplay {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String REGION = "eu-west-1";
+    private static final String[] STATES = InstanceFilter.STATES.split("\\|");
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = StackLoadTest.options(args);
+        int events = Integer.parseInt(options.getOrDefault("events", "2000"));
+        int ratePerSecond = Integer.parseInt(options.getOrDefault("ratePerSecond", "200"));
+        int instances = Integer.parseInt(options.getOrDefault("instances", "5000"));
+        double launchRate = Double.parseDouble(options.getOrDefault("launchRate", "0.02"));
+        long refreshAfterMillis = Long.parseLong(options.getOrDefault("refreshAfterMillis", "5000"));
+        long latencyMillis = Long.parseLong(options.getOrDefault("latencyMillis", "50"));
+        long latencyP99Millis = Long.parseLong(options.getOrDefault("latencyP99Millis", "200"));
+        // the stub does not check signatures, the sdk still needs credentials to sign with
+        System.setProperty("aws.accessKeyId", "stub");
+        System.setProperty("aws.secretKey", "stub");
+
+        boolean failed;
+        try (Ec2StubServer ec2 = new Ec2StubServer(0, instances, 1000, latencyMillis, latencyP99Millis, 0).start();
+             ConfigurableApplicationContext context = start(ec2.getEndpoint(), refreshAfterMillis)) {
+            String url = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/aws-api/v1";
+            String snapshotUrl = url + "/regions/" + REGION + "/ec2/snapshot";
+            long firstVersion = version(snapshotUrl);
+            List<String> instanceIds = new ArrayList<>(ec2.getStates().keySet());
+            long calls = ec2.getCalls();
+            Random random = new Random(42);
+            long[] latencies = new long[events];
+            int errors = 0;
+            int launched = 0;
+            long start = System.nanoTime();
+            long lastRead = start;
+            for (int i = 0; i < events; i++) {
+                long due = start + TimeUnit.SECONDS.toNanos(i) / ratePerSecond;
+                TimeUnit.NANOSECONDS.sleep(due - System.nanoTime());
+                String instanceId;
+                String state;
+                if (random.nextDouble() < launchRate) {
+                    state = "pending";
+                    instanceId = ec2.launch(state);
+                    instanceIds.add(instanceId);
+                    launched++;
+                } else {
+                    instanceId = instanceIds.get(random.nextInt(instanceIds.size()));
+                    state = STATES[random.nextInt(STATES.length)];
+                    ec2.setState(instanceId, state);
+                }
+                long posted = System.nanoTime();
+                if (post(url + "/ec2/events", event(instanceId, state)) != 204) {
+                    errors++;
+                }
+                latencies[i] = System.nanoTime() - posted;
+                if (System.nanoTime() - lastRead >= TimeUnit.SECONDS.toNanos(1)) {
+                    version(snapshotUrl + "?size=5");
+                    lastRead = System.nanoTime();
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long replayCalls = ec2.getCalls() - calls;
+            Map<String, String> expected = ec2.getStates();
+            JsonNode snapshot = get(snapshotUrl + "?fields=instanceId,state");
+            int mismatches = 0;
+            for (JsonNode instance : snapshot.get("instances")) {
+                if (!instance.get("state").asText().equals(expected.remove(instance.get("instanceId").asText()))) {
+                    mismatches++;
+                }
+            }
+            mismatches += expected.size();
+            Arrays.sort(latencies);
+            System.out.printf("events: %d (%d launches) in %.1f s, %.1f events/s, hook p50 %.1f ms, p99 %.1f ms, errors %d%n",
+                    events, launched, seconds, events / seconds, latencies[events / 2] / 1e6,
+                    latencies[Math.max(0, (int) Math.ceil(0.99 * events) - 1)] / 1e6, errors);
+            System.out.printf("ec2 calls during replay: %d, snapshot versions: %d, mismatching instances: %d%n",
+                    replayCalls, version(snapshotUrl + "?size=5") - firstVersion, mismatches);
+            failed = errors > 0 || mismatches > 0;
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static ConfigurableApplicationContext start(String endpoint, long refreshAfterMillis) {
+        return new SpringApplicationBuilder(Application.class).bannerMode(Banner.Mode.OFF).run("--server.port=0",
+                "--logging.level.root=WARN",
+                // executor threads are only shut down after tomcat, which warns about each of them
+                "--logging.level.org.apache.catalina.loader=ERROR",
+                "--ec2.client.endpoint=" + endpoint,
+                "--ec2.client.prewarm-regions=",
+                "--ec2.rate-limit.min-rate=1000000",
+                "--ec2.rate-limit.max-rate=1000000",
+                "--ec2.cache.refresh-after-ms=" + refreshAfterMillis,
+                "--ec2.cache.ttl-ms=3600000");
+    }
+
+    private static String event(String instanceId, String state) throws IOException {
+        // EventBridge times are to the second
+        return OBJECT_MAPPER.writeValueAsString(Map.of(
+                "version", "0",
+                "id", UUID.randomUUID().toString(),
+                "detail-type", InstanceStateChangeEvent.DETAIL_TYPE,
+                "source", "aws.ec2",
+                "account", "123456789012",
+                "time", Instant.now().truncatedTo(ChronoUnit.SECONDS).toString(),
+                "region", REGION,
+                "resources", List.of("arn:aws:ec2:" + REGION + ":123456789012:instance/" + instanceId),
+                "detail", Map.of("instance-id", instanceId, "state", state)));
+    }
+
+    /**
+     * Version of the snapshot, read from the cursor of its first page.
+     */
+    private static long version(String url) throws IOException {
+        JsonNode nextToken = get(url.contains("?") ? url : url + "?size=5").get("nextToken");
+        return nextToken == null || nextToken.isNull() ? -1 : SnapshotCursor.decode(nextToken.asText()).getVersion();
+    }
+
+    private static JsonNode get(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) URI.create(url).toURL().openConnection();
+        if (connection.getResponseCode() != 200) {
+            throw new IOException("GET " + url + " failed with " + connection.getResponseCode());
+        }
+        try (InputStream body = connection.getInputStream()) {
+            return OBJECT_MAPPER.readTree(body);
+        }
+    }
+
+    private static int post(String url, String json) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) URI.create(url).toURL().openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream body = connection.getOutputStream()) {
+            body.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        int status = connection.getResponseCode();
+        try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (body != null) {
+                body.readAllBytes();
+            }
+        }
+        return status;
+    }
+}
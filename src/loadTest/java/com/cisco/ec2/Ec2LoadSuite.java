@@ -0,0 +1,251 @@
+package com.cisco.ec2;
+
+import com.cisco.Application;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.Banner;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Repeatable load test of the app with real ec2 clients pointed at an Ec2StubServer, offline. Runs three scenarios
+ * one after the other, each with a warmup: single (one page of the single region path), paginated (clients walk all
+ * pages of the single region path following nextToken, every page is a sample) and export (the whole region as
+ * ndjson, every export is a sample, one ending with an error or nextToken line is an error). Requests carry a distinct
+ * vpcId, which the stub ignores, so describe calls are not coalesced. Reports throughput, p50/p99/p999 latency and
+ * errors per scenario and exits with 1 when any request failed, throttled calls are retried by the app. A paginated
+ * walk started before the end of a run is finished, throughput is over the actual run time.
+ * <p>
+ * Options as key=value arguments: mode (servlet, virtual or reactive), scenarios (single,paginated,export),
+ * clients (16), durationSeconds (10), warmupSeconds (3), instances (5000), size (100, instances per page of the
+ * single region path), latencyMillis (50), latencyP99Millis (200), throttleRate (0.01), maxConnections (256).
+ */
+public class Ec2LoadSuite {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String REGION = "eu-west-1";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = StackLoadTest.options(args);
+        String mode = options.getOrDefault("mode", "servlet");
+        List<String> scenarios = Arrays.asList(options.getOrDefault("scenarios", "single,paginated,export").split(","));
+        int clients = Integer.parseInt(options.getOrDefault("clients", "16"));
+        int durationSeconds = Integer.parseInt(options.getOrDefault("durationSeconds", "10"));
+        int warmupSeconds = Integer.parseInt(options.getOrDefault("warmupSeconds", "3"));
+        int instances = Integer.parseInt(options.getOrDefault("instances", "5000"));
+        int size = Integer.parseInt(options.getOrDefault("size", "100"));
+        long latencyMillis = Long.parseLong(options.getOrDefault("latencyMillis", "50"));
+        long latencyP99Millis = Long.parseLong(options.getOrDefault("latencyP99Millis", "200"));
+        double throttleRate = Double.parseDouble(options.getOrDefault("throttleRate", "0.01"));
+        int maxConnections = Integer.parseInt(options.getOrDefault("maxConnections", "256"));
+        System.setProperty("http.maxConnections", String.valueOf(clients));
+        // the stub does not check signatures, the sdk still needs credentials to sign with
+        System.setProperty("aws.accessKeyId", "stub");
+        System.setProperty("aws.secretKey", "stub");
+
+        long errors = 0;
+        try (Ec2StubServer ec2 = new Ec2StubServer(0, instances, 1000, latencyMillis, latencyP99Millis, throttleRate).start();
+             ConfigurableApplicationContext context = start(mode, ec2.getEndpoint(), maxConnections)) {
+            String url = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/aws-api/v1/regions/" + REGION + "/ec2";
+            System.out.printf("mode: %s, instances: %d, ec2 latency: p50 %d ms p99 %d ms, throttle rate: %.3f, clients: %d%n",
+                    mode, instances, latencyMillis, latencyP99Millis, throttleRate, clients);
+            for (String scenario : scenarios) {
+                Scenario request = scenario(scenario, url, size);
+                run(request, clients, warmupSeconds);
+                long calls = ec2.getCalls();
+                long throttled = ec2.getThrottled();
+                Result result = run(request, clients, durationSeconds);
+                errors += result.errors;
+                System.out.printf("%-9s %8.1f req/s, p50 %7.1f ms, p99 %7.1f ms, p999 %7.1f ms, errors %5d, ec2 calls %6d, throttled %4d%n",
+                        scenario, result.latencies.length / result.seconds, result.percentile(0.5),
+                        result.percentile(0.99), result.percentile(0.999), result.errors, ec2.getCalls() - calls,
+                        ec2.getThrottled() - throttled);
+            }
+        }
+        System.exit(errors == 0 ? 0 : 1);
+    }
+
+    private static ConfigurableApplicationContext start(String mode, String endpoint, int maxConnections) {
+        SpringApplicationBuilder application = new SpringApplicationBuilder(Application.class).bannerMode(Banner.Mode.OFF);
+        if (mode.equals(ReactiveEc2Configuration.REACTIVE_PROFILE)) {
+            application.profiles(ReactiveEc2Configuration.REACTIVE_PROFILE);
+        }
+        return application.run("--server.port=0",
+                "--logging.level.root=WARN",
+                // executor threads are only shut down after tomcat, which warns about each of them
+                "--logging.level.org.apache.catalina.loader=ERROR",
+                "--ec2.client.endpoint=" + endpoint,
+                "--ec2.client.prewarm-regions=",
+                "--ec2.client.max-connections=" + maxConnections,
+                "--ec2.rate-limit.min-rate=1000000",
+                "--ec2.rate-limit.max-rate=1000000",
+                "--ec2.executor.virtual-threads=" + mode.equals("virtual"));
+    }
+
+    private static Scenario scenario(String name, String url, int size) {
+        switch (name) {
+            case "single":
+                return (request, latencies) -> latencies.add(get(url + "?size=" + size + "&vpcId=vpc-load-" + request, null));
+            case "paginated":
+                return (request, latencies) -> {
+                    String[] nextToken = {null};
+                    do {
+                        String pageUrl = url + "?size=" + size + "&vpcId=vpc-load-" + request
+                                + (nextToken[0] == null ? "" : "&nextToken=" + URLEncoder.encode(nextToken[0], StandardCharsets.UTF_8));
+                        latencies.add(get(pageUrl, nextToken));
+                    } while (nextToken[0] != null);
+                };
+            case "export":
+                return (request, latencies) -> latencies.add(export(url + "/export?vpcId=vpc-load-" + request));
+            default:
+                throw new IllegalArgumentException("Unknown scenario: " + name);
+        }
+    }
+
+    private static Result run(Scenario scenario, int clients, int seconds) throws InterruptedException {
+        AtomicInteger requests = new AtomicInteger();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+        Latencies[] latencies = new Latencies[clients];
+        CountDownLatch done = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++) {
+            Latencies clientLatencies = latencies[i] = new Latencies();
+            Thread client = new Thread(() -> {
+                while (System.nanoTime() - deadline < 0) {
+                    scenario.run(requests.incrementAndGet(), clientLatencies);
+                }
+                done.countDown();
+            }, "load-client-" + i);
+            client.setDaemon(true);
+            client.start();
+        }
+        done.await();
+        return new Result(latencies, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Nanos of a successful request, -1 on failure. Reads the nextToken of the response into nextToken when given.
+     */
+    private static long get(String url, String[] nextToken) {
+        if (nextToken != null) {
+            nextToken[0] = null;
+        }
+        return request(url, body -> {
+            if (nextToken == null) {
+                drain(body);
+                return true;
+            }
+            JsonNode token = OBJECT_MAPPER.readTree(body).get("nextToken");
+            nextToken[0] = token == null || token.isNull() ? null : token.asText();
+            return true;
+        });
+    }
+
+    /**
+     * Nanos of a complete export, -1 on failure. Failures after the first page are written as a last line with an
+     * error, an export cut short by the request deadline ends with a nextToken line, both are sent with a 200.
+     */
+    private static long export(String url) {
+        return request(url, body -> {
+            String last = null;
+            BufferedReader lines = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+            for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+                if (!line.isEmpty()) {
+                    last = line;
+                }
+            }
+            if (last == null) {
+                return true;
+            }
+            JsonNode lastLine = OBJECT_MAPPER.readTree(last);
+            return !lastLine.hasNonNull("error") && !lastLine.hasNonNull("nextToken");
+        });
+    }
+
+    private static long request(String url, ResponseCheck check) {
+        long start = System.nanoTime();
+        try {
+            HttpURLConnection connection = (HttpURLConnection) URI.create(url).toURL().openConnection();
+            int status = connection.getResponseCode();
+            try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (status != 200) {
+                    drain(body);
+                    return -1;
+                }
+                return check.isSuccess(body) ? System.nanoTime() - start : -1;
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static void drain(InputStream body) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (body != null && body.read(buffer) >= 0) {
+            // drained so the connection is kept alive
+        }
+    }
+
+    private interface ResponseCheck {
+        boolean isSuccess(InputStream body) throws IOException;
+    }
+
+    private interface Scenario {
+        void run(int request, Latencies latencies);
+    }
+
+    private static class Latencies {
+        private long[] nanos = new long[1024];
+        private int count;
+        private int errors;
+
+        private void add(long latency) {
+            if (latency < 0) {
+                errors++;
+                return;
+            }
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = latency;
+        }
+    }
+
+    private static class Result {
+        private final long[] latencies;
+        private final long errors;
+        private final double seconds;
+
+        private Result(Latencies[] clients, double seconds) {
+            this.seconds = seconds;
+            this.latencies = Arrays.stream(clients)
+                    .flatMapToLong(client -> Arrays.stream(client.nanos, 0, client.count))
+                    .sorted()
+                    .toArray();
+            this.errors = Arrays.stream(clients).mapToLong(client -> client.errors).sum();
+        }
+
+        private double percentile(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile * latencies.length) - 1;
+            return latencies[Math.max(0, index)] / 1_000_000.0;
+        }
+    }
+}
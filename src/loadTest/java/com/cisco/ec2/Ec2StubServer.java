@@ -0,0 +1,384 @@
+package com.cisco.ec2;
+
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.amazonaws.services.ec2.model.InstanceStateName;
+import com.amazonaws.services.ec2.model.Placement;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.Tag;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Local stand-in for the ec2 DescribeInstances and DescribeRegions calls, speaking the AWS Query protocol (form
+ * encoded POST, xml response) so the real sdk clients can be pointed at it with ec2.client.endpoint. Serves a fleet
+ * of Ec2Fleet instances, pages of MaxResults (5-1000) or pageSize instances when not set, with opaque next tokens.
+ * The instance-id filter is applied, other filters are ignored. Instances change state and are launched with
+ * setState and launch, e.g. by Ec2EventReplay. Every call waits a log-normal latency given by its median and p99 and a share of the calls,
+ * throttleRate, fails with RequestLimitExceeded. Random numbers are seeded, runs are repeatable.
+ * <p>
+ * Standalone: ./gradlew ec2Stub -Pload.args="port=8086 instances=5000", then start the app with
+ * EC2_ENDPOINT=http://localhost:8086 and any credentials, e.g. AWS_ACCESS_KEY_ID=stub AWS_SECRET_ACCESS_KEY=stub.
+ * Options as key=value arguments: port (8086), instances (1000), pageSize (1000), latencyMillis (50),
+ * latencyP99Millis (200), throttleRate (0.0).
+ */
+public class Ec2StubServer implements AutoCloseable {
+
+    private static final String NAMESPACE = "http://ec2.amazonaws.com/doc/2016-11-15/";
+    private static final String OWNER_ID = "123456789012";
+    private static final double P99_DEVIATIONS = 2.326;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Random random = new Random(42);
+    private final List<Instance> fleet = new ArrayList<>();
+    private final Map<String, Integer> indexOf = new HashMap<>();
+    private final List<String> instanceXml = new ArrayList<>();
+    private final List<String> reservationXml = new ArrayList<>();
+    private int[] reservationOf;
+    // guards the fleet, written by setState and launch
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int pageSize;
+    private final long latencyMillis;
+    private final double latencySigma;
+    private final double throttleRate;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    public Ec2StubServer(int port, int instances, int pageSize, long latencyMillis, long latencyP99Millis, double throttleRate) throws IOException {
+        this.pageSize = pageSize;
+        this.latencyMillis = latencyMillis;
+        this.latencySigma = latencyMillis > 0 && latencyP99Millis > latencyMillis
+                ? Math.log(latencyP99Millis / (double) latencyMillis) / P99_DEVIATIONS
+                : 0;
+        this.throttleRate = throttleRate;
+        this.reservationOf = new int[instances];
+        for (Reservation reservation : Ec2Fleet.reservations(instances)) {
+            for (Instance instance : reservation.getInstances()) {
+                reservationOf[instanceXml.size()] = reservationXml.size();
+                indexOf.put(instance.getInstanceId(), fleet.size());
+                fleet.add(instance);
+                instanceXml.add(toXml(instance));
+            }
+            reservationXml.add("<reservationId>" + reservation.getReservationId() + "</reservationId><ownerId>" + OWNER_ID + "</ownerId><groupSet/>");
+        }
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = StackLoadTest.options(args);
+        Ec2StubServer server = new Ec2StubServer(Integer.parseInt(options.getOrDefault("port", "8086")),
+                Integer.parseInt(options.getOrDefault("instances", "1000")),
+                Integer.parseInt(options.getOrDefault("pageSize", "1000")),
+                Long.parseLong(options.getOrDefault("latencyMillis", "50")),
+                Long.parseLong(options.getOrDefault("latencyP99Millis", "200")),
+                Double.parseDouble(options.getOrDefault("throttleRate", "0.0")));
+        server.start();
+        System.out.println("ec2 stub listening on " + server.getEndpoint());
+    }
+
+    public Ec2StubServer start() {
+        server.start();
+        return this;
+    }
+
+    public String getEndpoint() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    /**
+     * Current state of every instance of the fleet, by instance id.
+     */
+    public Map<String, String> getStates() {
+        lock.readLock().lock();
+        try {
+            Map<String, String> states = new LinkedHashMap<>();
+            for (Instance instance : fleet) {
+                states.put(instance.getInstanceId(), instance.getState().getName());
+            }
+            return states;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Changes the state of an instance of the fleet, describe calls return the new state from then on.
+     */
+    public void setState(String instanceId, String state) {
+        lock.writeLock().lock();
+        try {
+            Integer index = indexOf.get(instanceId);
+            if (index == null) {
+                throw new IllegalArgumentException("Unknown instance: " + instanceId);
+            }
+            Instance instance = fleet.get(index).clone().withState(new InstanceState().withName(state));
+            fleet.set(index, instance);
+            instanceXml.set(index, toXml(instance));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds an instance in the given state to the fleet, in a reservation of its own, and returns its id.
+     */
+    public String launch(String state) {
+        lock.writeLock().lock();
+        try {
+            Instance instance;
+            synchronized (random) {
+                instance = new Instance()
+                        .withInstanceId(String.format("i-%017x", random.nextLong() >>> 4))
+                        .withInstanceType("t3.micro")
+                        .withPlacement(new Placement("eu-west-1a"))
+                        .withState(new InstanceState().withName(state))
+                        .withPrivateIpAddress(String.format("10.%d.%d.%d", random.nextInt(256), random.nextInt(256), random.nextInt(256)))
+                        .withPublicIpAddress(String.format("54.%d.%d.%d", random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            }
+            int index = fleet.size();
+            if (index == reservationOf.length) {
+                reservationOf = Arrays.copyOf(reservationOf, Math.max(16, index * 2));
+            }
+            reservationOf[index] = reservationXml.size();
+            reservationXml.add("<reservationId>" + String.format("r-%017x", index) + "</reservationId><ownerId>" + OWNER_ID + "</ownerId><groupSet/>");
+            indexOf.put(instance.getInstanceId(), index);
+            fleet.add(instance);
+            instanceXml.add(toXml(instance));
+            return instance.getInstanceId();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            Map<String, String> params = parse(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            calls.increment();
+            double latency;
+            boolean throttle;
+            synchronized (random) {
+                latency = latencyMillis * Math.exp(latencySigma * random.nextGaussian());
+                throttle = random.nextDouble() < throttleRate;
+            }
+            TimeUnit.MICROSECONDS.sleep((long) (latency * 1000));
+            if (throttle) {
+                throttled.increment();
+                respond(exchange, 503, error("RequestLimitExceeded", "Request limit exceeded."));
+            } else if ("DescribeInstances".equals(params.get("Action"))) {
+                describeInstances(exchange, params);
+            } else if ("DescribeRegions".equals(params.get("Action"))) {
+                respond(exchange, 200, describeRegions());
+            } else {
+                respond(exchange, 400, error("InvalidAction", "The action " + params.get("Action") + " is not valid for this web service."));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void describeInstances(HttpExchange exchange, Map<String, String> params) throws IOException {
+        List<String> instanceIds = instanceIdFilter(params);
+        int from;
+        int size;
+        try {
+            from = params.containsKey("NextToken") ? fromToken(params.get("NextToken")) : 0;
+            size = params.containsKey("MaxResults") ? Integer.parseInt(params.get("MaxResults")) : -1;
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, error("InvalidParameterValue", "Invalid value for NextToken or MaxResults"));
+            return;
+        }
+        if (size == -1) {
+            size = pageSize;
+        } else if (size < 5 || size > 1000) {
+            respond(exchange, 400, error("InvalidParameterValue", "Value (" + size + ") for parameter maxResults is invalid."));
+            return;
+        }
+        String response;
+        lock.readLock().lock();
+        try {
+            if (instanceIds != null) {
+                List<Integer> indexes = new ArrayList<>();
+                for (String instanceId : instanceIds) {
+                    Integer index = indexOf.get(instanceId);
+                    if (index != null) {
+                        indexes.add(index);
+                    }
+                }
+                response = describeInstancesResponse(indexes, null);
+            } else if (from < 0 || from > instanceXml.size()) {
+                response = null;
+            } else {
+                int to = Math.min(from + size, instanceXml.size());
+                List<Integer> indexes = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    indexes.add(i);
+                }
+                response = describeInstancesResponse(indexes, to < instanceXml.size() ? toToken(to) : null);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (response == null) {
+            respond(exchange, 400, error("InvalidParameterValue", "Invalid value for NextToken or MaxResults"));
+        } else {
+            respond(exchange, 200, response);
+        }
+    }
+
+    /**
+     * Instances at the given indexes, consecutive ones of a reservation in one reservation item.
+     */
+    private String describeInstancesResponse(List<Integer> indexes, String nextToken) {
+        StringBuilder xml = new StringBuilder(indexes.isEmpty() ? 512 : indexes.size() * instanceXml.get(indexes.get(0)).length() * 2)
+                .append("<DescribeInstancesResponse xmlns=\"").append(NAMESPACE).append("\"><requestId>")
+                .append(UUID.randomUUID()).append("</requestId><reservationSet>");
+        for (int i = 0; i < indexes.size(); i++) {
+            int index = indexes.get(i);
+            if (i == 0 || reservationOf[index] != reservationOf[indexes.get(i - 1)]) {
+                if (i != 0) {
+                    xml.append("</instancesSet></item>");
+                }
+                xml.append("<item>").append(reservationXml.get(reservationOf[index])).append("<instancesSet>");
+            }
+            xml.append(instanceXml.get(index));
+        }
+        if (!indexes.isEmpty()) {
+            xml.append("</instancesSet></item>");
+        }
+        xml.append("</reservationSet>");
+        if (nextToken != null) {
+            xml.append("<nextToken>").append(nextToken).append("</nextToken>");
+        }
+        return xml.append("</DescribeInstancesResponse>").toString();
+    }
+
+    /**
+     * Values of the instance-id filter, null when not filtered by instance id.
+     */
+    private static List<String> instanceIdFilter(Map<String, String> params) {
+        for (int filter = 1; params.containsKey("Filter." + filter + ".Name"); filter++) {
+            if ("instance-id".equals(params.get("Filter." + filter + ".Name"))) {
+                List<String> values = new ArrayList<>();
+                for (int value = 1; params.containsKey("Filter." + filter + ".Value." + value); value++) {
+                    values.add(params.get("Filter." + filter + ".Value." + value));
+                }
+                return values;
+            }
+        }
+        return null;
+    }
+
+    private static String describeRegions() {
+        StringBuilder xml = new StringBuilder("<DescribeRegionsResponse xmlns=\"").append(NAMESPACE).append("\"><requestId>")
+                .append(UUID.randomUUID()).append("</requestId><regionInfo>");
+        for (Regions region : Regions.values()) {
+            xml.append("<item><regionName>").append(region.getName()).append("</regionName><regionEndpoint>ec2.")
+                    .append(region.getName()).append(".amazonaws.com</regionEndpoint></item>");
+        }
+        return xml.append("</regionInfo></DescribeRegionsResponse>").toString();
+    }
+
+    private static String error(String code, String message) {
+        return "<Response><Errors><Error><Code>" + code + "</Code><Message>" + escape(message) + "</Message></Error></Errors>"
+                + "<RequestID>" + UUID.randomUUID() + "</RequestID></Response>";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String xml) throws IOException {
+        byte[] body = xml.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/xml;charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream response = exchange.getResponseBody()) {
+            response.write(body);
+        }
+    }
+
+    private static String toXml(Instance instance) {
+        StringBuilder xml = new StringBuilder("<item><instanceId>").append(instance.getInstanceId()).append("</instanceId>")
+                // state codes are 0, 16, 32, ... in the order of InstanceStateName
+                .append("<instanceState><code>").append(16 * ordinal(instance.getState().getName())).append("</code><name>")
+                .append(instance.getState().getName()).append("</name></instanceState>")
+                .append("<privateIpAddress>").append(instance.getPrivateIpAddress()).append("</privateIpAddress>")
+                .append("<ipAddress>").append(instance.getPublicIpAddress()).append("</ipAddress>")
+                .append("<instanceType>").append(instance.getInstanceType()).append("</instanceType>")
+                .append("<placement><availabilityZone>").append(instance.getPlacement().getAvailabilityZone())
+                .append("</availabilityZone></placement><tagSet>");
+        for (Tag tag : instance.getTags()) {
+            xml.append("<item><key>").append(escape(tag.getKey())).append("</key><value>").append(escape(tag.getValue()))
+                    .append("</value></item>");
+        }
+        return xml.append("</tagSet></item>").toString();
+    }
+
+    private static int ordinal(String state) {
+        return InstanceStateName.fromValue(state).ordinal();
+    }
+
+    private static String toToken(int from) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(("stub:" + from).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int fromToken(String token) {
+        String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        if (!decoded.startsWith("stub:")) {
+            throw new IllegalArgumentException("Invalid token: " + token);
+        }
+        return Integer.parseInt(decoded.substring("stub:".length()));
+    }
+
+    private static Map<String, String> parse(String form) {
+        Map<String, String> params = new HashMap<>();
+        for (String pair : form.split("&")) {
+            if (!pair.isEmpty()) {
+                String[] param = pair.split("=", 2);
+                params.put(URLDecoder.decode(param[0], StandardCharsets.UTF_8),
+                        param.length > 1 ? URLDecoder.decode(param[1], StandardCharsets.UTF_8) : "");
+            }
+        }
+        return params;
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -0,0 +1,188 @@
+package com.cisco.ec2;
+
+import com.amazonaws.regions.Regions;
+import com.cisco.Application;
+import org.springframework.boot.Banner;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Starts the app in each mode against a stubbed ec2 with a fixed latency and drives it with increasing numbers of
+ * concurrent clients. Modes are servlet (platform thread pools), virtual (servlet with ec2.executor.virtual-threads)
+ * and reactive (reactive profile, single region path only). The single region path requests
+ * aws-api/v1/regions/{region}/ec2, the regions path fans out to a number of regions per request through the ec2
+ * executor. Every request is distinct so describe calls are not coalesced.
+ * <p>
+ * Reports throughput, mean latency, errors and the peak number of live platform threads, those of the ec2 client pool
+ * (the sdk v1 async client blocks one per call in flight) apart from the rest but the clients. Virtual threads are not
+ * counted, their carrier threads are. Options as key=value arguments: modes (servlet,virtual,reactive),
+ * path (instances or regions), regions (8), clients (64,256,1024), durationSeconds (10), warmupSeconds (3),
+ * latencyMillis (100), instances (10), maxConnections (256).
+ */
+public class StackLoadTest {
+
+    private static final String CLIENT_THREAD = "load-client-";
+    private static final String EC2_THREAD = "ec2-async-";
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = options(args);
+        List<String> modes = Arrays.asList(options.getOrDefault("modes", "servlet,virtual,reactive").split(","));
+        boolean regionsPath = "regions".equals(options.getOrDefault("path", "instances"));
+        int regions = Integer.parseInt(options.getOrDefault("regions", "8"));
+        List<Integer> clients = Arrays.stream(options.getOrDefault("clients", "64,256,1024").split(","))
+                .map(Integer::valueOf)
+                .collect(Collectors.toList());
+        int durationSeconds = Integer.parseInt(options.getOrDefault("durationSeconds", "10"));
+        int warmupSeconds = Integer.parseInt(options.getOrDefault("warmupSeconds", "3"));
+        long latencyMillis = Long.parseLong(options.getOrDefault("latencyMillis", "100"));
+        int instances = Integer.parseInt(options.getOrDefault("instances", "10"));
+        int maxConnections = Integer.parseInt(options.getOrDefault("maxConnections", "256"));
+        System.setProperty("http.maxConnections", String.valueOf(clients.stream().max(Integer::compare).orElse(1)));
+
+        System.out.printf("path: %s, ec2 latency: %d ms, instances per page: %d, ec2 connections: %d%n",
+                regionsPath ? regions + " regions" : "single region", latencyMillis, instances, maxConnections);
+        for (String mode : modes) {
+            if (regionsPath && mode.equals(ReactiveEc2Configuration.REACTIVE_PROFILE)) {
+                System.out.printf("%-8s skipped, the regions path is not served reactive%n", mode);
+                continue;
+            }
+            try (ConfigurableApplicationContext context = start(mode, instances, latencyMillis, maxConnections)) {
+                String url = url(context.getEnvironment().getProperty("local.server.port"), regionsPath, regions, instances);
+                for (int modeClients : clients) {
+                    run(url, modeClients, warmupSeconds);
+                    Result result = run(url, modeClients, durationSeconds);
+                    System.out.printf("%-8s %5d clients %8.0f req/s, mean %7.1f ms, errors %6d, peak threads: server %4d, ec2 client %4d%n",
+                            mode, modeClients, result.requests.sum() / (double) durationSeconds, result.meanMillis(),
+                            result.errors.sum(), result.peakServerThreads.get(), result.peakEc2Threads.get());
+                }
+            }
+        }
+    }
+
+    static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "");
+        }
+        return options;
+    }
+
+    private static ConfigurableApplicationContext start(String mode, int instances, long latencyMillis, int maxConnections) {
+        SpringApplicationBuilder application = new SpringApplicationBuilder(Application.class)
+                .bannerMode(Banner.Mode.OFF)
+                .initializers(context -> ((GenericApplicationContext) context).registerBean(StubEc2ClientProvider.class,
+                        () -> new StubEc2ClientProvider(instances, latencyMillis, maxConnections),
+                        definition -> definition.setPrimary(true)));
+        if (mode.equals(ReactiveEc2Configuration.REACTIVE_PROFILE)) {
+            application.profiles(ReactiveEc2Configuration.REACTIVE_PROFILE);
+        }
+        return application.run("--server.port=0",
+                "--logging.level.root=WARN",
+                "--ec2.client.prewarm-regions=",
+                "--ec2.rate-limit.min-rate=1000000",
+                "--ec2.rate-limit.max-rate=1000000",
+                "--ec2.executor.virtual-threads=" + mode.equals("virtual"));
+    }
+
+    private static String url(String port, boolean regionsPath, int regions, int instances) {
+        if (!regionsPath) {
+            return String.format("http://localhost:%s/aws-api/v1/regions/eu-west-1/ec2?size=%d&nextToken=", port, Math.max(5, instances));
+        }
+        List<String> regionNames = new ArrayList<>();
+        for (int i = 0; i < regions; i++) {
+            regionNames.add(Regions.values()[i % Regions.values().length].getName());
+        }
+        return String.format("http://localhost:%s/aws-api/v1/ec2?regions=%s&tag=", port, String.join(",", regionNames));
+    }
+
+    private static Result run(String url, int clients, int seconds) throws InterruptedException {
+        Result result = new Result();
+        AtomicInteger requests = new AtomicInteger();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        CountDownLatch done = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++) {
+            Thread client = new Thread(() -> {
+                while (System.nanoTime() - deadline < 0) {
+                    long start = System.nanoTime();
+                    if (get(url + "load-" + requests.incrementAndGet())) {
+                        result.requests.increment();
+                        result.nanos.add(System.nanoTime() - start);
+                    } else {
+                        result.errors.increment();
+                    }
+                }
+                done.countDown();
+            }, CLIENT_THREAD + i);
+            client.setDaemon(true);
+            client.start();
+        }
+        while (!done.await(100, TimeUnit.MILLISECONDS)) {
+            long serverThreads = 0;
+            long ec2Threads = 0;
+            for (ThreadInfo thread : THREADS.getThreadInfo(THREADS.getAllThreadIds())) {
+                if (thread == null || thread.getThreadName().startsWith(CLIENT_THREAD)) {
+                    continue;
+                }
+                if (thread.getThreadName().startsWith(EC2_THREAD)) {
+                    ec2Threads++;
+                } else {
+                    serverThreads++;
+                }
+            }
+            result.peakServerThreads.accumulateAndGet(serverThreads, Math::max);
+            result.peakEc2Threads.accumulateAndGet(ec2Threads, Math::max);
+        }
+        return result;
+    }
+
+    private static boolean get(String url) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) URI.create(url).toURL().openConnection();
+            int status = connection.getResponseCode();
+            try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                byte[] buffer = new byte[8192];
+                while (body != null && body.read(buffer) >= 0) {
+                    // drained so the connection is kept alive
+                }
+            }
+            return status == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static class Result {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final AtomicLong peakServerThreads = new AtomicLong();
+        private final AtomicLong peakEc2Threads = new AtomicLong();
+
+        private double meanMillis() {
+            long count = requests.sum();
+            return count == 0 ? 0 : nanos.sum() / (double) count / 1_000_000;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.cisco.ec2;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.ec2.AbstractAmazonEC2Async;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.AmazonEC2Async;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ec2 clients answering describe instances with the same synthetic page after a fixed latency. Like the sdk v1 async
+ * client, async calls block a thread of a pool sized like the connection pool for the whole latency.
+ */
+class StubEc2ClientProvider extends Ec2ClientProvider {
+
+    private final StubEc2 ec2;
+
+    StubEc2ClientProvider(int instances, long latencyMillis, int maxConnections) {
+        super(1, Long.MAX_VALUE, new String[0], maxConnections, 2000, 10000, 15000, true, "", new SimpleMeterRegistry());
+        this.ec2 = new StubEc2(new DescribeInstancesResult().withReservations(Ec2Fleet.reservations(instances)),
+                latencyMillis, maxConnections);
+    }
+
+    @Override
+    public AmazonEC2 getClient(String region) {
+        return ec2;
+    }
+
+    @Override
+    public AmazonEC2Async getAsyncClient(String region) {
+        return ec2;
+    }
+
+    @Override
+    void shutdown() {
+        ec2.shutdown();
+    }
+
+    private static class StubEc2 extends AbstractAmazonEC2Async {
+
+        private final DescribeInstancesResult page;
+        private final long latencyMillis;
+        private final ExecutorService executor;
+
+        private StubEc2(DescribeInstancesResult page, long latencyMillis, int threads) {
+            this.page = page;
+            this.latencyMillis = latencyMillis;
+            this.executor = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("ec2-async-stub-"));
+        }
+
+        @Override
+        public DescribeInstancesResult describeInstances(DescribeInstancesRequest request) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return page;
+        }
+
+        @Override
+        public Future<DescribeInstancesResult> describeInstancesAsync(DescribeInstancesRequest request,
+                                                                      AsyncHandler<DescribeInstancesRequest, DescribeInstancesResult> handler) {
+            return executor.submit(() -> {
+                DescribeInstancesResult result = describeInstances(request);
+                handler.onSuccess(request, result);
+                return result;
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            executor.shutdownNow();
+        }
+    }
+}
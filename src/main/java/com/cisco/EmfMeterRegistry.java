@@ -0,0 +1,145 @@
+package com.cisco;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.simple.SimpleConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meter registry of the lambda. Publishing writes one cloudwatch embedded metric format line per meter to the given
+ * stream (stdout in lambda, turned into metrics by cloudwatch logs), so no call to cloudwatch is made while serving.
+ * Counters, timers, summaries and histogram buckets are published as the change since the previous publish, meters
+ * without any change are skipped, gauges are published as they are.
+ */
+public class EmfMeterRegistry extends SimpleMeterRegistry {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private final String namespace;
+    private final PrintStream out;
+    private final Map<Meter.Id, double[]> published = new HashMap<>();
+
+    public EmfMeterRegistry(String namespace, PrintStream out, Clock clock) {
+        super(SimpleConfig.DEFAULT, clock);
+        this.namespace = namespace;
+        this.out = out;
+    }
+
+    public synchronized void publish() {
+        long timestamp = clock.wallTime();
+        for (Meter meter : getMeters()) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            Map<String, String> units = new LinkedHashMap<>();
+            meter.use(
+                    gauge -> {
+                        if (meter.getId().syntheticAssociation() == null) {
+                            value(values, units, meter.getId().getName(), gauge.value(), unit(meter));
+                        } else {
+                            delta(meter, values, units, gauge.value(), 0);
+                        }
+                    },
+                    counter -> delta(meter, values, units, counter.count(), 0),
+                    timer -> {
+                        if (delta(meter, values, units, timer.count(), timer.totalTime(TimeUnit.MILLISECONDS))) {
+                            value(values, units, meter.getId().getName() + ".max", timer.max(TimeUnit.MILLISECONDS), "Milliseconds");
+                        }
+                    },
+                    summary -> {
+                        if (delta(meter, values, units, summary.count(), summary.totalAmount())) {
+                            value(values, units, meter.getId().getName() + ".max", summary.max(), unit(meter));
+                        }
+                    },
+                    longTaskTimer -> value(values, units, meter.getId().getName() + ".active", longTaskTimer.activeTasks(), "Count"),
+                    timeGauge -> value(values, units, meter.getId().getName(), timeGauge.value(TimeUnit.MILLISECONDS), "Milliseconds"),
+                    functionCounter -> delta(meter, values, units, functionCounter.count(), 0),
+                    functionTimer -> delta(meter, values, units, functionTimer.count(), functionTimer.totalTime(TimeUnit.MILLISECONDS)),
+                    other -> {
+                    });
+            if (!values.isEmpty()) {
+                out.println(line(meter.getId(), timestamp, values, units));
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Adds the change of count (and total for timers and summaries) since the previous publish, false if unchanged.
+     */
+    private boolean delta(Meter meter, Map<String, Object> values, Map<String, String> units, double count, double total) {
+        double[] previous = published.getOrDefault(meter.getId(), new double[2]);
+        double countDelta = count - previous[0];
+        if (countDelta <= 0) {
+            return false;
+        }
+        published.put(meter.getId(), new double[]{count, total});
+        String name = meter.getId().getName();
+        switch (meter.getId().getType()) {
+            case GAUGE:
+            case COUNTER:
+                value(values, units, name, countDelta, "Count");
+                break;
+            case TIMER:
+                value(values, units, name + ".count", countDelta, "Count");
+                value(values, units, name + ".sum", total - previous[1], "Milliseconds");
+                break;
+            default:
+                value(values, units, name + ".count", countDelta, "Count");
+                value(values, units, name + ".sum", total - previous[1], unit(meter));
+        }
+        return true;
+    }
+
+    private static void value(Map<String, Object> values, Map<String, String> units, String name, double value, String unit) {
+        if (Double.isFinite(value)) {
+            values.put(name, value);
+            units.put(name, unit);
+        }
+    }
+
+    private static String unit(Meter meter) {
+        return "milliseconds".equals(meter.getId().getBaseUnit()) ? "Milliseconds" : "None";
+    }
+
+    private String line(Meter.Id id, long timestamp, Map<String, Object> values, Map<String, String> units) {
+        List<String> dimensions = new ArrayList<>();
+        Map<String, Object> line = new LinkedHashMap<>();
+        for (Tag tag : id.getTagsAsIterable()) {
+            dimensions.add(tag.getKey());
+            line.put(tag.getKey(), tag.getValue());
+        }
+        List<Map<String, String>> metrics = new ArrayList<>();
+        units.forEach((name, unit) -> {
+            Map<String, String> metric = new LinkedHashMap<>();
+            metric.put("Name", name);
+            metric.put("Unit", unit);
+            metrics.add(metric);
+        });
+        Map<String, Object> directive = new LinkedHashMap<>();
+        directive.put("Namespace", namespace);
+        directive.put("Dimensions", Collections.singletonList(dimensions));
+        directive.put("Metrics", metrics);
+        Map<String, Object> aws = new LinkedHashMap<>();
+        aws.put("Timestamp", timestamp);
+        aws.put("CloudWatchMetrics", Collections.singletonList(directive));
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("_aws", aws);
+        document.putAll(line);
+        document.putAll(values);
+        try {
+            return OBJECT_MAPPER.writeValueAsString(document);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.cisco;
+
+import io.micrometer.core.instrument.Clock;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Metrics of the lambda are written as embedded metric format log lines at the end of every invocation, instead of
+ * being exposed by the actuator endpoint (which the lambda doesn't serve).
+ */
+@Configuration
+@Profile(StreamLambdaHandler.LAMBDA_PROFILE)
+public class LambdaMetricsConfiguration {
+
+    @Bean
+    public EmfMeterRegistry emfMeterRegistry(@Value("${ec2.metrics.namespace:aws-api}") String namespace) {
+        return new EmfMeterRegistry(namespace, System.out, Clock.SYSTEM);
+    }
+
+    /**
+     * Outermost filter, publishes once the request, including its own http.server.requests timer, completed.
+     */
+    @Bean
+    public FilterRegistrationBean<OncePerRequestFilter> emfPublishingFilter(EmfMeterRegistry emfMeterRegistry) {
+        FilterRegistrationBean<OncePerRequestFilter> registration = new FilterRegistrationBean<>(new OncePerRequestFilter() {
+            @Override
+            protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+                try {
+                    filterChain.doFilter(request, response);
+                } finally {
+                    emfMeterRegistry.publish();
+                }
+            }
+        });
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+}
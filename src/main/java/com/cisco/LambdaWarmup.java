@@ -0,0 +1,49 @@
+package com.cisco;
+
+import com.cisco.ec2.Ec2ClientProvider;
+import com.cisco.ec2.model.Ec2Instance;
+import com.cisco.ec2.model.ErrorResponse;
+import com.cisco.ec2.model.GetEc2Response;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+
+/**
+ * Beans are initialized lazily in the lambda profile, this one is not: it builds the ec2 client and the jackson
+ * serializers of the responses during lambda init, which is cheaper than doing it in the first invocation.
+ */
+@Component
+@Profile(StreamLambdaHandler.LAMBDA_PROFILE)
+@Lazy(false)
+class LambdaWarmup {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LambdaWarmup.class);
+    private final Ec2ClientProvider ec2ClientProvider;
+    private final ObjectMapper objectMapper;
+    private final String defaultRegion;
+
+    LambdaWarmup(Ec2ClientProvider ec2ClientProvider, ObjectMapper objectMapper,
+                 @Value("${ec2.default-region:eu-west-1}") String defaultRegion) {
+        this.ec2ClientProvider = ec2ClientProvider;
+        this.objectMapper = objectMapper;
+        this.defaultRegion = defaultRegion;
+    }
+
+    @PostConstruct
+    void warmUp() throws JsonProcessingException {
+        long start = System.currentTimeMillis();
+        ec2ClientProvider.getClient(defaultRegion);
+        Ec2Instance instance = new Ec2Instance("name", "i-0", "running", "t3.micro", defaultRegion + "a", "10.0.0.1", null);
+        objectMapper.writeValueAsBytes(GetEc2Response.builder().instances(Collections.singletonList(instance)).nextToken("token").build());
+        objectMapper.writeValueAsBytes(ErrorResponse.builder().errorMessage("warmup").status(400).build());
+        LOGGER.info("Warmed up ec2 client and json serialization in {} ms", System.currentTimeMillis() - start);
+    }
+}
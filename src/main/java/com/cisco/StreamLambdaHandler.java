@@ -1,36 +1,81 @@
 package com.cisco;
 
 import com.amazonaws.serverless.exceptions.ContainerInitializationException;
+import com.amazonaws.serverless.proxy.InitializationWrapper;
+import com.amazonaws.serverless.proxy.internal.LambdaContainerHandler;
+import com.amazonaws.serverless.proxy.internal.testutils.AwsProxyRequestBuilder;
+import com.amazonaws.serverless.proxy.internal.testutils.MockLambdaContext;
 import com.amazonaws.serverless.proxy.model.AwsProxyRequest;
 import com.amazonaws.serverless.proxy.model.AwsProxyResponse;
 import com.amazonaws.serverless.proxy.spring.SpringBootLambdaContainerHandler;
+import com.amazonaws.serverless.proxy.spring.SpringBootProxyHandlerBuilder;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.cisco.ec2.Ec2Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Helper class to allow the app to run as lambda on aws
+ * Helper class to allow the app to run as lambda on aws. The application starts with the lambda profile (see
+ * application-lambda.yaml), init duration and latency of the first invocation are logged as the cold start report.
+ * Beans are created lazily in that profile, so init ends with a priming request which creates the beans of the request
+ * path (dispatcher, controller, services, error handling) that the first invocation would otherwise create.
+ * CBOR and Smile responses are returned base64 encoded, api gateway decodes them (binaryMediaTypes in serverless.yaml).
+ * The lambda Context reaches the request as an attribute, DeadlineFilter derives the request deadline from it.
  */
 public class StreamLambdaHandler implements RequestStreamHandler {
+    static final String LAMBDA_PROFILE = "lambda";
+    // an unknown region is rejected before any ec2 call, the request never leaves the lambda
+    private static final String PRIMING_PATH = "/aws-api/v1/regions/priming/ec2";
     private static Logger LOGGER = LoggerFactory.getLogger(StreamLambdaHandler.class);
     private static SpringBootLambdaContainerHandler<AwsProxyRequest, AwsProxyResponse> handler;
+    private static final long initDurationMillis;
+    private static volatile boolean invoked;
 
     static {
+        long start = System.nanoTime();
+        LambdaContainerHandler.getContainerConfig().addBinaryContentTypes(MediaType.APPLICATION_CBOR_VALUE, Ec2Configuration.SMILE);
         try {
-            handler = SpringBootLambdaContainerHandler.getAwsProxyHandler(Application.class);
+            // webflux is on the classpath for the reactive profile, the lambda container only proxies to servlets
+            handler = new SpringBootProxyHandlerBuilder<AwsProxyRequest>()
+                    .defaultProxy()
+                    .initializationWrapper(new InitializationWrapper())
+                    .servletApplication()
+                    .springBootApplication(Application.class)
+                    .profiles(LAMBDA_PROFILE)
+                    .buildAndInitialize();
         } catch (ContainerInitializationException e) {
             LOGGER.error("Error during init: ", e);
             throw new RuntimeException("Could not initialize Spring Boot application", e);
         }
+        long primingStart = System.nanoTime();
+        AwsProxyResponse priming = handler.proxy(new AwsProxyRequestBuilder(PRIMING_PATH, "GET").build(), new MockLambdaContext());
+        LOGGER.info("Primed request path with status {} in {} ms", priming.getStatusCode(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - primingStart));
+        initDurationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOGGER.info("Cold start: init duration {} ms", initDurationMillis);
     }
 
     @Override
     public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+        if (invoked) {
+            handler.proxyStream(input, output, context);
+            return;
+        }
+        invoked = true;
+        long start = System.nanoTime();
         handler.proxyStream(input, output, context);
+        LOGGER.info("Cold start: init duration {} ms, first invocation {} ms", initDurationMillis,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    static long getInitDurationMillis() {
+        return initDurationMillis;
     }
 }
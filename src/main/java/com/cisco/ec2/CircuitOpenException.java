@@ -0,0 +1,15 @@
+package com.cisco.ec2;
+
+public class CircuitOpenException extends RuntimeException {
+
+    private final long retryAfterMillis;
+
+    public CircuitOpenException(String region, long retryAfterMillis) {
+        super("Circuit open for region: " + region);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
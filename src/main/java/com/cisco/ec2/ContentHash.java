@@ -0,0 +1,63 @@
+package com.cisco.ec2;
+
+import com.cisco.ec2.model.Ec2Instance;
+
+import java.util.List;
+
+/**
+ * 64 bit FNV-1a hash of mapped instances, used as ETag of the inventory responses. It is order sensitive, the same
+ * instances sorted differently hash differently, as their json does.
+ */
+final class ContentHash {
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+    private static final char NULL = '\u0000';
+    private static final char SEPARATOR = '\u001f';
+
+    private ContentHash() {
+    }
+
+    static long of(List<Ec2Instance> instances) {
+        long hash = OFFSET_BASIS;
+        for (int i = 0; i < instances.size(); i++) {
+            Ec2Instance instance = instances.get(i);
+            hash = add(hash, instance.getName());
+            hash = add(hash, instance.getInstanceId());
+            hash = add(hash, instance.getState());
+            hash = add(hash, instance.getType());
+            hash = add(hash, instance.getAvailabilityZone());
+            hash = add(hash, instance.getPrivateIp());
+            hash = add(hash, instance.getPublicIp());
+        }
+        return hash;
+    }
+
+    /**
+     * ETag of a response with the given instances hash, the other parts (next token, stale flag, page position) are
+     * whatever else makes up the response body. It is weak, the same instances are sent in different formats and
+     * encodings (and tomcat doesn't compress responses with a strong ETag).
+     */
+    static String etag(long contentHash, Object... parts) {
+        long hash = contentHash;
+        for (Object part : parts) {
+            hash = add(hash, part == null ? null : part.toString());
+        }
+        return "W/\"" + Long.toHexString(hash) + "\"";
+    }
+
+    private static long add(long hash, String value) {
+        if (value == null) {
+            return mix(mix(hash, NULL), SEPARATOR);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = mix(hash, value.charAt(i));
+        }
+        return mix(hash, SEPARATOR);
+    }
+
+    private static long mix(long hash, char value) {
+        hash = (hash ^ (value & 0xff)) * PRIME;
+        return (hash ^ (value >>> 8)) * PRIME;
+    }
+}
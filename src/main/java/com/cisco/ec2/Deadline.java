@@ -0,0 +1,103 @@
+package com.cisco.ec2;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Point in time by which a request has to be answered, bound to the request thread by DeadlineFilter. Multi page
+ * operations stop calling ec2 once it passed and return what they have with a nextToken to resume from, waits for
+ * rate limit permits and retries end with it. Requests without a deadline see NONE, which never passes, as does work
+ * on other threads unless its task is bound to the deadline.
+ */
+final class Deadline {
+
+    static final Deadline NONE = new Deadline(0);
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+    private final long nanos;
+
+    private Deadline(long nanos) {
+        this.nanos = nanos;
+    }
+
+    static Deadline in(long millis) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis)));
+    }
+
+    static void set(Deadline deadline) {
+        CURRENT.set(deadline);
+    }
+
+    static void clear() {
+        CURRENT.remove();
+    }
+
+    static Deadline current() {
+        Deadline deadline = CURRENT.get();
+        return deadline == null ? NONE : deadline;
+    }
+
+    boolean isExpired() {
+        return this != NONE && nanos - System.nanoTime() <= 0;
+    }
+
+    long remainingMillis() {
+        return this == NONE ? Long.MAX_VALUE : Math.max(0, TimeUnit.NANOSECONDS.toMillis(nanos - System.nanoTime()));
+    }
+
+    long remainingMillis(long timeoutMillis) {
+        return Math.min(timeoutMillis, remainingMillis());
+    }
+
+    /**
+     * The task running with this deadline as the current one, for work handed to executor threads.
+     */
+    <T> Callable<T> bind(Callable<T> task) {
+        if (this == NONE) {
+            return task;
+        }
+        return () -> {
+            Deadline previous = CURRENT.get();
+            CURRENT.set(this);
+            try {
+                return task.call();
+            } finally {
+                if (previous == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Result of the call, or null when the deadline passes first, the call is then cancelled. Without a deadline the
+     * call runs on the calling thread, otherwise on the executor. Failures of the call are thrown as they are.
+     */
+    <T> T call(ExecutorService executor, Supplier<T> call) {
+        if (this == NONE) {
+            return call.get();
+        }
+        Future<T> result = executor.submit(bind(call::get));
+        try {
+            return result.get(Math.max(0, nanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException ex) {
+            result.cancel(true);
+            return null;
+        } catch (InterruptedException ex) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.cisco.ec2;
+
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String region) {
+        super("Deadline passed before the first page of region: " + region + " arrived");
+    }
+}
@@ -0,0 +1,62 @@
+package com.cisco.ec2;
+
+import com.amazonaws.serverless.proxy.RequestReader;
+import com.amazonaws.services.lambda.runtime.Context;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Binds the Deadline of the ec2 endpoints: the earliest of the remaining time of the lambda invocation, the time the
+ * client waits (X-Timeout-Ms header, in milliseconds) and ec2.deadline.max-ms, less ec2.deadline.reserve-ms kept to
+ * write the response. Requests with none of them have no deadline.
+ */
+@Component
+@Profile("!" + ReactiveEc2Configuration.REACTIVE_PROFILE)
+public class DeadlineFilter extends OncePerRequestFilter {
+
+    static final String TIMEOUT_HEADER = "X-Timeout-Ms";
+    private final long maxMillis;
+    private final long reserveMillis;
+
+    public DeadlineFilter(@Value("${ec2.deadline.max-ms:0}") long maxMillis,
+                          @Value("${ec2.deadline.reserve-ms:1000}") long reserveMillis) {
+        this.maxMillis = maxMillis;
+        this.reserveMillis = reserveMillis;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith("/aws-api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        long budgetMillis = maxMillis > 0 ? maxMillis : Long.MAX_VALUE;
+        Object lambdaContext = request.getAttribute(RequestReader.LAMBDA_CONTEXT_PROPERTY);
+        if (lambdaContext instanceof Context) {
+            budgetMillis = Math.min(budgetMillis, ((Context) lambdaContext).getRemainingTimeInMillis());
+        }
+        String timeout = request.getHeader(TIMEOUT_HEADER);
+        if (timeout != null && timeout.matches("\\d{1,9}")) {
+            budgetMillis = Math.min(budgetMillis, Long.parseLong(timeout));
+        }
+        if (budgetMillis == Long.MAX_VALUE) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        Deadline.set(Deadline.in(budgetMillis - reserveMillis));
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            Deadline.clear();
+        }
+    }
+}
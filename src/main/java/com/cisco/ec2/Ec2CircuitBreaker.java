@@ -0,0 +1,133 @@
+package com.cisco.ec2;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.http.timers.client.ClientExecutionTimeoutException;
+import com.amazonaws.retry.RetryUtils;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breakers of ec2 calls, one per region (see RegionCircuitBreaker). Server side errors and client failures
+ * without a response (io errors and timeouts) count as failures, any other response, throttling included, shows the
+ * region is reachable. Calls ending without reaching ec2 (aborted, rate limited, past the deadline) are ignored.
+ */
+@Component
+public class Ec2CircuitBreaker {
+
+    private final ConcurrentMap<String, RegionCircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final int failureThreshold;
+    private final long openMillis;
+    private final MeterRegistry meterRegistry;
+
+    public Ec2CircuitBreaker(@Value("${ec2.circuit-breaker.failure-threshold:5}") int failureThreshold,
+                             @Value("${ec2.circuit-breaker.open-ms:30000}") long openMillis,
+                             MeterRegistry meterRegistry) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T> T execute(String region, Supplier<T> call) {
+        RegionCircuitBreaker breaker = breakers.computeIfAbsent(region, this::createBreaker);
+        breaker.acquire();
+        try {
+            T result = call.get();
+            breaker.onSuccess();
+            return result;
+        } catch (RuntimeException | Error ex) {
+            onFailure(breaker, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Like execute, the outcome is recorded once the returned future completes. An open circuit fails the future.
+     */
+    public <T> CompletableFuture<T> executeAsync(String region, Supplier<CompletableFuture<T>> call) {
+        RegionCircuitBreaker breaker = breakers.computeIfAbsent(region, this::createBreaker);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            breaker.acquire();
+            call.get().whenComplete((value, failure) -> {
+                if (failure == null) {
+                    breaker.onSuccess();
+                    result.complete(value);
+                } else {
+                    Throwable cause = Futures.unwrap(failure);
+                    onFailure(breaker, cause);
+                    result.completeExceptionally(cause);
+                }
+            });
+        } catch (CircuitOpenException ex) {
+            result.completeExceptionally(ex);
+        } catch (RuntimeException ex) {
+            onFailure(breaker, ex);
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    public Set<String> getRegions() {
+        return breakers.keySet();
+    }
+
+    public String getState(String region) {
+        RegionCircuitBreaker breaker = breakers.get(region);
+        return (breaker == null ? RegionCircuitBreaker.State.CLOSED : breaker.getState()).name();
+    }
+
+    /**
+     * Number of times the circuit of the region changed to the given state (CLOSED, OPEN or HALF_OPEN).
+     */
+    public long getTransitions(String region, String state) {
+        RegionCircuitBreaker breaker = breakers.get(region);
+        return breaker == null ? 0 : breaker.getTransitions(RegionCircuitBreaker.State.valueOf(state));
+    }
+
+    /**
+     * State is published as a gauge (0 closed, 1 open, 2 half open), transitions as counters tagged with the state.
+     */
+    private RegionCircuitBreaker createBreaker(String region) {
+        RegionCircuitBreaker breaker = new RegionCircuitBreaker(region, failureThreshold, openMillis);
+        meterRegistry.gauge("ec2.circuit.state", Tags.of("region", region), breaker, value -> value.getState().ordinal());
+        for (RegionCircuitBreaker.State state : RegionCircuitBreaker.State.values()) {
+            FunctionCounter.builder("ec2.circuit.transitions", breaker, value -> value.getTransitions(state))
+                    .tags("region", region, "state", state.name())
+                    .register(meterRegistry);
+        }
+        return breaker;
+    }
+
+    private static void onFailure(RegionCircuitBreaker breaker, Throwable ex) {
+        if (isFailure(ex)) {
+            breaker.onFailure();
+        } else if (ex instanceof AmazonServiceException) {
+            breaker.onSuccess();
+        } else {
+            breaker.onIgnored();
+        }
+    }
+
+    private static boolean isFailure(Throwable ex) {
+        if (ex instanceof AmazonServiceException) {
+            AmazonServiceException serviceException = (AmazonServiceException) ex;
+            return serviceException.getStatusCode() >= 500 && !RetryUtils.isThrottlingException(serviceException);
+        }
+        if (ex instanceof AbortedException || !(ex instanceof SdkClientException)) {
+            return false;
+        }
+        return ex instanceof ClientExecutionTimeoutException || ex.getCause() == null || ex.getCause() instanceof IOException;
+    }
+}
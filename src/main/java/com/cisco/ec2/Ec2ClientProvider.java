@@ -1,15 +1,215 @@
 package com.cisco.ec2;
 
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.RegionUtils;
 import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.AmazonEC2Async;
+import com.amazonaws.services.ec2.AmazonEC2AsyncClientBuilder;
 import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Registry of ec2 clients, one per region, reused between requests. Idle and least recently used clients are evicted
+ * and shut down once no call can still be using them (see ec2.client in application.yaml).
+ */
 @Component
 public class Ec2ClientProvider {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(Ec2ClientProvider.class);
+    private static final Set<String> KNOWN_REGIONS = RegionUtils.getRegions().stream()
+            .map(Region::getName)
+            .collect(toSet());
+    private final ConcurrentMap<String, RegionClient> clients = new ConcurrentHashMap<>();
+    private final Set<AmazonEC2> retired = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService retirer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ec2-client-retirer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final int maxClients;
+    private final long idleTimeoutMillis;
+    private final List<String> prewarmRegions;
+    private final ClientConfiguration clientConfiguration;
+    private final boolean async;
+    private final String endpoint;
+    private final Timer hitTimer;
+    private final Timer missTimer;
+
+    public Ec2ClientProvider(@Value("${ec2.client.max-clients:32}") int maxClients,
+                             @Value("${ec2.client.idle-timeout-ms:1800000}") long idleTimeoutMillis,
+                             @Value("${ec2.client.prewarm-regions:}") String[] prewarmRegions,
+                             @Value("${ec2.client.max-connections:50}") int maxConnections,
+                             @Value("${ec2.client.connection-timeout-ms:2000}") int connectionTimeoutMillis,
+                             @Value("${ec2.client.socket-timeout-ms:10000}") int socketTimeoutMillis,
+                             @Value("${ec2.client.request-timeout-ms:15000}") int requestTimeoutMillis,
+                             @Value("${ec2.client.async:false}") boolean async,
+                             @Value("${ec2.client.endpoint:}") String endpoint,
+                             MeterRegistry meterRegistry) {
+        this.maxClients = maxClients;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.prewarmRegions = Arrays.asList(prewarmRegions);
+        this.clientConfiguration = new ClientConfiguration()
+                .withMaxConnections(maxConnections)
+                .withConnectionTimeout(connectionTimeoutMillis)
+                .withSocketTimeout(socketTimeoutMillis)
+                .withRequestTimeout(requestTimeoutMillis)
+                .withMaxErrorRetry(0)
+                .withTcpKeepAlive(true);
+        this.async = async;
+        this.endpoint = endpoint;
+        this.hitTimer = meterRegistry.timer("ec2.client.acquire", "cache", "hit");
+        this.missTimer = meterRegistry.timer("ec2.client.acquire", "cache", "miss");
+        meterRegistry.gauge("ec2.client.count", clients, Map::size);
+    }
+
+    @PostConstruct
+    void prewarm() {
+        prewarmRegions.forEach(this::getClient);
+    }
+
     public AmazonEC2 getClient(String region) {
-        return AmazonEC2ClientBuilder.standard()
-                .withRegion(region)
-                .build();
+        long start = System.nanoTime();
+        RegionClient regionClient = clients.get(region);
+        if (regionClient != null) {
+            hits.increment();
+            hitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return regionClient.touch();
+        }
+        validateRegion(region);
+        regionClient = clients.computeIfAbsent(region, this::createClient);
+        evictIdleClients();
+        missTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return regionClient.touch();
+    }
+
+    public AmazonEC2Async getAsyncClient(String region) {
+        AmazonEC2 client = getClient(region);
+        if (!(client instanceof AmazonEC2Async)) {
+            throw new IllegalStateException("Async ec2 clients are off, see ec2.client.async");
+        }
+        return (AmazonEC2Async) client;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        retirer.shutdownNow();
+        clients.keySet().forEach(this::evict);
+        retired.forEach(this::shutdown);
+    }
+
+    private RegionClient createClient(String region) {
+        misses.increment();
+        LOGGER.info("Creating ec2 client for region: {}", region);
+        if (async) {
+            return new RegionClient(withEndpoint(AmazonEC2AsyncClientBuilder.standard(), region)
+                    .withClientConfiguration(clientConfiguration)
+                    .withExecutorFactory(() -> Executors.newFixedThreadPool(clientConfiguration.getMaxConnections(),
+                            new CustomizableThreadFactory("ec2-async-" + region + "-")))
+                    .build());
+        }
+        return new RegionClient(withEndpoint(AmazonEC2ClientBuilder.standard(), region)
+                .withClientConfiguration(clientConfiguration)
+                .build());
+    }
+
+    private <B extends AwsClientBuilder<B, ?>> B withEndpoint(B builder, String region) {
+        return endpoint.isEmpty()
+                ? builder.withRegion(region)
+                : builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, region));
+    }
+
+    private void evictIdleClients() {
+        long idleSince = System.currentTimeMillis() - idleTimeoutMillis;
+        clients.entrySet().stream()
+                .filter(entry -> entry.getValue().lastAccess < idleSince)
+                .map(Map.Entry::getKey)
+                .forEach(this::evict);
+        while (clients.size() > maxClients) {
+            clients.entrySet().stream()
+                    .min(Comparator.comparingLong(entry -> entry.getValue().lastAccess))
+                    .map(Map.Entry::getKey)
+                    .ifPresent(this::evict);
+        }
+    }
+
+    private void evict(String region) {
+        RegionClient regionClient = clients.remove(region);
+        if (regionClient != null) {
+            retired.add(regionClient.client);
+            long grace = clientConfiguration.getRequestTimeout() + clientConfiguration.getConnectionTimeout();
+            try {
+                retirer.schedule(() -> shutdown(regionClient.client), grace, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                // shutting down
+                shutdown(regionClient.client);
+            }
+            LOGGER.info("Evicted ec2 client for region: {}, shutting it down in {} ms", region, grace);
+        }
+    }
+
+    private void shutdown(AmazonEC2 client) {
+        if (retired.remove(client)) {
+            client.shutdown();
+        }
+    }
+
+    private static void validateRegion(String region) {
+        if (!KNOWN_REGIONS.contains(region)) {
+            throw new InvalidRegionException(region);
+        }
+    }
+
+    private static class RegionClient {
+        private final AmazonEC2 client;
+        private volatile long lastAccess;
+
+        private RegionClient(AmazonEC2 client) {
+            this.client = client;
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        private AmazonEC2 touch() {
+            lastAccess = System.currentTimeMillis();
+            return client;
+        }
     }
 }
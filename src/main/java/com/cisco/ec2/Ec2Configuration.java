@@ -0,0 +1,77 @@
+package com.cisco.ec2;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class Ec2Configuration {
+
+    public static final String SMILE = "application/x-jackson-smile";
+
+    /**
+     * Bounded pool used to fan out downstream ec2 calls. With ec2.executor.virtual-threads every call gets its own
+     * virtual thread instead, concurrency is then bounded by the rate limits and the connection pools of the clients.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService ec2Executor(@Value("${ec2.executor.threads:16}") int threads,
+                                       @Value("${ec2.executor.queue-capacity:256}") int queueCapacity,
+                                       @Value("${ec2.executor.virtual-threads:false}") boolean virtualThreads) {
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ec2-virtual-", 0).factory());
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("ec2-"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Tomcat handles every request on its own virtual thread, blocking describe calls of the request park it without
+     * holding a platform thread.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "ec2.executor.virtual-threads", havingValue = "true")
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-virtual-", 0).factory()));
+    }
+
+    /**
+     * Replaces the default json converter, serialization of the responses is timed.
+     */
+    @Bean
+    public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        return new TimedJackson2HttpMessageConverter(objectMapper, meterRegistry);
+    }
+
+    /**
+     * Binary formats for service to service clients, configured like the json object mapper.
+     */
+    @Bean
+    public MappingJackson2CborHttpMessageConverter mappingJackson2CborHttpMessageConverter(Jackson2ObjectMapperBuilder objectMapperBuilder, MeterRegistry meterRegistry) {
+        return new TimedJackson2CborHttpMessageConverter(objectMapperBuilder.factory(new CBORFactory()).build(), meterRegistry);
+    }
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter mappingJackson2SmileHttpMessageConverter(Jackson2ObjectMapperBuilder objectMapperBuilder, MeterRegistry meterRegistry) {
+        return new TimedJackson2SmileHttpMessageConverter(objectMapperBuilder.factory(new SmileFactory()).build(), meterRegistry);
+    }
+}
@@ -1,66 +1,258 @@
 package com.cisco.ec2;
 
-import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
 import com.amazonaws.services.ec2.model.DescribeInstancesResult;
-import com.amazonaws.services.ec2.model.Reservation;
-import com.cisco.ec2.model.Ec2Instance;
+import com.cisco.ec2.model.GetEc2CountsResponse;
 import com.cisco.ec2.model.GetEc2Response;
+import com.cisco.ec2.model.GetMultiRegionEc2CountsResponse;
+import com.cisco.ec2.model.GetMultiRegionEc2Response;
+import com.cisco.ec2.model.InstanceStateChangeEvent;
+import com.cisco.ec2.model.LookupEc2Request;
+import com.cisco.ec2.model.LookupEc2Response;
 import io.swagger.annotations.ApiParam;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.Valid;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Size;
+import java.io.IOException;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
-import static com.cisco.ec2.Ec2InstanceMapper.toEc2Instances;
+import static com.cisco.ec2.Ec2Configuration.SMILE;
+import static com.cisco.ec2.Ec2InventoryExporter.NDJSON;
 
 @Validated
 @RestController
+@Profile("!" + ReactiveEc2Configuration.REACTIVE_PROFILE)
 public class Ec2Controller {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(Ec2Controller.class);
-    private final Ec2ClientProvider ec2ClientProvider;
+    private final Ec2InstanceService ec2InstanceService;
+    private final MultiRegionEc2Service multiRegionEc2Service;
+    private final Ec2InventoryExporter ec2InventoryExporter;
+    private final RegionInventoryCache regionInventoryCache;
+    private final Ec2FleetCounter ec2FleetCounter;
+    private final Ec2InstanceLookup ec2InstanceLookup;
+    private final InstanceWatcher instanceWatcher;
 
-    public Ec2Controller(Ec2ClientProvider ec2ClientProvider) {
-        this.ec2ClientProvider = ec2ClientProvider;
+    public Ec2Controller(Ec2InstanceService ec2InstanceService, MultiRegionEc2Service multiRegionEc2Service,
+                         Ec2InventoryExporter ec2InventoryExporter, RegionInventoryCache regionInventoryCache,
+                         Ec2FleetCounter ec2FleetCounter, Ec2InstanceLookup ec2InstanceLookup,
+                         InstanceWatcher instanceWatcher) {
+        this.ec2InstanceService = ec2InstanceService;
+        this.multiRegionEc2Service = multiRegionEc2Service;
+        this.ec2InventoryExporter = ec2InventoryExporter;
+        this.regionInventoryCache = regionInventoryCache;
+        this.ec2FleetCounter = ec2FleetCounter;
+        this.ec2InstanceLookup = ec2InstanceLookup;
+        this.instanceWatcher = instanceWatcher;
     }
 
-    @GetMapping(value = "aws-api/v1/regions/{region}/ec2", produces = "application/json")
-    public GetEc2Response getEc2Instances(@PathVariable("region") @NotBlank @Size(max = 20) String region,
+    @GetMapping(value = "aws-api/v1/regions/{region}/ec2", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, SMILE})
+    public ResponseEntity<GetEc2Response> getEc2Instances(@PathVariable("region") @NotBlank @Size(max = 20) String region,
                                           @ApiParam(value = "max results per page (5-500)", defaultValue = "10")
                                           @RequestParam(value = "size", required = false) @Min(5) @Max(500) Integer size,
                                           @RequestParam(value = "nextToken", required = false) @Size(max = 1024) String nextToken,
                                           @ApiParam(value = "sort results by value", defaultValue = "instanceId",
                                                   allowableValues = "name,instanceId,state,type,availabilityZone,privateIp,publicIp")
-                                          @RequestParam(value = "sort", required = false) @Size(max = 256) String sort) {
+                                          @RequestParam(value = "sort", required = false) @Size(max = 256) String sort,
+                                          @ApiParam(value = "instance states", allowableValues = "pending,running,shutting-down,terminated,stopping,stopped")
+                                          @RequestParam(value = "state", required = false) @Size(max = 6) List<@Pattern(regexp = InstanceFilter.STATES) String> states,
+                                          @ApiParam(value = "instance types")
+                                          @RequestParam(value = "type", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> types,
+                                          @ApiParam(value = "availability zones")
+                                          @RequestParam(value = "availabilityZone", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> availabilityZones,
+                                          @ApiParam(value = "vpc ids")
+                                          @RequestParam(value = "vpcId", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> vpcIds,
+                                          @ApiParam(value = "tags as key=value, or key for any value. Values of a repeated key, like keys alone, match any of them, different keys must all match")
+                                          @RequestParam(value = "tag", required = false) @Size(max = 20) List<@Pattern(regexp = InstanceFilter.TAG) String> tags,
+                                          @ApiParam(value = "case insensitive prefix of the instance name")
+                                          @RequestParam(value = "name", required = false) @Size(max = 256) String name,
+                                          @ApiParam(value = "instance fields to return, all when not set", allowableValues = "name,instanceId,state,type,availabilityZone,privateIp,publicIp")
+                                          @RequestParam(value = "fields", required = false) @Size(max = 7) List<@Pattern(regexp = InstanceFields.FIELDS) String> fields) {
 
-        LOGGER.info("Executing describe instances for region: {} request", region);
+        GetEc2Response response = ec2InstanceService.getInstances(region, size, nextToken, sort, filter(states, types, availabilityZones, vpcIds, tags, name),
+                InstanceFields.of(fields));
+        return ResponseEntity.ok()
+                .eTag(ContentHash.etag(ContentHash.of(response.getInstances()), response.getNextToken(), response.getStale()))
+                .body(response);
+    }
 
-        AmazonEC2 ec2 = ec2ClientProvider.getClient(region);
+    @GetMapping(value = "aws-api/v1/ec2", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, SMILE})
+    public GetMultiRegionEc2Response getMultiRegionEc2Instances(@ApiParam(value = "regions to query, all enabled regions when not set")
+                                                                @RequestParam(value = "regions", required = false) @Size(max = 32) List<@NotBlank @Size(max = 20) String> regions,
+                                                                @ApiParam(value = "max results per page and region (5-500)", defaultValue = "10")
+                                                                @RequestParam(value = "size", required = false) @Min(5) @Max(500) Integer size,
+                                                                @ApiParam(value = "sort results by value", defaultValue = "instanceId",
+                                                                        allowableValues = "name,instanceId,state,type,availabilityZone,privateIp,publicIp")
+                                                                @RequestParam(value = "sort", required = false) @Size(max = 256) String sort,
+                                                                @ApiParam(value = "instance states", allowableValues = "pending,running,shutting-down,terminated,stopping,stopped")
+                                                                @RequestParam(value = "state", required = false) @Size(max = 6) List<@Pattern(regexp = InstanceFilter.STATES) String> states,
+                                                                @ApiParam(value = "instance types")
+                                                                @RequestParam(value = "type", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> types,
+                                                                @ApiParam(value = "availability zones")
+                                                                @RequestParam(value = "availabilityZone", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> availabilityZones,
+                                                                @ApiParam(value = "vpc ids")
+                                                                @RequestParam(value = "vpcId", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> vpcIds,
+                                                                @ApiParam(value = "tags as key=value, or key for any value. Values of a repeated key, like keys alone, match any of them, different keys must all match")
+                                                                @RequestParam(value = "tag", required = false) @Size(max = 20) List<@Pattern(regexp = InstanceFilter.TAG) String> tags,
+                                                                @ApiParam(value = "case insensitive prefix of the instance name")
+                                                                @RequestParam(value = "name", required = false) @Size(max = 256) String name,
+                                                                @ApiParam(value = "instance fields to return, all when not set", allowableValues = "name,instanceId,state,type,availabilityZone,privateIp,publicIp")
+                                                                @RequestParam(value = "fields", required = false) @Size(max = 7) List<@Pattern(regexp = InstanceFields.FIELDS) String> fields) throws InterruptedException {
 
-        DescribeInstancesResult response = ec2.describeInstances(new DescribeInstancesRequest().
-                withMaxResults(size)
-                .withNextToken(nextToken));
+        return multiRegionEc2Service.getInstances(regions, size, sort, filter(states, types, availabilityZones, vpcIds, tags, name),
+                InstanceFields.of(fields));
+    }
 
-        return GetEc2Response.builder()
-                .instances(mapToEc2Instance(response.getReservations(), sort))
-                .nextToken(response.getNextToken())
-                .build();
+    @GetMapping(value = "aws-api/v1/regions/{region}/ec2/export")
+    public void exportEc2Instances(@PathVariable("region") @NotBlank @Size(max = 20) String region,
+                                   @ApiParam(value = "instance states", allowableValues = "pending,running,shutting-down,terminated,stopping,stopped")
+                                   @RequestParam(value = "state", required = false) @Size(max = 6) List<@Pattern(regexp = InstanceFilter.STATES) String> states,
+                                   @ApiParam(value = "instance types")
+                                   @RequestParam(value = "type", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> types,
+                                   @ApiParam(value = "availability zones")
+                                   @RequestParam(value = "availabilityZone", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> availabilityZones,
+                                   @ApiParam(value = "vpc ids")
+                                   @RequestParam(value = "vpcId", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> vpcIds,
+                                   @ApiParam(value = "tags as key=value, or key for any value. Values of a repeated key, like keys alone, match any of them, different keys must all match")
+                                   @RequestParam(value = "tag", required = false) @Size(max = 20) List<@Pattern(regexp = InstanceFilter.TAG) String> tags,
+                                   @ApiParam(value = "case insensitive prefix of the instance name")
+                                   @RequestParam(value = "name", required = false) @Size(max = 256) String name,
+                                   @ApiParam(value = "instance fields to return, all when not set", allowableValues = "name,instanceId,state,type,availabilityZone,privateIp,publicIp")
+                                   @RequestParam(value = "fields", required = false) @Size(max = 7) List<@Pattern(regexp = InstanceFields.FIELDS) String> fields,
+                                   @ApiParam(value = "nextToken of the last line of an export stopped at the deadline, with the same filters")
+                                   @RequestParam(value = "nextToken", required = false) @Size(max = 1024) String nextToken,
+                                   HttpServletResponse response) throws IOException, InterruptedException {
+
+        InstanceFilter filter = filter(states, types, availabilityZones, vpcIds, tags, name);
+        DescribeInstancesResult firstPage = ec2InventoryExporter.firstPage(region, filter, nextToken);
+        response.setContentType(NDJSON);
+        ec2InventoryExporter.export(region, filter, InstanceFields.of(fields), firstPage, response.getOutputStream());
+    }
+
+    @GetMapping(value = "aws-api/v1/regions/{region}/ec2/snapshot", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, SMILE})
+    public ResponseEntity<GetEc2Response> getEc2InstancesSnapshot(@PathVariable("region") @NotBlank @Size(max = 20) String region,
+                                                                  @ApiParam(value = "max results per page (5-500), all instances when neither size nor cursor is set")
+                                                                  @RequestParam(value = "size", required = false) @Min(5) @Max(500) Integer size,
+                                                                  @ApiParam(value = "nextToken of the previous page")
+                                                                  @RequestParam(value = "cursor", required = false) @Size(max = 256) String cursor,
+                                                                  @ApiParam(value = "sort results by value, sorts the whole region", defaultValue = "instanceId",
+                                                                          allowableValues = "name,instanceId,state,type,availabilityZone,privateIp,publicIp")
+                                                                  @RequestParam(value = "sort", required = false) @Size(max = 256) String sort,
+                                                                  @ApiParam(value = "instance fields to return, all when not set", allowableValues = "name,instanceId,state,type,availabilityZone,privateIp,publicIp")
+                                                                  @RequestParam(value = "fields", required = false) @Size(max = 7) List<@Pattern(regexp = InstanceFields.FIELDS) String> fields,
+                                                                  @ApiParam(value = "no-cache to load the latest inventory")
+                                                                  @RequestHeader(value = HttpHeaders.CACHE_CONTROL, required = false) String cacheControl) {
+
+        InstanceFields instanceFields = InstanceFields.of(fields);
+        RegionInventorySnapshot snapshot;
+        SnapshotCursor position;
+        GetEc2Response response;
+        if (cursor != null) {
+            position = SnapshotCursor.decode(cursor).withSize(size);
+            snapshot = regionInventoryCache.get(region, position.getVersion());
+            response = snapshot.page(position, instanceFields);
+        } else {
+            snapshot = cacheControl != null && cacheControl.contains("no-cache")
+                    ? regionInventoryCache.reload(region)
+                    : regionInventoryCache.get(region);
+            position = size == null ? null : snapshot.firstPage(sort, size);
+            response = position == null
+                    ? GetEc2Response.builder().instances(instanceFields.project(snapshot.sortedBy(sort))).build()
+                    : snapshot.page(position, instanceFields);
+        }
+        if (regionInventoryCache.isStale(snapshot)) {
+            response = GetEc2Response.builder()
+                    .instances(response.getInstances())
+                    .nextToken(response.getNextToken())
+                    .stale(true)
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .header(HttpHeaders.AGE, String.valueOf(TimeUnit.MILLISECONDS.toSeconds(snapshot.getAgeMillis())))
+                .eTag(position == null ? snapshot.etag(sort, instanceFields, response) : snapshot.etag(position, instanceFields, response))
+                .body(response);
+    }
+
+    @GetMapping(value = "aws-api/v1/regions/{region}/ec2/watch")
+    public SseEmitter watchEc2Instances(@PathVariable("region") @NotBlank @Size(max = 20) String region,
+                                        @ApiParam(value = "instance states", allowableValues = "pending,running,shutting-down,terminated,stopping,stopped")
+                                        @RequestParam(value = "state", required = false) @Size(max = 6) List<@Pattern(regexp = InstanceFilter.STATES) String> states,
+                                        @ApiParam(value = "instance types")
+                                        @RequestParam(value = "type", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> types,
+                                        @ApiParam(value = "availability zones")
+                                        @RequestParam(value = "availabilityZone", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> availabilityZones,
+                                        @ApiParam(value = "case insensitive prefix of the instance name")
+                                        @RequestParam(value = "name", required = false) @Size(max = 256) String name) {
+
+        return instanceWatcher.watch(region, filter(states, types, availabilityZones, null, null, name).toInstancePredicate());
     }
 
-    private List<Ec2Instance> mapToEc2Instance(List<Reservation> reservations, String sort) {
-        return Optional.ofNullable(sort)
-                .map(sortBy -> toEc2Instances(reservations, sortBy))
-                .orElse(toEc2Instances(reservations));
+    @GetMapping(value = "aws-api/v1/regions/{region}/ec2/counts", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, SMILE})
+    public GetEc2CountsResponse getEc2Counts(@PathVariable("region") @NotBlank @Size(max = 20) String region,
+                                             @ApiParam(value = "tag keys to count instances by value of")
+                                             @RequestParam(value = "tagKey", required = false) @Size(max = 10) List<@NotBlank @Size(max = 127) String> tagKeys,
+                                             @ApiParam(value = "nextToken of counts stopped at the deadline, counts the remaining instances")
+                                             @RequestParam(value = "nextToken", required = false) @Size(max = 1024) String nextToken) {
+
+        return ec2FleetCounter.count(region, tagKeys, nextToken);
+    }
+
+    @GetMapping(value = "aws-api/v1/ec2/counts", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, SMILE})
+    public GetMultiRegionEc2CountsResponse getMultiRegionEc2Counts(@ApiParam(value = "regions to count, all enabled regions when not set")
+                                                                   @RequestParam(value = "regions", required = false) @Size(max = 32) List<@NotBlank @Size(max = 20) String> regions,
+                                                                   @ApiParam(value = "tag keys to count instances by value of")
+                                                                   @RequestParam(value = "tagKey", required = false) @Size(max = 10) List<@NotBlank @Size(max = 127) String> tagKeys) throws InterruptedException {
+
+        return multiRegionEc2Service.getCounts(regions, tagKeys);
+    }
+
+    @PostMapping(value = "aws-api/v1/regions/{region}/ec2/lookup", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, SMILE})
+    public LookupEc2Response lookupEc2Instances(@PathVariable("region") @NotBlank @Size(max = 20) String region,
+                                                @ApiParam(value = "instance fields to return, all when not set", allowableValues = "name,instanceId,state,type,availabilityZone,privateIp,publicIp")
+                                                @RequestParam(value = "fields", required = false) @Size(max = 7) List<@Pattern(regexp = InstanceFields.FIELDS) String> fields,
+                                                @ApiParam(value = "up to 10000 instance ids")
+                                                @Valid @RequestBody LookupEc2Request request) throws InterruptedException {
+
+        return ec2InstanceLookup.lookup(region, request.getInstanceIds(), InstanceFields.of(fields));
+    }
+
+    @PostMapping(value = "aws-api/v1/ec2/events")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void onInstanceStateChange(@ApiParam(value = "EC2 Instance State-change Notification, as sent by EventBridge")
+                                      @Valid @RequestBody InstanceStateChangeEvent event) {
+
+        regionInventoryCache.applyStateChange(event.getRegion(), event.getDetail().getInstanceId(),
+                event.getDetail().getState(), event.getTime().toEpochMilli());
+    }
+
+    static InstanceFilter filter(List<String> states, List<String> types, List<String> availabilityZones,
+                                         List<String> vpcIds, List<String> tags, String name) {
+        return InstanceFilter.builder()
+                .states(states)
+                .types(types)
+                .availabilityZones(availabilityZones)
+                .vpcIds(vpcIds)
+                .tags(tags)
+                .name(name)
+                .build();
     }
 }
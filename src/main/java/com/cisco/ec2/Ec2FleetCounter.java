@@ -0,0 +1,117 @@
+package com.cisco.ec2;
+
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.cisco.ec2.model.GetEc2CountsResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Counts the instances of a region by state, type, availability zone and tag values. Counts of a cached inventory
+ * snapshot within its ttl are served as they are, otherwise every describe instances page is counted as it arrives,
+ * no instances are mapped or kept. Snapshots don't keep tags, counts by tag are always counted from describe pages.
+ * <p>
+ * Counting stops before a page that wouldn't arrive before the request Deadline (it is then cancelled), the counts
+ * so far are returned with the nextToken of the first page not counted. Counting resumes from it when it is passed
+ * back, the client adds the counts up.
+ */
+@Component
+public class Ec2FleetCounter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Ec2FleetCounter.class);
+    private final Ec2InstanceService ec2InstanceService;
+    private final RegionInventoryCache regionInventoryCache;
+    private final ExecutorService ec2Executor;
+    private final int pageSize;
+
+    public Ec2FleetCounter(Ec2InstanceService ec2InstanceService,
+                           RegionInventoryCache regionInventoryCache,
+                           ExecutorService ec2Executor,
+                           @Value("${ec2.export.page-size:1000}") int pageSize) {
+        this.ec2InstanceService = ec2InstanceService;
+        this.regionInventoryCache = regionInventoryCache;
+        this.ec2Executor = ec2Executor;
+        this.pageSize = pageSize;
+    }
+
+    public GetEc2CountsResponse count(String region, List<String> tagKeys) {
+        return count(region, tagKeys, null);
+    }
+
+    /**
+     * While the circuit of the region is open the counts of an expired snapshot are served, marked as stale.
+     */
+    public GetEc2CountsResponse count(String region, List<String> tagKeys, String nextToken) {
+        List<String> keys = tagKeys == null ? Collections.emptyList() : tagKeys;
+        RegionInventorySnapshot snapshot = keys.isEmpty() && nextToken == null ? regionInventoryCache.getIfPresent(region) : null;
+        if (snapshot != null && !regionInventoryCache.isStale(snapshot)) {
+            return snapshot.getCounts().toResponse();
+        }
+        try {
+            return countPages(region, keys, nextToken);
+        } catch (CircuitOpenException ex) {
+            if (snapshot == null) {
+                throw ex;
+            }
+            LOGGER.warn("Serving stale instance counts of region: {}", region);
+            GetEc2CountsResponse counts = snapshot.getCounts().toResponse();
+            return GetEc2CountsResponse.builder()
+                    .total(counts.getTotal())
+                    .states(counts.getStates())
+                    .types(counts.getTypes())
+                    .availabilityZones(counts.getAvailabilityZones())
+                    .stale(true)
+                    .build();
+        }
+    }
+
+    private GetEc2CountsResponse countPages(String region, List<String> tagKeys, String fromToken) {
+        long start = System.currentTimeMillis();
+        Deadline deadline = Deadline.current();
+        FleetCounts counts = new FleetCounts(tagKeys);
+        String nextToken = fromToken;
+        long pageMillis = 0;
+        int pages = 0;
+        do {
+            if (pages > 0 && deadline.remainingMillis() < pageMillis) {
+                return partial(region, counts, pages, nextToken);
+            }
+            long pageStart = System.currentTimeMillis();
+            DescribeInstancesRequest request = new DescribeInstancesRequest()
+                    .withMaxResults(pageSize)
+                    .withNextToken(nextToken);
+            DescribeInstancesResult page = deadline.call(ec2Executor, () -> ec2InstanceService.describeInstances(region, request));
+            if (page == null && pages == 0) {
+                throw new DeadlineExceededException(region);
+            }
+            if (page == null) {
+                return partial(region, counts, pages, nextToken);
+            }
+            pageMillis = System.currentTimeMillis() - pageStart;
+            counts.addAll(page.getReservations());
+            nextToken = page.getNextToken();
+            pages++;
+        } while (nextToken != null);
+        LOGGER.info("Counted {} instances in {} pages of region: {} in {} ms", counts.getTotal(), pages, region, System.currentTimeMillis() - start);
+        return counts.toResponse();
+    }
+
+    private static GetEc2CountsResponse partial(String region, FleetCounts counts, int pages, String nextToken) {
+        LOGGER.warn("Counted {} instances in {} pages of region: {} before the deadline", counts.getTotal(), pages, region);
+        GetEc2CountsResponse response = counts.toResponse();
+        return GetEc2CountsResponse.builder()
+                .total(response.getTotal())
+                .states(response.getStates())
+                .types(response.getTypes())
+                .availabilityZones(response.getAvailabilityZones())
+                .tags(response.getTags())
+                .nextToken(nextToken)
+                .build();
+    }
+}
@@ -0,0 +1,152 @@
+package com.cisco.ec2;
+
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.cisco.ec2.model.Ec2Instance;
+import com.cisco.ec2.model.ErrorResponse;
+import com.cisco.ec2.model.LookupEc2Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.cisco.ec2.ErrorHandler.downstreamTimeout;
+import static com.cisco.ec2.ErrorHandler.toErrorResponse;
+import static com.cisco.ec2.Ec2InstanceMapper.sort;
+import static com.cisco.ec2.Ec2InstanceMapper.toEc2Instances;
+
+/**
+ * Looks instances of a region up by id. Ids are deduplicated and split into chunks, which a bounded number of
+ * workers describe concurrently. Chunks are described with an instance-id filter rather than instance ids, which ec2
+ * fails altogether when any of them doesn't exist, ids of a described chunk which came back without an instance are
+ * reported as not found. Ids of chunks which failed or didn't finish in time (timeout or request Deadline) are
+ * reported as failed, next to the instances of the other chunks. An unknown region fails the lookup as a whole.
+ */
+@Component
+public class Ec2InstanceLookup {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Ec2InstanceLookup.class);
+    private final Ec2InstanceService ec2InstanceService;
+    private final Ec2ClientProvider ec2ClientProvider;
+    private final ExecutorService ec2Executor;
+    private final int chunkSize;
+    private final int parallelism;
+    private final int pageSize;
+    private final long timeoutMillis;
+
+    public Ec2InstanceLookup(Ec2InstanceService ec2InstanceService,
+                             Ec2ClientProvider ec2ClientProvider,
+                             ExecutorService ec2Executor,
+                             @Value("${ec2.lookup.chunk-size:200}") int chunkSize,
+                             @Value("${ec2.lookup.parallelism:4}") int parallelism,
+                             @Value("${ec2.export.page-size:1000}") int pageSize,
+                             @Value("${ec2.lookup.timeout-ms:10000}") long timeoutMillis) {
+        this.ec2InstanceService = ec2InstanceService;
+        this.ec2ClientProvider = ec2ClientProvider;
+        this.ec2Executor = ec2Executor;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.pageSize = pageSize;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public LookupEc2Response lookup(String region, List<String> instanceIds, InstanceFields fields) throws InterruptedException {
+        // throws InvalidRegionException, which would otherwise only show up as the error of every chunk
+        ec2ClientProvider.getClient(region);
+        List<List<String>> chunks = chunks(new ArrayList<>(new LinkedHashSet<>(instanceIds)));
+        AtomicReferenceArray<Chunk> results = new AtomicReferenceArray<>(chunks.size());
+        AtomicInteger next = new AtomicInteger();
+        InstanceFields chunkFields = fields.with(InstanceFields.INSTANCE_ID);
+        Deadline deadline = Deadline.current();
+        List<Callable<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(parallelism, chunks.size()); i++) {
+            workers.add(deadline.bind(() -> {
+                int chunk;
+                while (!Thread.currentThread().isInterrupted() && (chunk = next.getAndIncrement()) < chunks.size()) {
+                    results.set(chunk, describe(region, chunks.get(chunk), chunkFields));
+                }
+                return null;
+            }));
+        }
+        List<Future<Void>> started = Futures.invokeAll(ec2Executor, workers, deadline.remainingMillis(timeoutMillis));
+        // chunks left undone by workers the executor had no room for are unavailable rather than timed out
+        ErrorResponse undone = started.stream().allMatch(Futures::isRejected)
+                ? toErrorResponse(new RejectedExecutionException()) : downstreamTimeout();
+
+        List<Ec2Instance> instances = new ArrayList<>();
+        List<String> notFound = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        ErrorResponse error = null;
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk result = results.get(i);
+            if (result == null || result.failure != null) {
+                failed.addAll(chunks.get(i));
+                if (error == null) {
+                    error = result == null ? undone : toErrorResponse(result.failure);
+                }
+                continue;
+            }
+            instances.addAll(result.instances);
+            Set<String> found = new HashSet<>();
+            result.instances.forEach(instance -> found.add(instance.getInstanceId()));
+            chunks.get(i).stream().filter(id -> !found.contains(id)).forEach(notFound::add);
+        }
+        LOGGER.info("Looked up {} instances of region: {} in {} chunks, {} not found, {} failed", instances.size(), region, chunks.size(), notFound.size(), failed.size());
+        return LookupEc2Response.builder()
+                .instances(fields.project(sort(instances, null)))
+                .notFound(notFound)
+                .failed(failed.isEmpty() ? null : failed)
+                .error(error)
+                .build();
+    }
+
+    private List<List<String>> chunks(List<String> instanceIds) {
+        List<List<String>> chunks = new ArrayList<>();
+        for (int from = 0; from < instanceIds.size(); from += chunkSize) {
+            chunks.add(instanceIds.subList(from, Math.min(from + chunkSize, instanceIds.size())));
+        }
+        return chunks;
+    }
+
+    private Chunk describe(String region, List<String> instanceIds, InstanceFields fields) {
+        try {
+            List<Ec2Instance> instances = new ArrayList<>();
+            String nextToken = null;
+            do {
+                DescribeInstancesResult page = ec2InstanceService.describeInstances(region, new DescribeInstancesRequest()
+                        .withMaxResults(pageSize)
+                        .withNextToken(nextToken)
+                        .withFilters(new Filter("instance-id", instanceIds)));
+                instances.addAll(toEc2Instances(page.getReservations(), null, Ec2InstanceMapper.ALL, fields));
+                nextToken = page.getNextToken();
+            } while (nextToken != null);
+            return new Chunk(instances, null);
+        } catch (RuntimeException ex) {
+            LOGGER.error("Looking up {} instances of region: {} failed: {}", instanceIds.size(), region, ex.getMessage());
+            return new Chunk(null, ex);
+        }
+    }
+
+    private static class Chunk {
+        private final List<Ec2Instance> instances;
+        private final RuntimeException failure;
+
+        private Chunk(List<Ec2Instance> instances, RuntimeException failure) {
+            this.instances = instances;
+            this.failure = failure;
+        }
+    }
+}
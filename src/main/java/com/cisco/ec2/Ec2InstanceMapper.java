@@ -4,64 +4,122 @@ import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.services.ec2.model.Placement;
 import com.amazonaws.services.ec2.model.Reservation;
 import com.amazonaws.services.ec2.model.Tag;
+import com.cisco.ec2.ServerTiming.Stage;
 import com.cisco.ec2.model.Ec2Instance;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-
-import static java.util.stream.Collectors.toList;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 @Component
 public class Ec2InstanceMapper {
 
     private static final Comparator<Ec2Instance> DEFAULT_COMPARATOR_BY_INSTANCE_ID = Comparator.comparing(Ec2Instance::getInstanceId);
+    static final String DEFAULT_SORT_KEY = "instanceId";
     private static final Map<String, Comparator<Ec2Instance>> INSTANCE_COMPARATORS = new HashMap<String, Comparator<Ec2Instance>>() {{
-        put("instanceId", DEFAULT_COMPARATOR_BY_INSTANCE_ID);
-        put("name", Comparator.comparing(Ec2Instance::getName));
-        put("type", Comparator.comparing(Ec2Instance::getType));
-        put("state", Comparator.comparing(Ec2Instance::getState));
-        put("availabilityZone", Comparator.comparing(Ec2Instance::getAvailabilityZone));
-        put("privateIp", Comparator.comparing(Ec2Instance::getPrivateIp));
-        put("publicIp", Comparator.comparing(Ec2Instance::getPublicIp));
+        put(DEFAULT_SORT_KEY, DEFAULT_COMPARATOR_BY_INSTANCE_ID);
+        put("name", nullsLast(Ec2Instance::getName));
+        put("type", nullsLast(Ec2Instance::getType));
+        put("state", nullsLast(Ec2Instance::getState));
+        put("availabilityZone", nullsLast(Ec2Instance::getAvailabilityZone));
+        put("privateIp", nullsLast(Ec2Instance::getPrivateIp));
+        put("publicIp", nullsLast(Ec2Instance::getPublicIp));
     }};
     public static final String NAME_TAG = "Name";
+    static final Predicate<Ec2Instance> ALL = instance -> true;
+
+    /**
+     * Untagged instances have no name, private ones no public ip, they sort last.
+     */
+    private static Comparator<Ec2Instance> nullsLast(Function<Ec2Instance, String> key) {
+        return Comparator.comparing(key, Comparator.nullsLast(Comparator.naturalOrder()));
+    }
 
     static List<Ec2Instance> toEc2Instances(List<Reservation> reservations) {
         return toEc2Instances(reservations, null);
     }
 
     static List<Ec2Instance> toEc2Instances(List<Reservation> reservations, String sortBy) {
-        return reservations.stream()
-                .flatMap(reservation -> reservation.getInstances().stream())
-                .map(Ec2InstanceMapper::toEc2Instance)
-                .sorted(INSTANCE_COMPARATORS.getOrDefault(sortBy, DEFAULT_COMPARATOR_BY_INSTANCE_ID))
-                .collect(toList());
+        return toEc2Instances(reservations, sortBy, ALL);
+    }
+
+    static List<Ec2Instance> toEc2Instances(List<Reservation> reservations, String sortBy, Predicate<Ec2Instance> filter) {
+        return toEc2Instances(reservations, sortBy, filter, InstanceFields.ALL);
+    }
+
+    /**
+     * Maps and sorts in one pass over the reservations without intermediate streams or optionals, this runs for
+     * every instance of every page. Only the requested fields are mapped, plus the sort key and the name when
+     * filtering (the name filter is the only one applied while mapping), which are dropped again after sorting.
+     */
+    static List<Ec2Instance> toEc2Instances(List<Reservation> reservations, String sortBy, Predicate<Ec2Instance> filter, InstanceFields fields) {
+        long start = System.nanoTime();
+        InstanceFields mapped = fields.with(sortKey(sortBy));
+        if (filter != ALL) {
+            mapped = mapped.with(InstanceFields.NAME);
+        }
+        List<Ec2Instance> result = new ArrayList<>(countInstances(reservations));
+        for (int i = 0; i < reservations.size(); i++) {
+            List<Instance> instances = reservations.get(i).getInstances();
+            for (int j = 0; j < instances.size(); j++) {
+                Ec2Instance ec2Instance = toEc2Instance(instances.get(j), mapped);
+                if (filter == ALL || filter.test(ec2Instance)) {
+                    result.add(ec2Instance);
+                }
+            }
+        }
+        ServerTiming.record(Stage.MAP, start);
+        long sortStart = System.nanoTime();
+        result.sort(INSTANCE_COMPARATORS.getOrDefault(sortBy, DEFAULT_COMPARATOR_BY_INSTANCE_ID));
+        ServerTiming.record(Stage.SORT, sortStart);
+        return mapped == fields ? result : fields.project(result);
+    }
+
+    static String sortKey(String sortBy) {
+        return INSTANCE_COMPARATORS.containsKey(sortBy) ? sortBy : DEFAULT_SORT_KEY;
+    }
+
+    static List<Ec2Instance> sort(List<Ec2Instance> instances, String sortBy) {
+        long start = System.nanoTime();
+        List<Ec2Instance> sorted = new ArrayList<>(instances);
+        sorted.sort(INSTANCE_COMPARATORS.getOrDefault(sortBy, DEFAULT_COMPARATOR_BY_INSTANCE_ID));
+        ServerTiming.record(Stage.SORT, start);
+        return sorted;
     }
 
-    private static Ec2Instance toEc2Instance(Instance instance) {
-        return Ec2Instance.builder()
-                .instanceId(instance.getInstanceId())
-                .type(instance.getInstanceType())
-                .privateIp(instance.getPrivateIpAddress())
-                .publicIp(instance.getPublicIpAddress())
-                .name(getName(instance).orElse(null))
-                .state(instance.getState().getName())
-                .availabilityZone(getAvailabilityZone(instance).orElse(null))
-                .build();
+    private static int countInstances(List<Reservation> reservations) {
+        int count = 0;
+        for (int i = 0; i < reservations.size(); i++) {
+            count += reservations.get(i).getInstances().size();
+        }
+        return count;
     }
 
-    private static Optional<String> getName(Instance instance) {
-        return instance.getTags().stream()
-                .filter(tag -> tag.getKey().equalsIgnoreCase(NAME_TAG))
-                .map(Tag::getValue).findFirst();
+    private static Ec2Instance toEc2Instance(Instance instance, InstanceFields fields) {
+        Placement placement = instance.getPlacement();
+        return new Ec2Instance(
+                fields.contains(InstanceFields.NAME) ? getName(instance) : null,
+                fields.contains(InstanceFields.INSTANCE_ID) ? instance.getInstanceId() : null,
+                fields.contains(InstanceFields.STATE) ? instance.getState().getName() : null,
+                fields.contains(InstanceFields.TYPE) ? instance.getInstanceType() : null,
+                fields.contains(InstanceFields.AVAILABILITY_ZONE) && placement != null ? placement.getAvailabilityZone() : null,
+                fields.contains(InstanceFields.PRIVATE_IP) ? instance.getPrivateIpAddress() : null,
+                fields.contains(InstanceFields.PUBLIC_IP) ? instance.getPublicIpAddress() : null);
     }
 
-    private static Optional<String> getAvailabilityZone(Instance instance) {
-        return Optional.ofNullable(instance.getPlacement())
-                .map(Placement::getAvailabilityZone);
+    private static String getName(Instance instance) {
+        List<Tag> tags = instance.getTags();
+        for (int i = 0; i < tags.size(); i++) {
+            Tag tag = tags.get(i);
+            if (tag.getKey().equalsIgnoreCase(NAME_TAG)) {
+                return tag.getValue();
+            }
+        }
+        return null;
     }
 }
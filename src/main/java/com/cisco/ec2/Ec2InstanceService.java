@@ -0,0 +1,229 @@
+package com.cisco.ec2;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.AmazonEC2Async;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.cisco.ec2.ServerTiming.Stage;
+import com.cisco.ec2.model.Ec2Instance;
+import com.cisco.ec2.model.GetEc2Response;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.cisco.ec2.Ec2InstanceMapper.sortKey;
+import static com.cisco.ec2.Ec2InstanceMapper.toEc2Instances;
+
+@Component
+public class Ec2InstanceService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Ec2InstanceService.class);
+    private final SingleFlight<Map.Entry<String, DescribeInstancesRequest>, DescribeInstancesResult> describeCalls = new SingleFlight<>();
+    private final Map<Map.Entry<String, DescribeInstancesRequest>, DescribeInstancesResult> lastGoodResults;
+    private final Ec2ClientProvider ec2ClientProvider;
+    private final Ec2RateLimiter ec2RateLimiter;
+    private final Ec2CircuitBreaker ec2CircuitBreaker;
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary pageSizes;
+
+    public Ec2InstanceService(Ec2ClientProvider ec2ClientProvider, Ec2RateLimiter ec2RateLimiter, Ec2CircuitBreaker ec2CircuitBreaker,
+                              @Value("${ec2.circuit-breaker.stale-results:64}") int staleResults, MeterRegistry meterRegistry) {
+        this.ec2ClientProvider = ec2ClientProvider;
+        this.ec2RateLimiter = ec2RateLimiter;
+        this.ec2CircuitBreaker = ec2CircuitBreaker;
+        this.meterRegistry = meterRegistry;
+        this.pageSizes = DistributionSummary.builder("ec2.page.instances")
+                .description("Instances returned per page")
+                .serviceLevelObjectives(10, 50, 100, 500, 1000)
+                .register(meterRegistry);
+        FunctionCounter.builder("ec2.describe.calls", describeCalls, SingleFlight::getExecuted).register(meterRegistry);
+        FunctionCounter.builder("ec2.describe.coalesced", describeCalls, SingleFlight::getCoalesced).register(meterRegistry);
+        this.lastGoodResults = Collections.synchronizedMap(new LinkedHashMap<Map.Entry<String, DescribeInstancesRequest>, DescribeInstancesResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Map.Entry<String, DescribeInstancesRequest>, DescribeInstancesResult> eldest) {
+                return size() > staleResults;
+            }
+        });
+    }
+
+    /**
+     * While the circuit of the region is open the last good result of the same request is served, marked as stale.
+     */
+    public GetEc2Response getInstances(String region, Integer size, String nextToken, String sort, InstanceFilter filter, InstanceFields fields) {
+        LOGGER.info("Executing describe instances for region: {} request", region);
+
+        DescribeInstancesRequest request = request(size, nextToken, filter);
+        Map.Entry<String, DescribeInstancesRequest> key = new SimpleImmutableEntry<>(region, request);
+        DescribeInstancesResult response;
+        Boolean stale = null;
+        try {
+            response = describeInstances(region, request);
+            lastGoodResults.put(key, response);
+        } catch (CircuitOpenException ex) {
+            response = lastGood(key, ex);
+            stale = true;
+        }
+        return toResponse(response, stale, sort, filter, fields);
+    }
+
+    /**
+     * Same as getInstances, without blocking the calling thread (see describeInstancesAsync).
+     */
+    public CompletableFuture<GetEc2Response> getInstancesAsync(String region, Integer size, String nextToken, String sort, InstanceFilter filter, InstanceFields fields) {
+        LOGGER.info("Executing async describe instances for region: {} request", region);
+
+        DescribeInstancesRequest request = request(size, nextToken, filter);
+        Map.Entry<String, DescribeInstancesRequest> key = new SimpleImmutableEntry<>(region, request);
+        return describeInstancesAsync(region, request).handle((response, failure) -> {
+            if (failure == null) {
+                lastGoodResults.put(key, response);
+                return toResponse(response, null, sort, filter, fields);
+            }
+            Throwable cause = Futures.unwrap(failure);
+            if (cause instanceof CircuitOpenException) {
+                return toResponse(lastGood(key, (CircuitOpenException) cause), true, sort, filter, fields);
+            }
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+        });
+    }
+
+    private static DescribeInstancesRequest request(Integer size, String nextToken, InstanceFilter filter) {
+        return new DescribeInstancesRequest()
+                .withMaxResults(size)
+                .withNextToken(nextToken)
+                .withFilters(filter.toEc2Filters());
+    }
+
+    private DescribeInstancesResult lastGood(Map.Entry<String, DescribeInstancesRequest> key, CircuitOpenException ex) {
+        DescribeInstancesResult response = lastGoodResults.get(key);
+        if (response == null) {
+            throw ex;
+        }
+        LOGGER.warn("Serving stale instances of region: {}", key.getKey());
+        return response;
+    }
+
+    private GetEc2Response toResponse(DescribeInstancesResult response, Boolean stale, String sort, InstanceFilter filter, InstanceFields fields) {
+        long mapStart = System.nanoTime();
+        List<Ec2Instance> instances = toEc2Instances(response.getReservations(), sort, filter.toPredicate(), fields);
+        meterRegistry.timer("ec2.instances.map", "sort", sortKey(sort)).record(System.nanoTime() - mapStart, TimeUnit.NANOSECONDS);
+        pageSizes.record(instances.size());
+
+        return GetEc2Response.builder()
+                .instances(instances)
+                .nextToken(response.getNextToken())
+                .stale(stale)
+                .build();
+    }
+
+    /**
+     * Concurrent identical requests for a region share a single downstream call, which goes through the circuit
+     * breaker of the region and is rate limited and retried per region. The describe stage of the request's
+     * Server-Timing includes the client lookup and the wait for a coalesced call.
+     */
+    DescribeInstancesResult describeInstances(String region, DescribeInstancesRequest request) {
+        long start = System.nanoTime();
+        try {
+            return describeCalls.execute(new SimpleImmutableEntry<>(region, request), () -> describe(region, request));
+        } finally {
+            ServerTiming.record(Stage.DESCRIBE, start);
+        }
+    }
+
+    /**
+     * Async describe instances call, coalesced with sync and async calls of the same request. The calling thread only
+     * starts the call, permits and retry backoffs are waited for on the rate limiter's scheduler and the call itself
+     * runs on the async client's pool.
+     */
+    CompletableFuture<DescribeInstancesResult> describeInstancesAsync(String region, DescribeInstancesRequest request) {
+        return describeCalls.executeAsync(new SimpleImmutableEntry<>(region, request), () -> describeAsync(region, request));
+    }
+
+    private CompletableFuture<DescribeInstancesResult> describeAsync(String region, DescribeInstancesRequest request) {
+        AmazonEC2Async ec2 = ec2ClientProvider.getAsyncClient(region);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        CompletableFuture<DescribeInstancesResult> result = ec2CircuitBreaker.executeAsync(region,
+                () -> ec2RateLimiter.executeAsync(region, () -> call(ec2, request)));
+        return result.whenComplete((response, failure) -> sample.stop(meterRegistry.timer("ec2.describe", "region", region,
+                "outcome", failure == null ? "success" : outcome(Futures.unwrap(failure)))));
+    }
+
+    private static CompletableFuture<DescribeInstancesResult> call(AmazonEC2Async ec2, DescribeInstancesRequest request) {
+        CompletableFuture<DescribeInstancesResult> result = new CompletableFuture<>();
+        ec2.describeInstancesAsync(request, new AsyncHandler<DescribeInstancesRequest, DescribeInstancesResult>() {
+            @Override
+            public void onError(Exception exception) {
+                result.completeExceptionally(exception);
+            }
+
+            @Override
+            public void onSuccess(DescribeInstancesRequest request, DescribeInstancesResult response) {
+                result.complete(response);
+            }
+        });
+        return result;
+    }
+
+    private DescribeInstancesResult describe(String region, DescribeInstancesRequest request) {
+        long clientStart = System.nanoTime();
+        AmazonEC2 ec2 = ec2ClientProvider.getClient(region);
+        ServerTiming.record(Stage.CLIENT, clientStart);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "success";
+        try {
+            return ec2CircuitBreaker.execute(region, () -> ec2RateLimiter.execute(region, () -> ec2.describeInstances(request)));
+        } catch (RuntimeException ex) {
+            outcome = outcome(ex);
+            throw ex;
+        } finally {
+            sample.stop(meterRegistry.timer("ec2.describe", "region", region, "outcome", outcome));
+        }
+    }
+
+    private static String outcome(Throwable ex) {
+        if (ex instanceof AmazonServiceException) {
+            AmazonServiceException serviceException = (AmazonServiceException) ex;
+            if (RetryUtils.isThrottlingException(serviceException)) {
+                return "throttled";
+            }
+            return serviceException.getStatusCode() >= 500 ? "server_error" : "client_error";
+        }
+        if (ex instanceof CircuitOpenException) {
+            return "circuit_open";
+        }
+        if (ex instanceof RateLimitExceededException) {
+            return "rate_limited";
+        }
+        if (ex instanceof AbortedException) {
+            return "aborted";
+        }
+        return ex instanceof SdkClientException ? "client_failure" : "error";
+    }
+
+    public long getDescribeCalls() {
+        return describeCalls.getExecuted();
+    }
+
+    public long getCoalescedDescribeCalls() {
+        return describeCalls.getCoalesced();
+    }
+}
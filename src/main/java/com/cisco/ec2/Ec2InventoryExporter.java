@@ -0,0 +1,139 @@
+package com.cisco.ec2;
+
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.cisco.ec2.model.Ec2Instance;
+import com.cisco.ec2.model.RegionEc2Response;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.cisco.ec2.ErrorHandler.toErrorResponse;
+import static com.cisco.ec2.Ec2InstanceMapper.toEc2Instances;
+
+/**
+ * Writes all instances of a region as new line delimited json, walking every describe instances page. The next page
+ * is requested while the current one is written, only these two pages are held in memory. Once the request
+ * Deadline passed no next page is requested, and one still in flight is cancelled. The export then ends with a line
+ * holding the nextToken of the first page not written, which resumes the export when passed back.
+ */
+@Component
+public class Ec2InventoryExporter {
+
+    public static final String NDJSON = "application/x-ndjson";
+    private static final Logger LOGGER = LoggerFactory.getLogger(Ec2InventoryExporter.class);
+    private final Ec2InstanceService ec2InstanceService;
+    private final ExecutorService ec2Executor;
+    private final ObjectWriter writer;
+    private final int pageSize;
+
+    public Ec2InventoryExporter(Ec2InstanceService ec2InstanceService,
+                                ExecutorService ec2Executor,
+                                ObjectMapper objectMapper,
+                                @Value("${ec2.export.page-size:1000}") int pageSize) {
+        this.ec2InstanceService = ec2InstanceService;
+        this.ec2Executor = ec2Executor;
+        this.writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Fetches the first page before anything is written, so failures of the first downstream call are still
+     * reported with a proper status. Later failures can only be reported as a last error line.
+     */
+    public DescribeInstancesResult firstPage(String region, InstanceFilter filter, String nextToken) {
+        return describe(region, filter, nextToken);
+    }
+
+    public void export(String region, InstanceFilter filter, InstanceFields fields, DescribeInstancesResult firstPage, OutputStream outputStream) throws IOException, InterruptedException {
+        Deadline deadline = Deadline.current();
+        Future<DescribeInstancesResult> nextPage = null;
+        try (JsonGenerator generator = writer.getFactory().createGenerator(outputStream)) {
+            generator.setRootValueSeparator(null);
+            DescribeInstancesResult page = firstPage;
+            int pages = 0;
+            while (page != null) {
+                pages++;
+                String nextToken = page.getNextToken();
+                boolean expired = nextToken != null && deadline.isExpired();
+                nextPage = nextToken == null || expired ? null : submit(deadline.bind(() -> describe(region, filter, nextToken)));
+                writePage(generator, page, filter, fields);
+                if (expired) {
+                    writeNextToken(generator, region, nextToken);
+                }
+                page = nextPage == null ? null : awaitPage(region, nextPage, nextToken, deadline, generator);
+            }
+            LOGGER.info("Exported {} pages of instances for region: {}", pages, region);
+        } finally {
+            if (nextPage != null) {
+                nextPage.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * A page the ec2 executor has no room for fails like a failed describe call, with an error line.
+     */
+    private Future<DescribeInstancesResult> submit(Callable<DescribeInstancesResult> describe) {
+        try {
+            return ec2Executor.submit(describe);
+        } catch (RejectedExecutionException ex) {
+            CompletableFuture<DescribeInstancesResult> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(ex);
+            return rejected;
+        }
+    }
+
+    private DescribeInstancesResult describe(String region, InstanceFilter filter, String nextToken) {
+        return ec2InstanceService.describeInstances(region, new DescribeInstancesRequest()
+                .withMaxResults(pageSize)
+                .withNextToken(nextToken)
+                .withFilters(filter.toEc2Filters()));
+    }
+
+    private void writePage(JsonGenerator generator, DescribeInstancesResult page, InstanceFilter filter, InstanceFields fields) throws IOException {
+        for (Ec2Instance instance : toEc2Instances(page.getReservations(), null, filter.toPredicate(), fields)) {
+            writer.writeValue(generator, instance);
+            generator.writeRaw('\n');
+        }
+        generator.flush();
+    }
+
+    private void writeNextToken(JsonGenerator generator, String region, String nextToken) throws IOException {
+        LOGGER.warn("Export of region: {} stopped at the deadline", region);
+        writer.writeValue(generator, RegionEc2Response.builder().region(region).nextToken(nextToken).build());
+        generator.writeRaw('\n');
+    }
+
+    private DescribeInstancesResult awaitPage(String region, Future<DescribeInstancesResult> page, String nextToken, Deadline deadline,
+                                              JsonGenerator generator) throws IOException, InterruptedException {
+        try {
+            return page.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            page.cancel(true);
+            writeNextToken(generator, region, nextToken);
+            return null;
+        } catch (ExecutionException ex) {
+            LOGGER.error("Export of region: {} failed: {}", region, ex.getCause().getMessage());
+            writer.writeValue(generator, RegionEc2Response.builder().region(region).error(toErrorResponse(ex.getCause())).build());
+            generator.writeRaw('\n');
+            return null;
+        }
+    }
+}
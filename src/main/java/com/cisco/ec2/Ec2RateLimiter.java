@@ -0,0 +1,227 @@
+package com.cisco.ec2;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.retry.RetryUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.TimeGauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Rate limits and retries ec2 calls per region. Each call waits for a permit of its region (see RegionRateLimiter),
+ * throttled, server side and io failures (as retried by the sdk, whose own retries are off) are retried with full
+ * jitter exponential backoff. Waiting for permits and backing off share the same deadline, ec2.rate-limit.max-wait-ms
+ * from the start of the call or the request Deadline if that comes first, once it is reached the last failure (or
+ * RateLimitExceededException) is thrown. Async calls take the same permits and retries, but wait for them on a
+ * scheduler instead of in the calling thread.
+ */
+@Component
+public class Ec2RateLimiter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Ec2RateLimiter.class);
+    private final ConcurrentMap<String, RegionRateLimiter> limiters = new ConcurrentHashMap<>();
+    private final double minRate;
+    private final double maxRate;
+    private final double increase;
+    private final double decreaseFactor;
+    private final long maxWaitMillis;
+    private final int maxRetries;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final MeterRegistry meterRegistry;
+    private final ScheduledExecutorService scheduler;
+
+    public Ec2RateLimiter(@Value("${ec2.rate-limit.min-rate:1}") double minRate,
+                          @Value("${ec2.rate-limit.max-rate:20}") double maxRate,
+                          @Value("${ec2.rate-limit.increase:0.5}") double increase,
+                          @Value("${ec2.rate-limit.decrease-factor:0.5}") double decreaseFactor,
+                          @Value("${ec2.rate-limit.max-wait-ms:5000}") long maxWaitMillis,
+                          @Value("${ec2.retry.max-retries:3}") int maxRetries,
+                          @Value("${ec2.retry.base-backoff-ms:100}") long baseBackoffMillis,
+                          @Value("${ec2.retry.max-backoff-ms:2000}") long maxBackoffMillis,
+                          MeterRegistry meterRegistry) {
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.increase = increase;
+        this.decreaseFactor = decreaseFactor;
+        this.maxWaitMillis = maxWaitMillis;
+        this.maxRetries = maxRetries;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.meterRegistry = meterRegistry;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("ec2-scheduler-");
+        threadFactory.setDaemon(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    public <T> T execute(String region, Supplier<T> call) {
+        RegionRateLimiter limiter = limiters.computeIfAbsent(region, this::createLimiter);
+        long deadline = deadline();
+        for (int attempt = 0; ; attempt++) {
+            limiter.acquire(deadline);
+            try {
+                T result = call.get();
+                limiter.onSuccess();
+                return result;
+            } catch (SdkClientException ex) {
+                if (ex instanceof AmazonServiceException && RetryUtils.isThrottlingException(ex)) {
+                    limiter.onThrottled();
+                }
+                long backoffMillis = backoffMillis(attempt);
+                if (attempt >= maxRetries || !isRetryable(ex)
+                        || System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMillis) - deadline > 0) {
+                    throw ex;
+                }
+                LOGGER.warn("Retrying call for region: {} in {} ms after: {}", region, backoffMillis, ex.getMessage());
+                sleep(backoffMillis);
+            }
+        }
+    }
+
+    public <T> CompletableFuture<T> executeAsync(String region, Supplier<CompletableFuture<T>> call) {
+        RegionRateLimiter limiter = limiters.computeIfAbsent(region, this::createLimiter);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(region, limiter, call, deadline(), 0, result);
+        return result;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public Set<String> getRegions() {
+        return limiters.keySet();
+    }
+
+    public double getRate(String region) {
+        RegionRateLimiter limiter = limiters.get(region);
+        return limiter == null ? maxRate : limiter.getRate();
+    }
+
+    public int getQueueDepth(String region) {
+        RegionRateLimiter limiter = limiters.get(region);
+        return limiter == null ? 0 : limiter.getQueueDepth();
+    }
+
+    public long getThrottledMillis(String region) {
+        RegionRateLimiter limiter = limiters.get(region);
+        return limiter == null ? 0 : limiter.getThrottledMillis();
+    }
+
+    private <T> void attempt(String region, RegionRateLimiter limiter, Supplier<CompletableFuture<T>> call, long deadline, int attempt, CompletableFuture<T> result) {
+        long waitNanos;
+        try {
+            waitNanos = limiter.reserve(deadline);
+        } catch (RateLimitExceededException ex) {
+            result.completeExceptionally(ex);
+            return;
+        }
+        Runnable run = () -> start(call).whenComplete((value, failure) -> {
+            if (failure == null) {
+                limiter.onSuccess();
+                result.complete(value);
+                return;
+            }
+            Throwable cause = Futures.unwrap(failure);
+            if (!(cause instanceof SdkClientException)) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            SdkClientException ex = (SdkClientException) cause;
+            if (ex instanceof AmazonServiceException && RetryUtils.isThrottlingException(ex)) {
+                limiter.onThrottled();
+            }
+            long backoffMillis = backoffMillis(attempt);
+            if (attempt >= maxRetries || !isRetryable(ex)
+                    || System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMillis) - deadline > 0) {
+                result.completeExceptionally(ex);
+                return;
+            }
+            LOGGER.warn("Retrying call for region: {} in {} ms after: {}", region, backoffMillis, ex.getMessage());
+            schedule(() -> attempt(region, limiter, call, deadline, attempt + 1, result), TimeUnit.MILLISECONDS.toNanos(backoffMillis), result);
+        });
+        if (waitNanos == 0) {
+            run.run();
+            return;
+        }
+        limiter.queued().incrementAndGet();
+        schedule(() -> {
+            limiter.queued().decrementAndGet();
+            run.run();
+        }, waitNanos, result);
+    }
+
+    private static <T> CompletableFuture<T> start(Supplier<CompletableFuture<T>> call) {
+        try {
+            return call.get();
+        } catch (RuntimeException ex) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+    }
+
+    private void schedule(Runnable task, long delayNanos, CompletableFuture<?> result) {
+        try {
+            scheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException ex) {
+            result.completeExceptionally(new AbortedException(ex));
+        }
+    }
+
+    private long deadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Deadline.current().remainingMillis(maxWaitMillis));
+    }
+
+    private RegionRateLimiter createLimiter(String region) {
+        RegionRateLimiter limiter = new RegionRateLimiter(region, minRate, maxRate, increase, decreaseFactor);
+        Tags tags = Tags.of("region", region);
+        meterRegistry.gauge("ec2.rate-limit.rate", tags, limiter, RegionRateLimiter::getRate);
+        meterRegistry.gauge("ec2.rate-limit.queue", tags, limiter, RegionRateLimiter::getQueueDepth);
+        TimeGauge.builder("ec2.rate-limit.throttled", limiter, TimeUnit.MILLISECONDS, RegionRateLimiter::getThrottledMillis)
+                .tags(tags)
+                .register(meterRegistry);
+        return limiter;
+    }
+
+    private long backoffMillis(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static boolean isRetryable(SdkClientException ex) {
+        if (ex instanceof AmazonServiceException) {
+            return RetryUtils.isThrottlingException(ex) || RetryUtils.isRetryableServiceException(ex);
+        }
+        return ex.getCause() instanceof IOException;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException(e);
+        }
+    }
+}
@@ -1,42 +1,224 @@
 package com.cisco.ec2;
 
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
 import com.cisco.ec2.model.ErrorResponse;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
 import javax.servlet.http.HttpServletResponse;
 import javax.validation.ConstraintViolationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @ControllerAdvice
+@Profile("!" + ReactiveEc2Configuration.REACTIVE_PROFILE)
 public class ErrorHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ErrorHandler.class);
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+    private static final String RETRY_AFTER_SECONDS = "1";
+    private static final String TOO_BUSY = "Too many concurrent ec2 calls";
+    private final MeterRegistry meterRegistry;
+
+    public ErrorHandler(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
     @ResponseBody
     @ExceptionHandler(Exception.class)
     ErrorResponse globalExceptionHandler(HttpServletResponse response, Exception ex) {
         LOGGER.error(ex.getMessage());
-        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-        return ErrorResponse.builder().errorMessage("Couldn't process request").status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR).build();
+        count("unhandled");
+        setStatus(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        return internalError();
     }
 
     @ResponseBody
     @ExceptionHandler(AmazonServiceException.class)
     ErrorResponse amazonServiceExceptionHandler(HttpServletResponse response, AmazonServiceException ex) {
         LOGGER.error(ex.getMessage());
-        response.setStatus(ex.getStatusCode());
-        return ErrorResponse.builder().requestId(ex.getRequestId()).errorMessage("Downstream failure").errorType(ex.getErrorType().name()).status(ex.getStatusCode()).build();
+        count("downstream");
+        ErrorResponse error = downstreamError(ex);
+        if (error.getStatus() == SC_TOO_MANY_REQUESTS) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+        }
+        setStatus(response, error.getStatus());
+        return error;
+    }
+
+    @ResponseBody
+    @ExceptionHandler(RateLimitExceededException.class)
+    ErrorResponse rateLimitExceededExceptionHandler(HttpServletResponse response, RateLimitExceededException ex) {
+        LOGGER.error(ex.getMessage());
+        count("rate_limited");
+        response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+        setStatus(response, SC_TOO_MANY_REQUESTS);
+        return tooManyRequests(ex.getMessage());
+    }
+
+    @ResponseBody
+    @ExceptionHandler(CircuitOpenException.class)
+    ErrorResponse circuitOpenExceptionHandler(HttpServletResponse response, CircuitOpenException ex) {
+        LOGGER.error(ex.getMessage());
+        count("circuit_open");
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(ex.getRetryAfterMillis()))));
+        setStatus(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        return serviceUnavailable(ex.getMessage());
+    }
+
+    /**
+     * The ec2 executor queue is full.
+     */
+    @ResponseBody
+    @ExceptionHandler(RejectedExecutionException.class)
+    ErrorResponse rejectedExecutionExceptionHandler(HttpServletResponse response, RejectedExecutionException ex) {
+        LOGGER.error(ex.getMessage());
+        count("rejected");
+        response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+        setStatus(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        return serviceUnavailable(TOO_BUSY);
+    }
+
+    @ResponseBody
+    @ExceptionHandler(DeadlineExceededException.class)
+    ErrorResponse deadlineExceededExceptionHandler(HttpServletResponse response, DeadlineExceededException ex) {
+        LOGGER.error(ex.getMessage());
+        count("deadline_exceeded");
+        setStatus(response, HttpServletResponse.SC_GATEWAY_TIMEOUT);
+        return downstreamTimeout();
     }
 
     @ResponseBody
     @ExceptionHandler(ConstraintViolationException.class)
     ErrorResponse requestParamsExceptionHandler(HttpServletResponse response, ConstraintViolationException ex) {
         LOGGER.error(ex.getMessage());
-        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-        return ErrorResponse.builder().errorMessage(ex.getMessage()).status(HttpServletResponse.SC_BAD_REQUEST).build();
+        count("constraint_violation");
+        setStatus(response, HttpServletResponse.SC_BAD_REQUEST);
+        return badRequest(ex.getMessage());
+    }
+
+    @ResponseBody
+    @ExceptionHandler({MethodArgumentNotValidException.class, HttpMessageNotReadableException.class})
+    ErrorResponse requestBodyExceptionHandler(HttpServletResponse response, Exception ex) {
+        LOGGER.error(ex.getMessage());
+        count("invalid_body");
+        setStatus(response, HttpServletResponse.SC_BAD_REQUEST);
+        return badRequest(ex instanceof MethodArgumentNotValidException ? "Invalid request body" : "Malformed request body");
+    }
+
+    @ResponseBody
+    @ExceptionHandler(InvalidRegionException.class)
+    ErrorResponse invalidRegionExceptionHandler(HttpServletResponse response, InvalidRegionException ex) {
+        LOGGER.error(ex.getMessage());
+        count("invalid_region");
+        setStatus(response, HttpServletResponse.SC_BAD_REQUEST);
+        return badRequest(ex.getMessage());
     }
 
+    @ResponseBody
+    @ExceptionHandler(InvalidCursorException.class)
+    ErrorResponse invalidCursorExceptionHandler(HttpServletResponse response, InvalidCursorException ex) {
+        LOGGER.error(ex.getMessage());
+        count("invalid_cursor");
+        setStatus(response, HttpServletResponse.SC_BAD_REQUEST);
+        return badRequest(ex.getMessage());
+    }
+
+    @ResponseBody
+    @ExceptionHandler(ExpiredCursorException.class)
+    ErrorResponse expiredCursorExceptionHandler(HttpServletResponse response, ExpiredCursorException ex) {
+        LOGGER.error(ex.getMessage());
+        count("expired_cursor");
+        setStatus(response, HttpServletResponse.SC_GONE);
+        return gone(ex.getMessage());
+    }
+
+    /**
+     * Watch clients accept text/event-stream only, which errors can't be written as, they get json.
+     */
+    private static void setStatus(HttpServletResponse response, int status) {
+        response.setStatus(status);
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes) {
+            String accept = ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes()).getRequest().getHeader(HttpHeaders.ACCEPT);
+            if (accept != null && accept.contains(MediaType.TEXT_EVENT_STREAM_VALUE)) {
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            }
+        }
+    }
+
+    private void count(String type) {
+        meterRegistry.counter("api.errors", "type", type).increment();
+    }
+
+    static ErrorResponse badRequest(String message) {
+        return ErrorResponse.builder().errorMessage(message).status(HttpServletResponse.SC_BAD_REQUEST).build();
+    }
+
+    static ErrorResponse internalError() {
+        return ErrorResponse.builder().errorMessage("Couldn't process request").status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR).build();
+    }
+
+    /**
+     * Throttled calls are reported as 429, whatever status ec2 used, after Ec2RateLimiter gave up retrying them.
+     */
+    static ErrorResponse downstreamError(AmazonServiceException ex) {
+        int status = RetryUtils.isThrottlingException(ex) ? SC_TOO_MANY_REQUESTS : ex.getStatusCode();
+        return ErrorResponse.builder().requestId(ex.getRequestId()).errorMessage("Downstream failure").errorType(ex.getErrorType().name()).status(status).build();
+    }
+
+    static ErrorResponse tooManyRequests(String message) {
+        return ErrorResponse.builder().errorMessage(message).status(SC_TOO_MANY_REQUESTS).build();
+    }
+
+    static ErrorResponse serviceUnavailable(String message) {
+        return ErrorResponse.builder().errorMessage(message).status(HttpServletResponse.SC_SERVICE_UNAVAILABLE).build();
+    }
+
+    static ErrorResponse gone(String message) {
+        return ErrorResponse.builder().errorMessage(message).status(HttpServletResponse.SC_GONE).build();
+    }
+
+    /**
+     * Error of a failed part of a partial response, reported next to the results of the other parts.
+     */
+    static ErrorResponse toErrorResponse(Throwable ex) {
+        if (ex instanceof AmazonServiceException) {
+            return downstreamError((AmazonServiceException) ex);
+        }
+        if (ex instanceof InvalidRegionException) {
+            return badRequest(ex.getMessage());
+        }
+        if (ex instanceof RateLimitExceededException) {
+            return tooManyRequests(ex.getMessage());
+        }
+        if (ex instanceof CircuitOpenException) {
+            return serviceUnavailable(ex.getMessage());
+        }
+        if (ex instanceof DeadlineExceededException) {
+            return downstreamTimeout();
+        }
+        if (ex instanceof ExpiredCursorException) {
+            return gone(ex.getMessage());
+        }
+        if (ex instanceof RejectedExecutionException) {
+            return serviceUnavailable(TOO_BUSY);
+        }
+        return internalError();
+    }
+
+    static ErrorResponse downstreamTimeout() {
+        return ErrorResponse.builder().errorMessage("Downstream timeout").status(HttpServletResponse.SC_GATEWAY_TIMEOUT).build();
+    }
 }
@@ -0,0 +1,8 @@
+package com.cisco.ec2;
+
+public class ExpiredCursorException extends RuntimeException {
+
+    public ExpiredCursorException() {
+        super("Cursor expired, restart from the first page");
+    }
+}
@@ -0,0 +1,142 @@
+package com.cisco.ec2;
+
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Placement;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.Tag;
+import com.cisco.ec2.model.Ec2Instance;
+import com.cisco.ec2.model.GetEc2CountsResponse;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Instance counts by state, type, availability zone and by value of the requested tag keys. Counters are long cells
+ * incremented in place, instances are counted straight from describe instances pages (or added to and removed from
+ * the counts of a snapshot) without being collected. Instances without a value (no placement, no such tag) are only
+ * counted in the total.
+ */
+final class FleetCounts {
+
+    private final List<String> tagKeys;
+    private long total;
+    private final Map<String, long[]> states = new HashMap<>();
+    private final Map<String, long[]> types = new HashMap<>();
+    private final Map<String, long[]> availabilityZones = new HashMap<>();
+    private final Map<String, Map<String, long[]>> tags = new LinkedHashMap<>();
+
+    FleetCounts() {
+        this(Collections.emptyList());
+    }
+
+    FleetCounts(List<String> tagKeys) {
+        this.tagKeys = tagKeys;
+        for (String tagKey : tagKeys) {
+            tags.put(tagKey, new HashMap<>());
+        }
+    }
+
+    void addAll(List<Reservation> reservations) {
+        for (int i = 0; i < reservations.size(); i++) {
+            List<Instance> instances = reservations.get(i).getInstances();
+            for (int j = 0; j < instances.size(); j++) {
+                add(instances.get(j));
+            }
+        }
+    }
+
+    void add(Instance instance) {
+        Placement placement = instance.getPlacement();
+        count(instance.getState() == null ? null : instance.getState().getName(), instance.getInstanceType(),
+                placement == null ? null : placement.getAvailabilityZone(), 1);
+        if (tagKeys.isEmpty()) {
+            return;
+        }
+        List<Tag> instanceTags = instance.getTags();
+        for (int i = 0; i < instanceTags.size(); i++) {
+            Tag tag = instanceTags.get(i);
+            Map<String, long[]> values = tags.get(tag.getKey());
+            if (values != null) {
+                increment(values, tag.getValue(), 1);
+            }
+        }
+    }
+
+    void add(Ec2Instance instance) {
+        count(instance.getState(), instance.getType(), instance.getAvailabilityZone(), 1);
+    }
+
+    void remove(Ec2Instance instance) {
+        count(instance.getState(), instance.getType(), instance.getAvailabilityZone(), -1);
+    }
+
+    long getTotal() {
+        return total;
+    }
+
+    /**
+     * Copy of the state, type and availability zone counts, to be updated while this one is still read.
+     */
+    FleetCounts copy() {
+        FleetCounts copy = new FleetCounts();
+        copy.total = total;
+        copyTo(states, copy.states);
+        copyTo(types, copy.types);
+        copyTo(availabilityZones, copy.availabilityZones);
+        return copy;
+    }
+
+    GetEc2CountsResponse toResponse() {
+        Map<String, Map<String, Long>> tagCounts = null;
+        if (!tags.isEmpty()) {
+            tagCounts = new LinkedHashMap<>();
+            for (Map.Entry<String, Map<String, long[]>> tag : tags.entrySet()) {
+                tagCounts.put(tag.getKey(), sorted(tag.getValue()));
+            }
+        }
+        return GetEc2CountsResponse.builder()
+                .total(total)
+                .states(sorted(states))
+                .types(sorted(types))
+                .availabilityZones(sorted(availabilityZones))
+                .tags(tagCounts)
+                .build();
+    }
+
+    private void count(String state, String type, String availabilityZone, int delta) {
+        total += delta;
+        increment(states, state, delta);
+        increment(types, type, delta);
+        increment(availabilityZones, availabilityZone, delta);
+    }
+
+    private static void increment(Map<String, long[]> counts, String key, int delta) {
+        if (key == null) {
+            return;
+        }
+        long[] count = counts.get(key);
+        if (count == null) {
+            counts.put(key, new long[]{delta});
+        } else if ((count[0] += delta) == 0) {
+            counts.remove(key);
+        }
+    }
+
+    private static void copyTo(Map<String, long[]> from, Map<String, long[]> to) {
+        for (Map.Entry<String, long[]> count : from.entrySet()) {
+            to.put(count.getKey(), new long[]{count.getValue()[0]});
+        }
+    }
+
+    private static Map<String, Long> sorted(Map<String, long[]> counts) {
+        Map<String, Long> sorted = new TreeMap<>();
+        for (Map.Entry<String, long[]> count : counts.entrySet()) {
+            sorted.put(count.getKey(), count.getValue()[0]);
+        }
+        return sorted;
+    }
+}
@@ -0,0 +1,78 @@
+package com.cisco.ec2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+final class Futures {
+
+    private Futures() {
+    }
+
+    /**
+     * Failure of a completed future: dependent stages complete with the original failure wrapped into a
+     * CompletionException.
+     */
+    static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+
+    /**
+     * Like ExecutorService.invokeAll with a timeout, except that tasks the executor rejects (its queue is full) fail
+     * on their own with the RejectedExecutionException instead of failing the whole call, the other tasks still run.
+     * Tasks not done once the timeout passes are cancelled.
+     */
+    static <T> List<Future<T>> invokeAll(ExecutorService executor, List<Callable<T>> tasks, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            try {
+                futures.add(executor.submit(task));
+            } catch (RejectedExecutionException ex) {
+                CompletableFuture<T> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(ex);
+                futures.add(rejected);
+            }
+        }
+        try {
+            for (Future<T> future : futures) {
+                try {
+                    future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException ex) {
+                    // reported by the future
+                } catch (TimeoutException ex) {
+                    break;
+                }
+            }
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+        return futures;
+    }
+
+    /**
+     * Tells whether the task of a future returned by invokeAll was rejected by the executor.
+     */
+    static boolean isRejected(Future<?> future) {
+        if (!future.isDone() || future.isCancelled()) {
+            return false;
+        }
+        try {
+            future.get();
+            return false;
+        } catch (ExecutionException ex) {
+            return ex.getCause() instanceof RejectedExecutionException;
+        } catch (InterruptedException | CancellationException ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.cisco.ec2;
+
+import com.cisco.ec2.model.Ec2Instance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Instance fields a request asks for, all of them when not set. Only these fields are mapped, the others stay null
+ * and are left out of the response.
+ */
+public final class InstanceFields {
+
+    public static final String FIELDS = "name|instanceId|state|type|availabilityZone|privateIp|publicIp";
+    static final int NAME = 1;
+    static final int INSTANCE_ID = 1 << 1;
+    static final int STATE = 1 << 2;
+    static final int TYPE = 1 << 3;
+    static final int AVAILABILITY_ZONE = 1 << 4;
+    static final int PRIVATE_IP = 1 << 5;
+    static final int PUBLIC_IP = 1 << 6;
+    public static final InstanceFields ALL = new InstanceFields(NAME | INSTANCE_ID | STATE | TYPE | AVAILABILITY_ZONE | PRIVATE_IP | PUBLIC_IP);
+
+    private final int mask;
+
+    private InstanceFields(int mask) {
+        this.mask = mask;
+    }
+
+    /**
+     * Fields of the given names, which are validated against FIELDS by the controller.
+     */
+    public static InstanceFields of(List<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return ALL;
+        }
+        int mask = 0;
+        for (String field : fields) {
+            mask |= field(field);
+        }
+        return new InstanceFields(mask);
+    }
+
+    InstanceFields with(String field) {
+        return with(field(field));
+    }
+
+    InstanceFields with(int field) {
+        return (mask & field) == field ? this : new InstanceFields(mask | field);
+    }
+
+    boolean contains(int field) {
+        return (mask & field) != 0;
+    }
+
+    boolean isAll() {
+        return mask == ALL.mask;
+    }
+
+    /**
+     * Copies of the instances without the fields which aren't requested, the instances themselves when all are.
+     */
+    List<Ec2Instance> project(List<Ec2Instance> instances) {
+        if (isAll()) {
+            return instances;
+        }
+        List<Ec2Instance> projected = new ArrayList<>(instances.size());
+        for (int i = 0; i < instances.size(); i++) {
+            projected.add(project(instances.get(i)));
+        }
+        return projected;
+    }
+
+    private Ec2Instance project(Ec2Instance instance) {
+        return new Ec2Instance(
+                contains(NAME) ? instance.getName() : null,
+                contains(INSTANCE_ID) ? instance.getInstanceId() : null,
+                contains(STATE) ? instance.getState() : null,
+                contains(TYPE) ? instance.getType() : null,
+                contains(AVAILABILITY_ZONE) ? instance.getAvailabilityZone() : null,
+                contains(PRIVATE_IP) ? instance.getPrivateIp() : null,
+                contains(PUBLIC_IP) ? instance.getPublicIp() : null);
+    }
+
+    private static int field(String field) {
+        switch (field) {
+            case "name":
+                return NAME;
+            case "instanceId":
+                return INSTANCE_ID;
+            case "state":
+                return STATE;
+            case "type":
+                return TYPE;
+            case "availabilityZone":
+                return AVAILABILITY_ZONE;
+            case "privateIp":
+                return PRIVATE_IP;
+            case "publicIp":
+                return PUBLIC_IP;
+            default:
+                throw new IllegalArgumentException("Unknown instance field: " + field);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Integer.toString(mask);
+    }
+}
@@ -0,0 +1,89 @@
+package com.cisco.ec2;
+
+import com.amazonaws.services.ec2.model.Filter;
+import com.cisco.ec2.model.Ec2Instance;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Instance filters of a request. State, type, availability zone, vpc and tags are passed to ec2 as describe
+ * instances filters, the values of a repeated tag key (and keys given alone) are merged into one filter, which ec2
+ * matches when any value does. The name is matched as case insensitive prefix of the name tag, which ec2 filters
+ * can't do, so it is applied while mapping.
+ */
+@Getter
+@Builder
+public class InstanceFilter {
+
+    public static final InstanceFilter NONE = InstanceFilter.builder().build();
+    public static final String STATES = "pending|running|shutting-down|terminated|stopping|stopped";
+    public static final String TAG = "[^=]{1,127}(=.{0,255})?";
+
+    private final List<String> states;
+    private final List<String> types;
+    private final List<String> availabilityZones;
+    private final List<String> vpcIds;
+    private final List<String> tags;
+    private final String name;
+
+    public List<Filter> toEc2Filters() {
+        List<Filter> filters = new ArrayList<>();
+        addFilter(filters, "instance-state-name", states);
+        addFilter(filters, "instance-type", types);
+        addFilter(filters, "availability-zone", availabilityZones);
+        addFilter(filters, "vpc-id", vpcIds);
+        tagFilters().forEach((name, values) -> filters.add(new Filter(name, values)));
+        return filters;
+    }
+
+    public Predicate<Ec2Instance> toPredicate() {
+        if (name == null) {
+            return Ec2InstanceMapper.ALL;
+        }
+        String prefix = name.toLowerCase(Locale.ROOT);
+        return instance -> instance.getName() != null && instance.getName().toLowerCase(Locale.ROOT).startsWith(prefix);
+    }
+
+    /**
+     * Predicate applying the state, type, availability zone and name filters to mapped instances, e.g. of a cached
+     * snapshot. Vpc and tags aren't mapped, they can't be matched.
+     */
+    public Predicate<Ec2Instance> toInstancePredicate() {
+        Predicate<Ec2Instance> name = toPredicate();
+        return instance -> matches(states, instance.getState())
+                && matches(types, instance.getType())
+                && matches(availabilityZones, instance.getAvailabilityZone())
+                && name.test(instance);
+    }
+
+    private static boolean matches(List<String> values, String value) {
+        return values == null || values.isEmpty() || values.contains(value);
+    }
+
+    private Map<String, List<String>> tagFilters() {
+        Map<String, List<String>> filters = new LinkedHashMap<>();
+        for (String tag : tags == null ? Collections.<String>emptyList() : tags) {
+            int separator = tag.indexOf('=');
+            if (separator < 0) {
+                filters.computeIfAbsent("tag-key", key -> new ArrayList<>()).add(tag);
+            } else {
+                filters.computeIfAbsent("tag:" + tag.substring(0, separator), key -> new ArrayList<>()).add(tag.substring(separator + 1));
+            }
+        }
+        return filters;
+    }
+
+    private static void addFilter(List<Filter> filters, String name, List<String> values) {
+        if (values != null && !values.isEmpty()) {
+            filters.add(new Filter(name, values));
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.cisco.ec2;
+
+import com.cisco.ec2.model.Ec2Instance;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Streams instance changes of a region as server-sent events. Every time the cached snapshot of a watched region is
+ * loaded or patched, the diff to the snapshot it replaced is computed once, its instances are serialized once, and
+ * the diff is handed to all subscribers of the region. Diffs are computed by a single publisher thread in the order
+ * the snapshots replaced each other, the cache only queues them, so its region lock isn't held meanwhile. Each
+ * subscriber picks the changes its filter matches: an instance starting or ceasing to match is sent as added or
+ * removed. Events are named added, removed or changed, carry the instance as json and the snapshot version as id. The
+ * first event, snapshot, carries the version the subscription started at, changes up to it are not sent.
+ * <p>
+ * Every subscriber has a buffer of ec2.watch.buffer-size events, sent by a pool of ec2.watch.sender-threads platform
+ * threads (SseEmitter sends synchronized, a blocked write would pin the carrier of a virtual thread), so slow clients
+ * only hold their own buffer and at most one sender. A subscriber whose buffer overflows gets an overflow event and
+ * its stream ends, it has to read the snapshot again. So does a subscriber of a region loaded anew (it was evicted
+ * from the cache), with a resync event carrying the loaded version: changes between the two snapshots are unknown.
+ * Watched regions are read from the cache every ec2.watch.poll-ms, which keeps their snapshots refreshing, idle
+ * streams get a comment then to keep proxies from closing them.
+ */
+@Component
+@Profile("!" + ReactiveEc2Configuration.REACTIVE_PROFILE)
+public class InstanceWatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InstanceWatcher.class);
+    private final Map<String, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final ExecutorService publisher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "watch-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService senders;
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "watch-poller");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean polling = new AtomicBoolean();
+    private final RegionInventoryCache regionInventoryCache;
+    private final ObjectMapper objectMapper;
+    private final int bufferSize;
+    private final long pollMillis;
+    private final long timeoutMillis;
+
+    public InstanceWatcher(RegionInventoryCache regionInventoryCache,
+                           ObjectMapper objectMapper,
+                           @Value("${ec2.watch.buffer-size:1000}") int bufferSize,
+                           @Value("${ec2.watch.poll-ms:5000}") long pollMillis,
+                           @Value("${ec2.watch.timeout-ms:1800000}") long timeoutMillis,
+                           @Value("${ec2.watch.sender-threads:8}") int senderThreads) {
+        this.senders = Executors.newFixedThreadPool(senderThreads, new CustomizableThreadFactory("watch-sender-"));
+        this.regionInventoryCache = regionInventoryCache;
+        this.objectMapper = objectMapper;
+        this.bufferSize = bufferSize;
+        this.pollMillis = pollMillis;
+        this.timeoutMillis = timeoutMillis;
+        regionInventoryCache.addListener(this::enqueue);
+    }
+
+    /**
+     * Subscribes to the changes of the region matching the filter, loading its snapshot when not cached.
+     */
+    public SseEmitter watch(String region, Predicate<Ec2Instance> filter) {
+        SseEmitter emitter = createEmitter();
+        Subscriber subscriber = new Subscriber(region, filter, emitter);
+        subscribers.computeIfAbsent(region, key -> new CopyOnWriteArrayList<>()).add(subscriber);
+        emitter.onCompletion(subscriber::close);
+        emitter.onTimeout(subscriber::close);
+        emitter.onError(failure -> subscriber.close());
+        try {
+            subscriber.start(regionInventoryCache.get(region).getVersion());
+        } catch (RuntimeException ex) {
+            subscriber.close();
+            throw ex;
+        }
+        if (polling.compareAndSet(false, true)) {
+            poller.scheduleWithFixedDelay(this::poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+        }
+        return emitter;
+    }
+
+    SseEmitter createEmitter() {
+        return new SseEmitter(timeoutMillis);
+    }
+
+    int getSubscriberCount() {
+        return subscribers.values().stream().mapToInt(List::size).sum();
+    }
+
+    /**
+     * Waits until the snapshots queued so far are published to the subscribers.
+     */
+    void awaitPublished() throws InterruptedException, ExecutionException {
+        publisher.submit(() -> { }).get();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        poller.shutdownNow();
+        publisher.shutdownNow();
+        subscribers.values().forEach(watching -> watching.forEach(subscriber -> subscriber.emitter.complete()));
+        senders.shutdownNow();
+    }
+
+    /**
+     * Called by the cache under the region lock, in version order, only queues the snapshots of watched regions.
+     */
+    private void enqueue(RegionInventorySnapshot previous, RegionInventorySnapshot current) {
+        List<Subscriber> watching = subscribers.get(current.getRegion());
+        if (watching == null || watching.isEmpty()) {
+            return;
+        }
+        try {
+            publisher.execute(() -> publish(previous, current));
+        } catch (RejectedExecutionException ex) {
+            // shutting down
+        }
+    }
+
+    private void publish(RegionInventorySnapshot previous, RegionInventorySnapshot current) {
+        List<Subscriber> watching = subscribers.get(current.getRegion());
+        if (watching == null || watching.isEmpty()) {
+            return;
+        }
+        if (previous == null) {
+            watching.forEach(subscriber -> subscriber.resync(current.getVersion()));
+            return;
+        }
+        SnapshotDiff diff = SnapshotDiff.between(previous, current);
+        if (diff.isEmpty()) {
+            return;
+        }
+        String[] json = new String[diff.size()];
+        try {
+            for (int i = 0; i < json.length; i++) {
+                json[i] = objectMapper.writeValueAsString(diff.after(i) != null ? diff.after(i) : diff.before(i));
+            }
+        } catch (JsonProcessingException ex) {
+            LOGGER.error("Couldn't serialize changes of region: {}", current.getRegion(), ex);
+            return;
+        }
+        for (Subscriber subscriber : watching) {
+            subscriber.send(diff, json);
+        }
+    }
+
+    private void poll() {
+        for (Map.Entry<String, List<Subscriber>> region : subscribers.entrySet()) {
+            if (region.getValue().isEmpty()) {
+                continue;
+            }
+            try {
+                regionInventoryCache.get(region.getKey());
+            } catch (RuntimeException ex) {
+                LOGGER.warn("Couldn't refresh watched region: {}: {}", region.getKey(), ex.getMessage());
+            }
+            region.getValue().forEach(Subscriber::keepAlive);
+        }
+    }
+
+    private class Subscriber {
+        private final String region;
+        private final Predicate<Ec2Instance> filter;
+        private final SseEmitter emitter;
+        private final BlockingQueue<SseEmitter.SseEventBuilder> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean sending = new AtomicBoolean();
+        // diffs published before the snapshot event, guarded by the subscriber
+        private final List<PublishedDiff> early = new ArrayList<>();
+        // version of the snapshot event, -1 until it is sent, guarded by the subscriber
+        private long version = -1;
+        private volatile SseEmitter.SseEventBuilder last;
+        private volatile boolean closed;
+
+        private Subscriber(String region, Predicate<Ec2Instance> filter, SseEmitter emitter) {
+            this.region = region;
+            this.filter = filter;
+            this.emitter = emitter;
+        }
+
+        private synchronized void start(long version) {
+            this.version = version;
+            offer(SseEmitter.event().name("snapshot").id(String.valueOf(version)).data(version));
+            for (PublishedDiff published : early) {
+                send(published.diff, published.json);
+            }
+            early.clear();
+        }
+
+        private synchronized void send(SnapshotDiff diff, String[] json) {
+            if (version < 0) {
+                if (early.size() < bufferSize) {
+                    early.add(new PublishedDiff(diff, json));
+                } else {
+                    end(overflow());
+                }
+                return;
+            }
+            if (diff.getVersion() <= version) {
+                return;
+            }
+            String id = String.valueOf(diff.getVersion());
+            for (int i = 0; i < diff.size() && last == null; i++) {
+                boolean matchedBefore = diff.before(i) != null && filter.test(diff.before(i));
+                boolean matchesAfter = diff.after(i) != null && filter.test(diff.after(i));
+                if (matchedBefore || matchesAfter) {
+                    String name = !matchedBefore ? "added" : !matchesAfter ? "removed" : "changed";
+                    offer(SseEmitter.event().name(name).id(id).data(json[i], MediaType.APPLICATION_JSON));
+                }
+            }
+        }
+
+        private synchronized void keepAlive() {
+            if (version >= 0 && buffer.isEmpty()) {
+                offer(SseEmitter.event().comment("keep-alive"));
+            }
+        }
+
+        /**
+         * Ends the stream of a subscriber which saw an older snapshot of the region than the one loaded anew.
+         */
+        private synchronized void resync(long loadedVersion) {
+            if (version >= 0 && loadedVersion > version) {
+                LOGGER.info("Region: {} was loaded anew, closing the stream of its watcher", region);
+                end(SseEmitter.event().name("resync").id(String.valueOf(loadedVersion)).data(loadedVersion));
+            }
+        }
+
+        private SseEmitter.SseEventBuilder overflow() {
+            LOGGER.info("Watcher of region: {} fell {} events behind, closing its stream", region, bufferSize);
+            return SseEmitter.event().name("overflow").data(bufferSize);
+        }
+
+        private void offer(SseEmitter.SseEventBuilder event) {
+            if (closed || last != null) {
+                return;
+            }
+            if (!buffer.offer(event)) {
+                end(overflow());
+                return;
+            }
+            schedule();
+        }
+
+        /**
+         * Drops the buffered events and sends the given one instead, as the last event of the stream.
+         */
+        private void end(SseEmitter.SseEventBuilder event) {
+            if (closed || last != null) {
+                return;
+            }
+            last = event;
+            buffer.clear();
+            schedule();
+        }
+
+        private void schedule() {
+            if (sending.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::drain);
+                } catch (RejectedExecutionException ex) {
+                    // shutting down
+                    sending.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                SseEmitter.SseEventBuilder event;
+                // a subscriber with a full buffer gives the other ones a turn after a buffer's worth of events
+                for (int sent = 0; sent < bufferSize && !closed && last == null && (event = buffer.poll()) != null; sent++) {
+                    emitter.send(event);
+                }
+                if (last != null && !closed) {
+                    emitter.send(last);
+                    emitter.complete();
+                    close();
+                }
+            } catch (IOException | IllegalStateException ex) {
+                close();
+            } finally {
+                sending.set(false);
+            }
+            if (!closed && (last != null || !buffer.isEmpty())) {
+                schedule();
+            }
+        }
+
+        private void close() {
+            closed = true;
+            buffer.clear();
+            List<Subscriber> watching = subscribers.get(region);
+            if (watching != null) {
+                watching.remove(this);
+            }
+        }
+    }
+
+    private static class PublishedDiff {
+        private final SnapshotDiff diff;
+        private final String[] json;
+
+        private PublishedDiff(SnapshotDiff diff, String[] json) {
+            this.diff = diff;
+            this.json = json;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.cisco.ec2;
+
+public class InvalidCursorException extends RuntimeException {
+
+    public InvalidCursorException() {
+        super("Invalid cursor");
+    }
+}
@@ -0,0 +1,8 @@
+package com.cisco.ec2;
+
+public class InvalidRegionException extends RuntimeException {
+
+    public InvalidRegionException(String region) {
+        super("Unknown region: " + region);
+    }
+}
@@ -0,0 +1,184 @@
+package com.cisco.ec2;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.Region;
+import com.cisco.ec2.model.GetEc2CountsResponse;
+import com.cisco.ec2.model.GetEc2Response;
+import com.cisco.ec2.model.GetMultiRegionEc2CountsResponse;
+import com.cisco.ec2.model.GetMultiRegionEc2Response;
+import com.cisco.ec2.model.RegionEc2CountsResponse;
+import com.cisco.ec2.model.RegionEc2Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static com.cisco.ec2.ErrorHandler.downstreamTimeout;
+import static com.cisco.ec2.ErrorHandler.toErrorResponse;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Describes instances of many regions at once. Regions are queried concurrently, so the call takes as long as the
+ * slowest region (bounded by the timeout and the request Deadline), a failing region is reported next to the results of the others,
+ * as is a region the ec2 executor has no room for (503). Enabled regions are described through the rate limiter and
+ * circuit breaker of the default region and cached for regions-ttl-ms, the previous ones are served while that fails.
+ */
+@Component
+public class MultiRegionEc2Service {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultiRegionEc2Service.class);
+    private final Ec2InstanceService ec2InstanceService;
+    private final Ec2FleetCounter ec2FleetCounter;
+    private final Ec2ClientProvider ec2ClientProvider;
+    private final ExecutorService ec2Executor;
+    private final Ec2RateLimiter ec2RateLimiter;
+    private final Ec2CircuitBreaker ec2CircuitBreaker;
+    private final String defaultRegion;
+    private final long timeoutMillis;
+    private final long regionsTtlMillis;
+    private volatile EnabledRegions enabledRegions;
+
+    public MultiRegionEc2Service(Ec2InstanceService ec2InstanceService,
+                                 Ec2FleetCounter ec2FleetCounter,
+                                 Ec2ClientProvider ec2ClientProvider,
+                                 ExecutorService ec2Executor,
+                                 Ec2RateLimiter ec2RateLimiter,
+                                 Ec2CircuitBreaker ec2CircuitBreaker,
+                                 @Value("${ec2.default-region:eu-west-1}") String defaultRegion,
+                                 @Value("${ec2.multi-region.timeout-ms:10000}") long timeoutMillis,
+                                 @Value("${ec2.multi-region.regions-ttl-ms:3600000}") long regionsTtlMillis) {
+        this.ec2InstanceService = ec2InstanceService;
+        this.ec2FleetCounter = ec2FleetCounter;
+        this.ec2ClientProvider = ec2ClientProvider;
+        this.ec2Executor = ec2Executor;
+        this.ec2RateLimiter = ec2RateLimiter;
+        this.ec2CircuitBreaker = ec2CircuitBreaker;
+        this.defaultRegion = defaultRegion;
+        this.timeoutMillis = timeoutMillis;
+        this.regionsTtlMillis = regionsTtlMillis;
+    }
+
+    public GetMultiRegionEc2Response getInstances(List<String> regions, Integer size, String sort, InstanceFilter filter, InstanceFields fields) throws InterruptedException {
+        List<String> requestedRegions = requestedRegions(regions);
+        List<Future<GetEc2Response>> results = invokeAll(requestedRegions,
+                region -> ec2InstanceService.getInstances(region, size, null, sort, filter, fields));
+
+        List<RegionEc2Response> responses = new ArrayList<>(requestedRegions.size());
+        for (int i = 0; i < requestedRegions.size(); i++) {
+            responses.add(toRegionResponse(requestedRegions.get(i), results.get(i)));
+        }
+        return GetMultiRegionEc2Response.builder()
+                .regions(responses)
+                .build();
+    }
+
+    public GetMultiRegionEc2CountsResponse getCounts(List<String> regions, List<String> tagKeys) throws InterruptedException {
+        List<String> requestedRegions = requestedRegions(regions);
+        List<Future<GetEc2CountsResponse>> results = invokeAll(requestedRegions, region -> ec2FleetCounter.count(region, tagKeys));
+
+        List<RegionEc2CountsResponse> responses = new ArrayList<>(requestedRegions.size());
+        for (int i = 0; i < requestedRegions.size(); i++) {
+            responses.add(toRegionCountsResponse(requestedRegions.get(i), results.get(i)));
+        }
+        return GetMultiRegionEc2CountsResponse.builder()
+                .regions(responses)
+                .build();
+    }
+
+    List<String> getEnabledRegions() {
+        EnabledRegions regions = enabledRegions;
+        if (regions == null || System.currentTimeMillis() - regions.loadedAt >= regionsTtlMillis) {
+            regions = loadEnabledRegions(regions);
+        }
+        return regions.names;
+    }
+
+    private synchronized EnabledRegions loadEnabledRegions(EnabledRegions expired) {
+        if (enabledRegions != expired) {
+            return enabledRegions;
+        }
+        try {
+            AmazonEC2 ec2 = ec2ClientProvider.getClient(defaultRegion);
+            List<String> names = ec2CircuitBreaker.execute(defaultRegion, () -> ec2RateLimiter.execute(defaultRegion, ec2::describeRegions))
+                    .getRegions().stream()
+                    .map(Region::getRegionName)
+                    .sorted()
+                    .collect(toList());
+            enabledRegions = new EnabledRegions(names, System.currentTimeMillis());
+        } catch (RuntimeException ex) {
+            if (expired == null) {
+                throw ex;
+            }
+            LOGGER.warn("Describing enabled regions failed, serving the ones loaded before: {}", ex.getMessage());
+        }
+        return enabledRegions;
+    }
+
+    private List<String> requestedRegions(List<String> regions) {
+        return regions == null || regions.isEmpty() ? getEnabledRegions() : regions;
+    }
+
+    private <T> List<Future<T>> invokeAll(List<String> regions, Function<String, T> call) throws InterruptedException {
+        Deadline deadline = Deadline.current();
+        List<Callable<T>> tasks = regions.stream()
+                .map(region -> deadline.bind(() -> call.apply(region)))
+                .collect(toList());
+        return Futures.invokeAll(ec2Executor, tasks, deadline.remainingMillis(timeoutMillis));
+    }
+
+    private static RegionEc2Response toRegionResponse(String region, Future<GetEc2Response> result) throws InterruptedException {
+        RegionEc2Response.RegionEc2ResponseBuilder response = RegionEc2Response.builder().region(region);
+        try {
+            GetEc2Response instances = result.get();
+            return response.instances(instances.getInstances())
+                    .nextToken(instances.getNextToken())
+                    .stale(instances.getStale())
+                    .build();
+        } catch (CancellationException ex) {
+            LOGGER.error("Describe instances for region: {} timed out", region);
+            return response.error(downstreamTimeout()).build();
+        } catch (ExecutionException ex) {
+            LOGGER.error("Describe instances for region: {} failed: {}", region, ex.getCause().getMessage());
+            return response.error(toErrorResponse(ex.getCause())).build();
+        }
+    }
+
+    private static RegionEc2CountsResponse toRegionCountsResponse(String region, Future<GetEc2CountsResponse> result) throws InterruptedException {
+        RegionEc2CountsResponse.RegionEc2CountsResponseBuilder response = RegionEc2CountsResponse.builder().region(region);
+        try {
+            GetEc2CountsResponse counts = result.get();
+            return response.total(counts.getTotal())
+                    .states(counts.getStates())
+                    .types(counts.getTypes())
+                    .availabilityZones(counts.getAvailabilityZones())
+                    .tags(counts.getTags())
+                    .stale(counts.getStale())
+                    .build();
+        } catch (CancellationException ex) {
+            LOGGER.error("Counting instances for region: {} timed out", region);
+            return response.error(downstreamTimeout()).build();
+        } catch (ExecutionException ex) {
+            LOGGER.error("Counting instances for region: {} failed: {}", region, ex.getCause().getMessage());
+            return response.error(toErrorResponse(ex.getCause())).build();
+        }
+    }
+
+    private static class EnabledRegions {
+        private final List<String> names;
+        private final long loadedAt;
+
+        private EnabledRegions(List<String> names, long loadedAt) {
+            this.names = names;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
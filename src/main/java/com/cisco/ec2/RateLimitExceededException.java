@@ -0,0 +1,8 @@
+package com.cisco.ec2;
+
+public class RateLimitExceededException extends RuntimeException {
+
+    public RateLimitExceededException(String region) {
+        super("Rate limit exceeded for region: " + region);
+    }
+}
@@ -0,0 +1,78 @@
+package com.cisco.ec2;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.reactivestreams.Publisher;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.MimeType;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Codecs of the reactive profile: new line delimited json is streamed, CBOR is encoded by an object mapper configured
+ * like the json one (Smile is a default codec). Both are registered as custom codecs, which come before the default
+ * ones, so json stays the first producible type.
+ */
+@Configuration
+@Profile(ReactiveEc2Configuration.REACTIVE_PROFILE)
+public class ReactiveEc2Configuration implements WebFluxConfigurer {
+
+    public static final String REACTIVE_PROFILE = "reactive";
+    private final ObjectMapper objectMapper;
+    private final Jackson2ObjectMapperBuilder objectMapperBuilder;
+
+    public ReactiveEc2Configuration(ObjectMapper objectMapper, Jackson2ObjectMapperBuilder objectMapperBuilder) {
+        this.objectMapper = objectMapper;
+        this.objectMapperBuilder = objectMapperBuilder;
+    }
+
+    /**
+     * Boot prefers tomcat when it is on the classpath, which it is for the servlet mode.
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    @Override
+    public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        MediaType ndjson = MediaType.valueOf(Ec2InventoryExporter.NDJSON);
+        Jackson2JsonEncoder jsonEncoder = new Jackson2JsonEncoder(objectMapper,
+                MediaType.APPLICATION_JSON, new MediaType("application", "*+json"), ndjson);
+        jsonEncoder.setStreamingMediaTypes(Collections.singletonList(ndjson));
+        configurer.customCodecs().register(jsonEncoder);
+        configurer.customCodecs().register(new CborEncoder(objectMapperBuilder.factory(new CBORFactory()).build()));
+    }
+
+    /**
+     * Jackson2CborEncoder (still as of spring 5.3) throws for any publisher, which response bodies are written as, the
+     * single values of the cbor responses are encoded here.
+     */
+    private static class CborEncoder extends Jackson2CborEncoder {
+
+        CborEncoder(ObjectMapper objectMapper) {
+            super(objectMapper, MediaType.APPLICATION_CBOR);
+        }
+
+        @Override
+        public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory, ResolvableType elementType,
+                                       MimeType mimeType, Map<String, Object> hints) {
+            return Mono.from(inputStream).map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints)).flux();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.cisco.ec2;
+
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.cisco.ec2.model.GetEc2Response;
+import com.cisco.ec2.model.RegionEc2Response;
+import io.swagger.annotations.ApiParam;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+import static com.cisco.ec2.Ec2Configuration.SMILE;
+import static com.cisco.ec2.Ec2InstanceMapper.toEc2Instances;
+import static com.cisco.ec2.Ec2InventoryExporter.NDJSON;
+import static com.cisco.ec2.ErrorHandler.toErrorResponse;
+
+/**
+ * The instances and export endpoints of Ec2Controller on WebFlux (reactive profile). No request holds a thread while
+ * ec2 is called, the export fetches the next page only once the client consumed the previous one.
+ */
+@Validated
+@RestController
+@Profile(ReactiveEc2Configuration.REACTIVE_PROFILE)
+public class ReactiveEc2Controller {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveEc2Controller.class);
+    private final Ec2InstanceService ec2InstanceService;
+    private final int pageSize;
+
+    public ReactiveEc2Controller(Ec2InstanceService ec2InstanceService,
+                                 @Value("${ec2.export.page-size:1000}") int pageSize) {
+        this.ec2InstanceService = ec2InstanceService;
+        this.pageSize = pageSize;
+    }
+
+    @GetMapping(value = "aws-api/v1/regions/{region}/ec2", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, SMILE})
+    public Mono<ResponseEntity<GetEc2Response>> getEc2Instances(@PathVariable("region") @NotBlank @Size(max = 20) String region,
+                                                                @ApiParam(value = "max results per page (5-500)", defaultValue = "10")
+                                                                @RequestParam(value = "size", required = false) @Min(5) @Max(500) Integer size,
+                                                                @RequestParam(value = "nextToken", required = false) @Size(max = 1024) String nextToken,
+                                                                @ApiParam(value = "sort results by value", defaultValue = "instanceId",
+                                                                        allowableValues = "name,instanceId,state,type,availabilityZone,privateIp,publicIp")
+                                                                @RequestParam(value = "sort", required = false) @Size(max = 256) String sort,
+                                                                @ApiParam(value = "instance states", allowableValues = "pending,running,shutting-down,terminated,stopping,stopped")
+                                                                @RequestParam(value = "state", required = false) @Size(max = 6) List<@Pattern(regexp = InstanceFilter.STATES) String> states,
+                                                                @ApiParam(value = "instance types")
+                                                                @RequestParam(value = "type", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> types,
+                                                                @ApiParam(value = "availability zones")
+                                                                @RequestParam(value = "availabilityZone", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> availabilityZones,
+                                                                @ApiParam(value = "vpc ids")
+                                                                @RequestParam(value = "vpcId", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> vpcIds,
+                                                                @ApiParam(value = "tags as key=value, or key for any value. Values of a repeated key, like keys alone, match any of them, different keys must all match")
+                                                                @RequestParam(value = "tag", required = false) @Size(max = 20) List<@Pattern(regexp = InstanceFilter.TAG) String> tags,
+                                                                @ApiParam(value = "case insensitive prefix of the instance name")
+                                                                @RequestParam(value = "name", required = false) @Size(max = 256) String name,
+                                                                @ApiParam(value = "instance fields to return, all when not set", allowableValues = "name,instanceId,state,type,availabilityZone,privateIp,publicIp")
+                                                                @RequestParam(value = "fields", required = false) @Size(max = 7) List<@Pattern(regexp = InstanceFields.FIELDS) String> fields) {
+
+        InstanceFilter filter = Ec2Controller.filter(states, types, availabilityZones, vpcIds, tags, name);
+        return Mono.fromFuture(() -> ec2InstanceService.getInstancesAsync(region, size, nextToken, sort, filter, InstanceFields.of(fields)))
+                .map(response -> ResponseEntity.ok()
+                        .eTag(ContentHash.etag(ContentHash.of(response.getInstances()), response.getNextToken(), response.getStale()))
+                        .body(response));
+    }
+
+    /**
+     * The first page is fetched before the response is committed, so its failure is reported with a proper status.
+     * At most two pages are held: the one being written and the next one, which is requested once writing starts.
+     */
+    @GetMapping(value = "aws-api/v1/regions/{region}/ec2/export", produces = NDJSON)
+    public Mono<ResponseEntity<Flux<Object>>> exportEc2Instances(@PathVariable("region") @NotBlank @Size(max = 20) String region,
+                                                                 @ApiParam(value = "instance states", allowableValues = "pending,running,shutting-down,terminated,stopping,stopped")
+                                                                 @RequestParam(value = "state", required = false) @Size(max = 6) List<@Pattern(regexp = InstanceFilter.STATES) String> states,
+                                                                 @ApiParam(value = "instance types")
+                                                                 @RequestParam(value = "type", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> types,
+                                                                 @ApiParam(value = "availability zones")
+                                                                 @RequestParam(value = "availabilityZone", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> availabilityZones,
+                                                                 @ApiParam(value = "vpc ids")
+                                                                 @RequestParam(value = "vpcId", required = false) @Size(max = 20) List<@NotBlank @Size(max = 64) String> vpcIds,
+                                                                 @ApiParam(value = "tags as key=value, or key for any value. Values of a repeated key, like keys alone, match any of them, different keys must all match")
+                                                                 @RequestParam(value = "tag", required = false) @Size(max = 20) List<@Pattern(regexp = InstanceFilter.TAG) String> tags,
+                                                                 @ApiParam(value = "case insensitive prefix of the instance name")
+                                                                 @RequestParam(value = "name", required = false) @Size(max = 256) String name,
+                                                                 @ApiParam(value = "instance fields to return, all when not set", allowableValues = "name,instanceId,state,type,availabilityZone,privateIp,publicIp")
+                                                                 @RequestParam(value = "fields", required = false) @Size(max = 7) List<@Pattern(regexp = InstanceFields.FIELDS) String> fields,
+                                                                 @ApiParam(value = "nextToken of the last line of an export stopped at the deadline, with the same filters")
+                                                                 @RequestParam(value = "nextToken", required = false) @Size(max = 1024) String nextToken) {
+
+        InstanceFilter filter = Ec2Controller.filter(states, types, availabilityZones, vpcIds, tags, name);
+        InstanceFields instanceFields = InstanceFields.of(fields);
+        return describe(region, filter, nextToken).map(firstPage -> ResponseEntity.ok()
+                .contentType(MediaType.valueOf(NDJSON))
+                .body(Mono.just(firstPage)
+                        .expand(page -> page.getNextToken() == null ? Mono.empty() : describe(region, filter, page.getNextToken()))
+                        .flatMapIterable(page -> toEc2Instances(page.getReservations(), null, filter.toPredicate(), instanceFields), 2)
+                        .cast(Object.class)
+                        .onErrorResume(ex -> {
+                            LOGGER.error("Export of region: {} failed: {}", region, ex.getMessage());
+                            return Mono.just(RegionEc2Response.builder().region(region).error(toErrorResponse(ex)).build());
+                        })));
+    }
+
+    private Mono<DescribeInstancesResult> describe(String region, InstanceFilter filter, String nextToken) {
+        return Mono.fromFuture(() -> ec2InstanceService.describeInstancesAsync(region, new DescribeInstancesRequest()
+                .withMaxResults(pageSize)
+                .withNextToken(nextToken)
+                .withFilters(filter.toEc2Filters())));
+    }
+}
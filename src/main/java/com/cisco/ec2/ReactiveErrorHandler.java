@@ -0,0 +1,101 @@
+package com.cisco.ec2;
+
+import com.amazonaws.AmazonServiceException;
+import com.cisco.ec2.model.ErrorResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.server.ServerWebInputException;
+
+import javax.validation.ConstraintViolationException;
+import java.util.concurrent.TimeUnit;
+
+import static com.cisco.ec2.ErrorHandler.badRequest;
+import static com.cisco.ec2.ErrorHandler.downstreamError;
+import static com.cisco.ec2.ErrorHandler.internalError;
+import static com.cisco.ec2.ErrorHandler.serviceUnavailable;
+import static com.cisco.ec2.ErrorHandler.tooManyRequests;
+
+/**
+ * ErrorHandler of the reactive profile, same statuses and bodies.
+ */
+@ControllerAdvice
+@Profile(ReactiveEc2Configuration.REACTIVE_PROFILE)
+public class ReactiveErrorHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveErrorHandler.class);
+    private static final String RETRY_AFTER_SECONDS = "1";
+    private final MeterRegistry meterRegistry;
+
+    public ReactiveErrorHandler(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @ExceptionHandler(Exception.class)
+    ResponseEntity<ErrorResponse> globalExceptionHandler(Exception ex) {
+        LOGGER.error(ex.getMessage());
+        count("unhandled");
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(internalError());
+    }
+
+    @ExceptionHandler(AmazonServiceException.class)
+    ResponseEntity<ErrorResponse> amazonServiceExceptionHandler(AmazonServiceException ex) {
+        LOGGER.error(ex.getMessage());
+        count("downstream");
+        ErrorResponse error = downstreamError(ex);
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(error.getStatus());
+        if (error.getStatus() == HttpStatus.TOO_MANY_REQUESTS.value()) {
+            response.header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+        }
+        return response.body(error);
+    }
+
+    @ExceptionHandler(RateLimitExceededException.class)
+    ResponseEntity<ErrorResponse> rateLimitExceededExceptionHandler(RateLimitExceededException ex) {
+        LOGGER.error(ex.getMessage());
+        count("rate_limited");
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body(tooManyRequests(ex.getMessage()));
+    }
+
+    @ExceptionHandler(CircuitOpenException.class)
+    ResponseEntity<ErrorResponse> circuitOpenExceptionHandler(CircuitOpenException ex) {
+        LOGGER.error(ex.getMessage());
+        count("circuit_open");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(ex.getRetryAfterMillis()))))
+                .body(serviceUnavailable(ex.getMessage()));
+    }
+
+    @ExceptionHandler(ConstraintViolationException.class)
+    ResponseEntity<ErrorResponse> requestParamsExceptionHandler(ConstraintViolationException ex) {
+        LOGGER.error(ex.getMessage());
+        count("constraint_violation");
+        return ResponseEntity.badRequest().body(badRequest(ex.getMessage()));
+    }
+
+    @ExceptionHandler(ServerWebInputException.class)
+    ResponseEntity<ErrorResponse> serverWebInputExceptionHandler(ServerWebInputException ex) {
+        LOGGER.error(ex.getMessage());
+        count("invalid_input");
+        return ResponseEntity.badRequest().body(badRequest(ex.getReason()));
+    }
+
+    @ExceptionHandler(InvalidRegionException.class)
+    ResponseEntity<ErrorResponse> invalidRegionExceptionHandler(InvalidRegionException ex) {
+        LOGGER.error(ex.getMessage());
+        count("invalid_region");
+        return ResponseEntity.badRequest().body(badRequest(ex.getMessage()));
+    }
+
+    private void count(String type) {
+        meterRegistry.counter("api.errors", "type", type).increment();
+    }
+}
@@ -0,0 +1,100 @@
+package com.cisco.ec2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circuit breaker of a region. The circuit opens after the configured number of consecutive failures and rejects
+ * calls while open. Once the open interval passed a single probe call is let through (half open): its success closes
+ * the circuit, its failure opens it again.
+ */
+class RegionCircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RegionCircuitBreaker.class);
+    private final String region;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final Map<State, LongAdder> transitions = new EnumMap<>(State.class);
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    RegionCircuitBreaker(String region, int failureThreshold, long openMillis) {
+        this.region = region;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        for (State value : State.values()) {
+            transitions.put(value, new LongAdder());
+        }
+    }
+
+    /**
+     * Lets the call through or throws CircuitOpenException, the first call after the open interval is the probe.
+     */
+    synchronized void acquire() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        long openFor = System.nanoTime() - openedAt;
+        if (state == State.OPEN && openFor >= openNanos) {
+            transition(State.HALF_OPEN);
+            return;
+        }
+        throw new CircuitOpenException(region, Math.max(0, TimeUnit.NANOSECONDS.toMillis(openNanos - openFor)));
+    }
+
+    /**
+     * Closes the circuit if the call was the probe. A call let through before the circuit opened may still complete
+     * while open, its success is ignored.
+     */
+    synchronized void onSuccess() {
+        if (state == State.OPEN) {
+            return;
+        }
+        failures = 0;
+        if (state == State.HALF_OPEN) {
+            transition(State.CLOSED);
+        }
+    }
+
+    synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            openedAt = System.nanoTime();
+            transition(State.OPEN);
+        }
+    }
+
+    /**
+     * Call ended without telling anything about the region (e.g. aborted), a probe is released for the next caller.
+     */
+    synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            openedAt = System.nanoTime() - openNanos;
+            transition(State.OPEN);
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    long getTransitions(State to) {
+        return transitions.get(to).sum();
+    }
+
+    private void transition(State to) {
+        LOGGER.warn("Circuit of region: {} changed from {} to {}", region, state, to);
+        state = to;
+        transitions.get(to).increment();
+    }
+}
@@ -0,0 +1,456 @@
+package com.cisco.ec2;
+
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.cisco.ec2.model.Ec2Instance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import static com.cisco.ec2.Ec2InstanceMapper.toEc2Instances;
+
+/**
+ * In memory cache of region inventory snapshots. A snapshot older than the refresh threshold is reloaded in the
+ * background while the current one is still served, only a missing or expired snapshot is loaded by the caller.
+ * If loading fails the expired snapshot is served, up to the max stale age. Least recently used regions are dropped
+ * once the cache holds too many regions or instances.
+ * <p>
+ * Instance state changes patch the cached snapshot instead of reloading the region, see applyStateChange. Every load
+ * and every patch is a new snapshot with a new version, readers keep the one they got and page through a version
+ * consistently. Replaced versions stay readable for version-retention-ms (up to max-versions per region, they count
+ * towards max-instances). Reloads then only correct drift (changed addresses, missed events), refresh-after-ms and
+ * ttl-ms can be raised accordingly.
+ */
+@Component
+public class RegionInventoryCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RegionInventoryCache.class);
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+    private final List<BiConsumer<RegionInventorySnapshot, RegionInventorySnapshot>> listeners = new CopyOnWriteArrayList<>();
+    private final Ec2InstanceService ec2InstanceService;
+    private final ExecutorService ec2Executor;
+    private final long ttlMillis;
+    private final long refreshAfterMillis;
+    private final long maxStaleMillis;
+    private final int maxRegions;
+    private final long maxInstances;
+    private final long versionRetentionMillis;
+    private final int maxVersions;
+    private final int pageSize;
+
+    public RegionInventoryCache(Ec2InstanceService ec2InstanceService,
+                                ExecutorService ec2Executor,
+                                @Value("${ec2.cache.ttl-ms:60000}") long ttlMillis,
+                                @Value("${ec2.cache.refresh-after-ms:45000}") long refreshAfterMillis,
+                                @Value("${ec2.cache.max-stale-ms:3600000}") long maxStaleMillis,
+                                @Value("${ec2.cache.max-regions:32}") int maxRegions,
+                                @Value("${ec2.cache.max-instances:500000}") long maxInstances,
+                                @Value("${ec2.cache.version-retention-ms:60000}") long versionRetentionMillis,
+                                @Value("${ec2.cache.max-versions:16}") int maxVersions,
+                                @Value("${ec2.export.page-size:1000}") int pageSize) {
+        this.ec2InstanceService = ec2InstanceService;
+        this.ec2Executor = ec2Executor;
+        this.ttlMillis = ttlMillis;
+        this.refreshAfterMillis = refreshAfterMillis;
+        this.maxStaleMillis = maxStaleMillis;
+        this.maxRegions = maxRegions;
+        this.maxInstances = maxInstances;
+        this.versionRetentionMillis = versionRetentionMillis;
+        this.maxVersions = maxVersions;
+        this.pageSize = pageSize;
+    }
+
+    public RegionInventorySnapshot get(String region) {
+        long start = System.nanoTime();
+        Entry entry = entries.computeIfAbsent(region, Entry::new);
+        entry.lastAccess = System.currentTimeMillis();
+        RegionInventorySnapshot snapshot = entry.snapshot;
+        expireVersions(entry);
+        if (snapshot == null || snapshot.getAgeMillis() >= ttlMillis) {
+            RegionInventorySnapshot loaded = loadOrStale(entry, snapshot);
+            ServerTiming.recordCache(loaded == snapshot ? "stale" : "miss", start);
+            return loaded;
+        }
+        if (snapshot.getAgeMillis() >= refreshAfterMillis) {
+            refresh(entry);
+        }
+        ServerTiming.recordCache("hit", start);
+        return snapshot;
+    }
+
+    /**
+     * Returns the snapshot with the given version, the current snapshot of the region or one replaced less than
+     * version-retention-ms ago, so that clients paging through a snapshot aren't interrupted by refreshes and patches.
+     */
+    public RegionInventorySnapshot get(String region, long version) {
+        long start = System.nanoTime();
+        Entry entry = entries.get(region);
+        if (entry != null) {
+            entry.lastAccess = System.currentTimeMillis();
+            RegionInventorySnapshot current = entry.snapshot;
+            if (current != null && current.getVersion() == version) {
+                ServerTiming.recordCache("hit", start);
+                return current;
+            }
+            long now = System.currentTimeMillis();
+            for (Replaced replaced : entry.replaced) {
+                if (replaced.snapshot.getVersion() == version && isRetained(replaced, now)) {
+                    ServerTiming.recordCache("hit", start);
+                    return replaced.snapshot;
+                }
+            }
+        }
+        throw new ExpiredCursorException();
+    }
+
+    /**
+     * Patches the cached snapshot of the region with the state change of an instance, the patched snapshot replaces
+     * it under a new version and the replaced one stays readable by version, like after a refresh. Instances not in
+     * the snapshot, launched after it was loaded, are described. Only the state of instances in the snapshot changes,
+     * their addresses are corrected by the next load. Returns false when the change is ignored: the region has no
+     * snapshot, the instance doesn't exist (yet), the change is older than the load of the snapshot or than the last
+     * change applied to the instance. Changes received while the region is loaded are applied to the loaded snapshot
+     * too, the describe calls may have been answered before the change.
+     */
+    public boolean applyStateChange(String region, String instanceId, String state, long changedAt) {
+        Entry entry = entries.get(region);
+        RegionInventorySnapshot snapshot = entry == null ? null : entry.snapshot;
+        if (snapshot == null) {
+            return false;
+        }
+        Ec2Instance instance = snapshot.find(instanceId);
+        if (instance == null && (instance = describeInstance(region, instanceId)) == null) {
+            LOGGER.info("Ignoring state change of unknown instance: {} in region: {}", instanceId, region);
+            return false;
+        }
+        synchronized (entry) {
+            RegionInventorySnapshot current = entry.snapshot;
+            StateChange last = entry.changes.get(instanceId);
+            // event times are to the second, changes in the second the load started are applied
+            if (changedAt < current.getLoadedAt() / 1000 * 1000 || (last != null && changedAt < last.changedAt)) {
+                return false;
+            }
+            Ec2Instance cached = current.find(instanceId);
+            Ec2Instance patched = withState(cached == null ? instance : cached, state);
+            entry.changes.put(instanceId, new StateChange(patched, changedAt, System.currentTimeMillis()));
+            replace(entry, current.patch(Collections.singletonList(patched), versions.incrementAndGet()));
+        }
+        return true;
+    }
+
+    /**
+     * Adds a listener called with the replaced (null for the first load of a region) and the new snapshot whenever a
+     * region is loaded or patched. Calls of a region are made in version order, while the region is locked, listeners
+     * mustn't block.
+     */
+    public void addListener(BiConsumer<RegionInventorySnapshot, RegionInventorySnapshot> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Loads a fresh snapshot of the region, bypassing the cached one.
+     */
+    public RegionInventorySnapshot reload(String region) {
+        long start = System.nanoTime();
+        Entry entry = entries.computeIfAbsent(region, Entry::new);
+        entry.lastAccess = System.currentTimeMillis();
+        RegionInventorySnapshot snapshot = load(entry);
+        ServerTiming.recordCache("miss", start);
+        return snapshot;
+    }
+
+    /**
+     * Returns the current snapshot of the region, if one is loaded and not older than the max stale age, without
+     * loading or refreshing it.
+     */
+    public RegionInventorySnapshot getIfPresent(String region) {
+        long start = System.nanoTime();
+        Entry entry = entries.get(region);
+        RegionInventorySnapshot snapshot = entry == null ? null : entry.snapshot;
+        if (snapshot == null || snapshot.getAgeMillis() >= ttlMillis + maxStaleMillis) {
+            return null;
+        }
+        entry.lastAccess = System.currentTimeMillis();
+        ServerTiming.recordCache(isStale(snapshot) ? "stale" : "hit", start);
+        return snapshot;
+    }
+
+    /**
+     * Tells whether the snapshot is served past its ttl, because loading a fresh one failed.
+     */
+    public boolean isStale(RegionInventorySnapshot snapshot) {
+        return snapshot.getAgeMillis() >= ttlMillis;
+    }
+
+    private RegionInventorySnapshot loadOrStale(Entry entry, RegionInventorySnapshot expired) {
+        try {
+            return load(entry);
+        } catch (RuntimeException ex) {
+            if (expired == null || expired.getAgeMillis() >= ttlMillis + maxStaleMillis) {
+                throw ex;
+            }
+            LOGGER.warn("Serving stale inventory of region: {}", entry.region);
+            return expired;
+        }
+    }
+
+    private RegionInventorySnapshot load(Entry entry) {
+        CompletableFuture<RegionInventorySnapshot> loading = new CompletableFuture<>();
+        CompletableFuture<RegionInventorySnapshot> current = entry.startLoading(loading);
+        if (current == loading) {
+            runLoad(entry, loading);
+        }
+        try {
+            return current.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    private void refresh(Entry entry) {
+        CompletableFuture<RegionInventorySnapshot> loading = new CompletableFuture<>();
+        if (entry.startLoading(loading) != loading) {
+            return;
+        }
+        try {
+            ec2Executor.execute(() -> runLoad(entry, loading));
+        } catch (RejectedExecutionException ex) {
+            LOGGER.warn("Couldn't schedule refresh of region: {}", entry.region);
+            entry.loaded(loading);
+        }
+    }
+
+    private void runLoad(Entry entry, CompletableFuture<RegionInventorySnapshot> loading) {
+        try {
+            RegionInventorySnapshot snapshot = loadSnapshot(entry.region);
+            synchronized (entry) {
+                snapshot = replayChanges(entry, snapshot);
+                replace(entry, snapshot);
+            }
+            entry.loaded(loading);
+            loading.complete(snapshot);
+            evictIfFull();
+        } catch (RuntimeException ex) {
+            LOGGER.error("Loading inventory of region: {} failed: {}", entry.region, ex.getMessage());
+            entry.loaded(loading);
+            if (entry.snapshot == null) {
+                // only regions loaded once are kept, unknown or failing regions would pile up
+                entries.remove(entry.region, entry);
+            }
+            loading.completeExceptionally(ex);
+        }
+    }
+
+    private RegionInventorySnapshot loadSnapshot(String region) {
+        long start = System.currentTimeMillis();
+        List<Ec2Instance> instances = new ArrayList<>();
+        String nextToken = null;
+        do {
+            DescribeInstancesResult page = ec2InstanceService.describeInstances(region, new DescribeInstancesRequest()
+                    .withMaxResults(pageSize)
+                    .withNextToken(nextToken));
+            instances.addAll(toEc2Instances(page.getReservations()));
+            nextToken = page.getNextToken();
+        } while (nextToken != null);
+        instances.sort(Comparator.comparing(Ec2Instance::getInstanceId));
+        LOGGER.info("Loaded {} instances of region: {} in {} ms", instances.size(), region, System.currentTimeMillis() - start);
+        return new RegionInventorySnapshot(region, instances, versions.incrementAndGet(), start);
+    }
+
+    private void replace(Entry entry, RegionInventorySnapshot snapshot) {
+        RegionInventorySnapshot replaced = entry.snapshot;
+        if (replaced != null) {
+            entry.replaced = retainedVersions(entry, new Replaced(replaced, System.currentTimeMillis()));
+        }
+        entry.snapshot = snapshot;
+        for (BiConsumer<RegionInventorySnapshot, RegionInventorySnapshot> listener : listeners) {
+            try {
+                listener.accept(replaced, snapshot);
+            } catch (RuntimeException ex) {
+                LOGGER.error("Snapshot listener failed for region: {}", entry.region, ex);
+            }
+        }
+    }
+
+    /**
+     * Replaced versions of the entry still retained, newest first, with the given one added. Called under the entry
+     * lock, readers iterate the list without it, so it is copied rather than changed.
+     */
+    private List<Replaced> retainedVersions(Entry entry, Replaced added) {
+        long now = System.currentTimeMillis();
+        List<Replaced> retained = new ArrayList<>();
+        if (added != null) {
+            retained.add(added);
+        }
+        for (Replaced replaced : entry.replaced) {
+            if (isRetained(replaced, now)) {
+                retained.add(replaced);
+            }
+        }
+        return retained.size() > maxVersions ? new ArrayList<>(retained.subList(0, maxVersions)) : retained;
+    }
+
+    /**
+     * Drops versions replaced longer ago than the retention of a region which isn't patched or loaded any more.
+     */
+    private void expireVersions(Entry entry) {
+        List<Replaced> replaced = entry.replaced;
+        if (!replaced.isEmpty() && !isRetained(replaced.get(replaced.size() - 1), System.currentTimeMillis())) {
+            synchronized (entry) {
+                entry.replaced = retainedVersions(entry, null);
+            }
+        }
+    }
+
+    private boolean isRetained(Replaced replaced, long now) {
+        return now - replaced.replacedAt < versionRetentionMillis;
+    }
+
+    /**
+     * Applies the state changes received since the load started to the loaded snapshot, forgets the older ones.
+     */
+    private RegionInventorySnapshot replayChanges(Entry entry, RegionInventorySnapshot loaded) {
+        List<Ec2Instance> replayed = new ArrayList<>();
+        Iterator<StateChange> changes = entry.changes.values().iterator();
+        while (changes.hasNext()) {
+            StateChange change = changes.next();
+            if (change.receivedAt < loaded.getLoadedAt()) {
+                changes.remove();
+                continue;
+            }
+            Ec2Instance instance = loaded.find(change.instance.getInstanceId());
+            replayed.add(instance == null ? change.instance : withState(instance, change.instance.getState()));
+        }
+        return replayed.isEmpty() ? loaded : loaded.patch(replayed, versions.incrementAndGet());
+    }
+
+    private Ec2Instance describeInstance(String region, String instanceId) {
+        DescribeInstancesResult result = ec2InstanceService.describeInstances(region, new DescribeInstancesRequest()
+                .withFilters(new Filter("instance-id", Collections.singletonList(instanceId))));
+        return toEc2Instances(result.getReservations()).stream()
+                .filter(instance -> instanceId.equals(instance.getInstanceId()))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static Ec2Instance withState(Ec2Instance instance, String state) {
+        return Ec2Instance.builder()
+                .name(instance.getName())
+                .instanceId(instance.getInstanceId())
+                .state(state)
+                .type(instance.getType())
+                .availabilityZone(instance.getAvailabilityZone())
+                .privateIp(instance.getPrivateIp())
+                .publicIp(instance.getPublicIp())
+                .build();
+    }
+
+    private void evictIfFull() {
+        long loaded;
+        while ((loaded = loadedRegions()) > maxRegions || cachedInstances() > maxInstances) {
+            String leastRecentlyUsed = entries.values().stream()
+                    .filter(entry -> entry.snapshot != null)
+                    .min(Comparator.comparingLong(entry -> entry.lastAccess))
+                    .map(entry -> entry.region)
+                    .orElse(null);
+            if (leastRecentlyUsed == null || loaded == 1) {
+                return;
+            }
+            LOGGER.info("Evicting inventory of region: {}", leastRecentlyUsed);
+            entries.remove(leastRecentlyUsed);
+        }
+    }
+
+    private long loadedRegions() {
+        return entries.values().stream()
+                .filter(entry -> entry.snapshot != null)
+                .count();
+    }
+
+    private long cachedInstances() {
+        return entries.values().stream()
+                .mapToLong(entry -> size(entry.snapshot) + entry.replaced.stream().mapToLong(replaced -> size(replaced.snapshot)).sum())
+                .sum();
+    }
+
+    private static long size(RegionInventorySnapshot snapshot) {
+        return snapshot == null ? 0 : snapshot.getInstances().size();
+    }
+
+    int getRegionCount() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        private final String region;
+        private volatile RegionInventorySnapshot snapshot;
+        // versions replaced within the retention, newest first, written under the entry lock
+        private volatile List<Replaced> replaced = Collections.emptyList();
+        private volatile long lastAccess;
+        private CompletableFuture<RegionInventorySnapshot> loading;
+        // last state change applied per instance id, guarded by the entry
+        private final Map<String, StateChange> changes = new HashMap<>();
+
+        private Entry(String region) {
+            this.region = region;
+        }
+
+        private synchronized CompletableFuture<RegionInventorySnapshot> startLoading(CompletableFuture<RegionInventorySnapshot> load) {
+            if (loading == null) {
+                loading = load;
+            }
+            return loading;
+        }
+
+        private synchronized void loaded(CompletableFuture<RegionInventorySnapshot> load) {
+            if (loading == load) {
+                loading = null;
+            }
+        }
+    }
+
+    private static class Replaced {
+        private final RegionInventorySnapshot snapshot;
+        private final long replacedAt;
+
+        private Replaced(RegionInventorySnapshot snapshot, long replacedAt) {
+            this.snapshot = snapshot;
+            this.replacedAt = replacedAt;
+        }
+    }
+
+    private static class StateChange {
+        private final Ec2Instance instance;
+        private final long changedAt;
+        private final long receivedAt;
+
+        private StateChange(Ec2Instance instance, long changedAt, long receivedAt) {
+            this.instance = instance;
+            this.changedAt = changedAt;
+            this.receivedAt = receivedAt;
+        }
+    }
+}
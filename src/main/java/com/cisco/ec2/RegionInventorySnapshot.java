@@ -0,0 +1,164 @@
+package com.cisco.ec2;
+
+import com.cisco.ec2.model.Ec2Instance;
+import com.cisco.ec2.model.GetEc2Response;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.cisco.ec2.Ec2InstanceMapper.DEFAULT_SORT_KEY;
+import static com.cisco.ec2.Ec2InstanceMapper.sort;
+import static com.cisco.ec2.Ec2InstanceMapper.sortKey;
+
+/**
+ * All mapped instances of a region at the time they were loaded, possibly patched with state changes since. Instances
+ * are sorted by instance id, other orders are sorted once per snapshot when first requested. The content hash, which
+ * ETags of the responses served from the snapshot derive from, and the fleet counts are computed once when the
+ * snapshot is created. Snapshots are immutable, a patch is a copy under a new version.
+ */
+public class RegionInventorySnapshot {
+
+    private final String region;
+    private final List<Ec2Instance> instances;
+    private final long version;
+    private final long loadedAt;
+    private final long contentHash;
+    private final FleetCounts counts;
+    private final ConcurrentMap<String, List<Ec2Instance>> sorted = new ConcurrentHashMap<>();
+
+    RegionInventorySnapshot(String region, List<Ec2Instance> instances, long version, long loadedAt) {
+        this(region, instances, version, loadedAt, new FleetCounts());
+        for (int i = 0; i < instances.size(); i++) {
+            counts.add(instances.get(i));
+        }
+    }
+
+    private RegionInventorySnapshot(String region, List<Ec2Instance> instances, long version, long loadedAt, FleetCounts counts) {
+        this.region = region;
+        this.instances = Collections.unmodifiableList(instances);
+        this.version = version;
+        this.loadedAt = loadedAt;
+        this.contentHash = ContentHash.of(this.instances);
+        this.counts = counts;
+        this.sorted.put(DEFAULT_SORT_KEY, this.instances);
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public List<Ec2Instance> getInstances() {
+        return instances;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    FleetCounts getCounts() {
+        return counts;
+    }
+
+    public long getAgeMillis() {
+        return System.currentTimeMillis() - loadedAt;
+    }
+
+    /**
+     * The instance with the given id, null when not in the snapshot.
+     */
+    Ec2Instance find(String instanceId) {
+        int index = indexOf(instances, instanceId);
+        return index < 0 ? null : instances.get(index);
+    }
+
+    /**
+     * Copy of the snapshot with the given instances replaced, or added when not in it, under the given version. The
+     * load time is kept, the age of a patched snapshot is the one of its last full load.
+     */
+    RegionInventorySnapshot patch(List<Ec2Instance> changed, long version) {
+        List<Ec2Instance> patched = new ArrayList<>(instances.size() + changed.size());
+        patched.addAll(instances);
+        FleetCounts patchedCounts = counts.copy();
+        for (int i = 0; i < changed.size(); i++) {
+            Ec2Instance instance = changed.get(i);
+            int index = indexOf(patched, instance.getInstanceId());
+            if (index >= 0) {
+                patchedCounts.remove(patched.set(index, instance));
+            } else {
+                patched.add(-index - 1, instance);
+            }
+            patchedCounts.add(instance);
+        }
+        return new RegionInventorySnapshot(region, patched, version, loadedAt, patchedCounts);
+    }
+
+    public List<Ec2Instance> sortedBy(String sortBy) {
+        return sorted.computeIfAbsent(sortKey(sortBy), key -> Collections.unmodifiableList(sort(instances, key)));
+    }
+
+    public SnapshotCursor firstPage(String sortBy, int size) {
+        return new SnapshotCursor(version, sortKey(sortBy), 0, size);
+    }
+
+    public GetEc2Response page(SnapshotCursor cursor) {
+        return page(cursor, InstanceFields.ALL);
+    }
+
+    /**
+     * Page at the cursor, with the requested fields of the instances only.
+     */
+    public GetEc2Response page(SnapshotCursor cursor, InstanceFields fields) {
+        List<Ec2Instance> sortedInstances = sortedBy(cursor.getSortKey());
+        int from = Math.min(cursor.getOffset(), sortedInstances.size());
+        int to = from + Math.min(cursor.getSize(), sortedInstances.size() - from);
+        return GetEc2Response.builder()
+                .instances(fields.project(sortedInstances.subList(from, to)))
+                .nextToken(to < sortedInstances.size() ? cursor.next().encode() : null)
+                .build();
+    }
+
+    /**
+     * ETag of all instances sorted by the given key.
+     */
+    public String etag(String sortBy, InstanceFields fields, GetEc2Response response) {
+        return ContentHash.etag(contentHash, sortKey(sortBy), fields, response.getStale());
+    }
+
+    /**
+     * ETag of the page at the cursor.
+     */
+    public String etag(SnapshotCursor cursor, InstanceFields fields, GetEc2Response response) {
+        return ContentHash.etag(contentHash, cursor.getSortKey(), cursor.getOffset(), cursor.getSize(), fields, response.getNextToken(), response.getStale());
+    }
+
+    /**
+     * Binary search of the instance id in instances sorted by id, see Collections.binarySearch for the result.
+     */
+    private static int indexOf(List<Ec2Instance> instances, String instanceId) {
+        int low = 0;
+        int high = instances.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int compared = instances.get(middle).getInstanceId().compareTo(instanceId);
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+}
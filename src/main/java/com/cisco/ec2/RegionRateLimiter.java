@@ -0,0 +1,124 @@
+package com.cisco.ec2;
+
+import com.amazonaws.AbortedException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Token bucket of a region with an AIMD rate: the rate grows additively with every successful call and is cut by a
+ * factor on every throttled one, never leaving the [min, max] range. The bucket holds up to one second of permits.
+ * Callers reserve permits ahead and wait for them, a caller whose permit would come after its deadline is rejected.
+ */
+class RegionRateLimiter {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private final String region;
+    private final double minRate;
+    private final double maxRate;
+    private final double increase;
+    private final double decreaseFactor;
+    private final AtomicInteger queued = new AtomicInteger();
+    private double rate;
+    private double permits;
+    private long refilledAt;
+    private long throttledSince;
+    private long throttledNanos;
+
+    RegionRateLimiter(String region, double minRate, double maxRate, double increase, double decreaseFactor) {
+        this.region = region;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.increase = increase;
+        this.decreaseFactor = decreaseFactor;
+        this.rate = maxRate;
+        this.permits = capacity();
+        this.refilledAt = System.nanoTime();
+    }
+
+    void acquire(long deadlineNanos) {
+        long waitNanos = reserve(deadlineNanos);
+        if (waitNanos == 0) {
+            return;
+        }
+        queued.incrementAndGet();
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException(e);
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    /**
+     * Takes a permit without waiting for it, the caller schedules its call after the returned number of nanos and
+     * counts itself as queued meanwhile (see queued()).
+     */
+    long reserve(long deadlineNanos) {
+        long waitNanos = reserve(System.nanoTime(), deadlineNanos);
+        if (waitNanos < 0) {
+            throw new RateLimitExceededException(region);
+        }
+        return waitNanos;
+    }
+
+    AtomicInteger queued() {
+        return queued;
+    }
+
+    synchronized void onSuccess() {
+        rate = Math.min(maxRate, rate + increase);
+        if (throttledSince != 0) {
+            throttledNanos += System.nanoTime() - throttledSince;
+            throttledSince = 0;
+        }
+    }
+
+    synchronized void onThrottled() {
+        rate = Math.max(minRate, rate * decreaseFactor);
+        permits = Math.min(permits, capacity());
+        if (throttledSince == 0) {
+            throttledSince = System.nanoTime();
+        }
+    }
+
+    synchronized double getRate() {
+        return rate;
+    }
+
+    int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Time spent throttled, i.e. from a throttled call to the next successful one.
+     */
+    synchronized long getThrottledMillis() {
+        long ongoing = throttledSince == 0 ? 0 : System.nanoTime() - throttledSince;
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos + ongoing);
+    }
+
+    /**
+     * Takes a permit, possibly one not refilled yet, and returns how long to wait for it, -1 if past the deadline.
+     */
+    private synchronized long reserve(long now, long deadlineNanos) {
+        permits = Math.min(capacity(), permits + (now - refilledAt) * rate / NANOS_PER_SECOND);
+        refilledAt = now;
+        if (permits >= 1) {
+            permits -= 1;
+            return 0;
+        }
+        long waitNanos = Math.max(1, (long) ((1 - permits) * NANOS_PER_SECOND / rate));
+        if (now + waitNanos - deadlineNanos > 0) {
+            return -1;
+        }
+        permits -= 1;
+        return waitNanos;
+    }
+
+    private double capacity() {
+        return Math.max(1, rate);
+    }
+}
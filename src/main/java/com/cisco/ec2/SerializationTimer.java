@@ -0,0 +1,124 @@
+package com.cisco.ec2;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the serialization time of the responses per response type and format. When the request is timed
+ * (ServerTimingFilter) the response is serialized into a buffer first, so that the Server-Timing header, including
+ * serialization, and the content length, which the compression threshold needs, are set before the body is sent.
+ * The buffer is bounded, 64KB by default, larger responses are sent as they are serialized once they outgrow it
+ * instead of being held twice in memory, their header is set by ServerTimingFilter and has no ser stage.
+ */
+class SerializationTimer {
+
+    static final int BUFFER_LIMIT = 64 * 1024;
+
+    interface Body {
+        void writeTo(HttpOutputMessage outputMessage) throws IOException;
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final String format;
+    private final int bufferLimit;
+
+    SerializationTimer(MeterRegistry meterRegistry, String format) {
+        this(meterRegistry, format, BUFFER_LIMIT);
+    }
+
+    SerializationTimer(MeterRegistry meterRegistry, String format, int bufferLimit) {
+        this.meterRegistry = meterRegistry;
+        this.format = format;
+        this.bufferLimit = bufferLimit;
+    }
+
+    void write(Object object, HttpOutputMessage outputMessage, Body body) throws IOException {
+        ServerTiming timing = ServerTiming.current();
+        BufferedOutputMessage buffered = timing == null ? null : new BufferedOutputMessage(outputMessage, bufferLimit);
+        long start = System.nanoTime();
+        try {
+            body.writeTo(buffered == null ? outputMessage : buffered);
+        } finally {
+            long duration = System.nanoTime() - start;
+            if (timing != null) {
+                timing.add(ServerTiming.Stage.SERIALIZATION, duration);
+            }
+            meterRegistry.timer("http.response.serialization", "type", object.getClass().getSimpleName(), "format", format)
+                    .record(duration, TimeUnit.NANOSECONDS);
+        }
+        if (buffered != null && !buffered.body.spilled) {
+            outputMessage.getHeaders().set(ServerTiming.HEADER, timing.toHeaderValue());
+            outputMessage.getHeaders().setContentLength(buffered.body.buffer.size());
+            buffered.body.buffer.writeTo(outputMessage.getBody());
+        }
+    }
+
+    private static class BufferedOutputMessage implements HttpOutputMessage {
+        private final HttpOutputMessage target;
+        private final SpillingOutputStream body;
+
+        private BufferedOutputMessage(HttpOutputMessage target, int limit) {
+            this.target = target;
+            this.body = new SpillingOutputStream(target, limit);
+        }
+
+        @Override
+        public OutputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return target.getHeaders();
+        }
+    }
+
+    /**
+     * Buffers up to the limit, then writes the buffer and everything after it to the body of the response.
+     */
+    private static class SpillingOutputStream extends OutputStream {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+        private final HttpOutputMessage target;
+        private final int limit;
+        private OutputStream body;
+        private boolean spilled;
+
+        private SpillingOutputStream(HttpOutputMessage target, int limit) {
+            this.target = target;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (!spilled && buffer.size() + length > limit) {
+                spilled = true;
+                body = target.getBody();
+                buffer.writeTo(body);
+                buffer.reset();
+            }
+            if (spilled) {
+                body.write(bytes, offset, length);
+            } else {
+                buffer.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (spilled) {
+                body.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.cisco.ec2;
+
+/**
+ * Per request stopwatch, reported in the Server-Timing response header. It is bound to the request thread by
+ * ServerTimingFilter, stages timed on other threads (multi region fan out, background refresh) aren't reported and
+ * recording is a no-op when timing is off. Durations of a stage recorded more than once (snapshot load of several
+ * pages) are added up.
+ */
+final class ServerTiming {
+
+    static final String HEADER = "Server-Timing";
+    private static final ThreadLocal<ServerTiming> CURRENT = new ThreadLocal<>();
+
+    enum Stage {
+        CLIENT("client"),
+        DESCRIBE("describe"),
+        MAP("map"),
+        SORT("sort"),
+        CACHE("cache"),
+        SERIALIZATION("ser");
+
+        private final String metricName;
+
+        Stage(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private final long start;
+    private final long[] durations = new long[STAGES.length];
+    private final boolean[] recorded = new boolean[STAGES.length];
+    private String cache;
+
+    private ServerTiming(long start) {
+        this.start = start;
+    }
+
+    static ServerTiming start() {
+        ServerTiming timing = new ServerTiming(System.nanoTime());
+        CURRENT.set(timing);
+        return timing;
+    }
+
+    static void stop() {
+        CURRENT.remove();
+    }
+
+    static ServerTiming current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Records the stage as lasting from the given System.nanoTime() until now.
+     */
+    static void record(Stage stage, long startNanos) {
+        ServerTiming timing = CURRENT.get();
+        if (timing != null) {
+            timing.add(stage, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Records the cache lookup outcome (hit, miss or stale) and its duration.
+     */
+    static void recordCache(String outcome, long startNanos) {
+        ServerTiming timing = CURRENT.get();
+        if (timing != null) {
+            timing.cache = outcome;
+            timing.add(Stage.CACHE, System.nanoTime() - startNanos);
+        }
+    }
+
+    void add(Stage stage, long nanos) {
+        durations[stage.ordinal()] += nanos;
+        recorded[stage.ordinal()] = true;
+    }
+
+    long getDuration(Stage stage) {
+        return durations[stage.ordinal()];
+    }
+
+    /**
+     * Header value with the recorded stages and the total time so far, in milliseconds, e.g.
+     * {@code describe;dur=120.417, map;dur=0.912, cache;desc=miss;dur=121.5, ser;dur=0.3, total;dur=123.071}.
+     */
+    String toHeaderValue() {
+        long total = System.nanoTime() - start;
+        StringBuilder value = new StringBuilder(128);
+        for (Stage stage : STAGES) {
+            if (recorded[stage.ordinal()]) {
+                value.append(stage.metricName);
+                if (stage == Stage.CACHE && cache != null) {
+                    value.append(";desc=").append(cache);
+                }
+                appendDuration(value, durations[stage.ordinal()]).append(", ");
+            }
+        }
+        return appendDuration(value.append("total"), total).toString();
+    }
+
+    private static StringBuilder appendDuration(StringBuilder value, long nanos) {
+        long micros = nanos / 1000;
+        char[] fraction = {'0', '0', '0'};
+        long remainder = micros % 1000;
+        for (int i = 2; i >= 0; i--, remainder /= 10) {
+            fraction[i] = (char) ('0' + remainder % 10);
+        }
+        return value.append(";dur=").append(micros / 1000).append('.').append(fraction);
+    }
+}
@@ -0,0 +1,88 @@
+package com.cisco.ec2;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Starts the ServerTiming stopwatch of the ec2 endpoints. Responses serialized by the converters get the header from
+ * SerializationTimer, including serialization. Other responses get it from the filter as their body starts (streamed
+ * exports and watch streams report the time until then) or, without a body like 304, once the request is handled.
+ * Off with ec2.server-timing.enabled=false.
+ */
+@Component
+@ConditionalOnProperty(name = "ec2.server-timing.enabled", havingValue = "true", matchIfMissing = true)
+@Profile("!" + ReactiveEc2Configuration.REACTIVE_PROFILE)
+public class ServerTimingFilter extends OncePerRequestFilter {
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith("/aws-api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        TimedResponse timedResponse = new TimedResponse(response, ServerTiming.start());
+        try {
+            filterChain.doFilter(request, timedResponse);
+            timedResponse.writeHeader();
+        } finally {
+            ServerTiming.stop();
+        }
+    }
+
+    private static class TimedResponse extends HttpServletResponseWrapper {
+        private final ServerTiming timing;
+
+        private TimedResponse(HttpServletResponse response, ServerTiming timing) {
+            super(response);
+            this.timing = timing;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            writeHeader();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            writeHeader();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            writeHeader();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int status) throws IOException {
+            writeHeader();
+            super.sendError(status);
+        }
+
+        @Override
+        public void sendError(int status, String message) throws IOException {
+            writeHeader();
+            super.sendError(status, message);
+        }
+
+        private void writeHeader() {
+            if (!isCommitted() && !containsHeader(ServerTiming.HEADER)) {
+                setHeader(ServerTiming.HEADER, timing.toHeaderValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.cisco.ec2;
+
+import com.amazonaws.AbortedException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with equal keys: the first caller executes the call in its own thread, callers arriving
+ * while it is in flight wait for and share its result or exception. An interrupted waiter stops waiting without
+ * affecting the others, if the executing caller is interrupted the waiters retry instead of failing with it. Async
+ * calls share the in flight future instead of waiting for it, sync and async callers of the same key coalesce.
+ */
+class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    V execute(K key, Supplier<V> call) {
+        while (true) {
+            CompletableFuture<V> own = new CompletableFuture<>();
+            CompletableFuture<V> inFlight = calls.putIfAbsent(key, own);
+            if (inFlight == null) {
+                return run(key, own, call);
+            }
+            coalesced.increment();
+            try {
+                return inFlight.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AbortedException(e);
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof AbortedException)) {
+                    throw rethrow(e.getCause());
+                }
+            }
+        }
+    }
+
+    CompletableFuture<V> executeAsync(K key, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> own = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = calls.putIfAbsent(key, own);
+        if (inFlight != null) {
+            coalesced.increment();
+            return inFlight.thenApply(Function.identity());
+        }
+        executed.increment();
+        CompletableFuture<V> started;
+        try {
+            started = call.get();
+        } catch (RuntimeException | Error e) {
+            calls.remove(key, own);
+            own.completeExceptionally(e);
+            throw e;
+        }
+        started.whenComplete((value, failure) -> {
+            calls.remove(key, own);
+            if (failure == null) {
+                own.complete(value);
+            } else {
+                own.completeExceptionally(Futures.unwrap(failure));
+            }
+        });
+        return own.thenApply(Function.identity());
+    }
+
+    long getExecuted() {
+        return executed.sum();
+    }
+
+    long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    int getInFlight() {
+        return calls.size();
+    }
+
+    private V run(K key, CompletableFuture<V> future, Supplier<V> call) {
+        executed.increment();
+        V value;
+        try {
+            value = call.get();
+        } catch (RuntimeException | Error e) {
+            calls.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+        calls.remove(key, future);
+        future.complete(value);
+        return value;
+    }
+
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return (RuntimeException) cause;
+    }
+}
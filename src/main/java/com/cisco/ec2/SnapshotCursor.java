@@ -0,0 +1,56 @@
+package com.cisco.ec2;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position in a sorted snapshot. Clients get it as an opaque token, it encodes the snapshot version, sort key,
+ * offset and page size.
+ */
+@Getter
+@AllArgsConstructor
+public class SnapshotCursor {
+
+    private static final int MIN_SIZE = 5;
+    private static final int MAX_SIZE = 500;
+    private static final String SEPARATOR = ":";
+    private final long version;
+    private final String sortKey;
+    private final int offset;
+    private final int size;
+
+    public String encode() {
+        String cursor = version + SEPARATOR + sortKey + SEPARATOR + offset + SEPARATOR + size;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Cursor of the following page, the offset saturates at Integer.MAX_VALUE (an empty page) instead of overflowing.
+     */
+    public SnapshotCursor next() {
+        return new SnapshotCursor(version, sortKey, (int) Math.min((long) offset + size, Integer.MAX_VALUE), size);
+    }
+
+    public SnapshotCursor withSize(Integer pageSize) {
+        return pageSize == null ? this : new SnapshotCursor(version, sortKey, offset, pageSize);
+    }
+
+    public static SnapshotCursor decode(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(SEPARATOR);
+            if (parts.length != 4) {
+                throw new InvalidCursorException();
+            }
+            SnapshotCursor decoded = new SnapshotCursor(Long.parseLong(parts[0]), parts[1], Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+            if (decoded.offset < 0 || decoded.size < MIN_SIZE || decoded.size > MAX_SIZE) {
+                throw new InvalidCursorException();
+            }
+            return decoded;
+        } catch (IllegalArgumentException ex) {
+            throw new InvalidCursorException();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.cisco.ec2;
+
+import com.cisco.ec2.model.Ec2Instance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Instances added, removed and changed between two snapshots of a region. Both are sorted by instance id, the diff
+ * is a single merge walk, instances a patch didn't touch are the same objects and compared by reference only.
+ */
+final class SnapshotDiff {
+
+    private final long version;
+    // aligned, before is null for added instances and after for removed ones
+    private final List<Ec2Instance> before = new ArrayList<>();
+    private final List<Ec2Instance> after = new ArrayList<>();
+
+    private SnapshotDiff(long version) {
+        this.version = version;
+    }
+
+    static SnapshotDiff between(RegionInventorySnapshot previous, RegionInventorySnapshot current) {
+        SnapshotDiff diff = new SnapshotDiff(current.getVersion());
+        List<Ec2Instance> from = previous.getInstances();
+        List<Ec2Instance> to = current.getInstances();
+        int i = 0;
+        int j = 0;
+        while (i < from.size() || j < to.size()) {
+            int compared = i == from.size() ? 1
+                    : j == to.size() ? -1
+                    : from.get(i).getInstanceId().compareTo(to.get(j).getInstanceId());
+            if (compared < 0) {
+                diff.add(from.get(i++), null);
+            } else if (compared > 0) {
+                diff.add(null, to.get(j++));
+            } else {
+                if (!same(from.get(i), to.get(j))) {
+                    diff.add(from.get(i), to.get(j));
+                }
+                i++;
+                j++;
+            }
+        }
+        return diff;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    int size() {
+        return before.size();
+    }
+
+    boolean isEmpty() {
+        return before.isEmpty();
+    }
+
+    Ec2Instance before(int index) {
+        return before.get(index);
+    }
+
+    Ec2Instance after(int index) {
+        return after.get(index);
+    }
+
+    private void add(Ec2Instance instanceBefore, Ec2Instance instanceAfter) {
+        before.add(instanceBefore);
+        after.add(instanceAfter);
+    }
+
+    private static boolean same(Ec2Instance a, Ec2Instance b) {
+        return a == b || (Objects.equals(a.getName(), b.getName())
+                && Objects.equals(a.getState(), b.getState())
+                && Objects.equals(a.getType(), b.getType())
+                && Objects.equals(a.getAvailabilityZone(), b.getAvailabilityZone())
+                && Objects.equals(a.getPrivateIp(), b.getPrivateIp())
+                && Objects.equals(a.getPublicIp(), b.getPublicIp()));
+    }
+}
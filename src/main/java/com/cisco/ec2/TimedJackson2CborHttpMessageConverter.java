@@ -0,0 +1,29 @@
+package com.cisco.ec2;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * CBOR converter of the responses, for clients asking for application/cbor. Serialization is timed by
+ * SerializationTimer.
+ */
+class TimedJackson2CborHttpMessageConverter extends MappingJackson2CborHttpMessageConverter {
+
+    private final SerializationTimer serializationTimer;
+
+    TimedJackson2CborHttpMessageConverter(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        super(objectMapper);
+        this.serializationTimer = new SerializationTimer(meterRegistry, "cbor");
+    }
+
+    @Override
+    protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage) throws IOException, HttpMessageNotWritableException {
+        serializationTimer.write(object, outputMessage, message -> super.writeInternal(object, type, message));
+    }
+}
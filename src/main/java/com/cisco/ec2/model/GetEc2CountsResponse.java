@@ -0,0 +1,25 @@
+package com.cisco.ec2.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Getter
+public class GetEc2CountsResponse {
+
+    private Long total;
+    private Map<String, Long> states;
+    private Map<String, Long> types;
+    private Map<String, Long> availabilityZones;
+    private Map<String, Map<String, Long>> tags;
+    private Boolean stale;
+    private String nextToken;
+}
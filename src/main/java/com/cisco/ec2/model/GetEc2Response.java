@@ -17,4 +17,5 @@ public class GetEc2Response {
 
     private List<Ec2Instance> instances;
     private String nextToken;
+    private Boolean stale;
 }
@@ -0,0 +1,29 @@
+package com.cisco.ec2.model;
+
+import com.cisco.ec2.InstanceFilter;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Getter
+public class InstanceStateChangeDetail {
+
+    @NotNull
+    @Pattern(regexp = LookupEc2Request.INSTANCE_ID)
+    @JsonProperty("instance-id")
+    private String instanceId;
+
+    @NotNull
+    @Pattern(regexp = InstanceFilter.STATES)
+    private String state;
+}
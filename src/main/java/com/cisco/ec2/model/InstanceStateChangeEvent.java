@@ -0,0 +1,47 @@
+package com.cisco.ec2.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Size;
+import java.time.Instant;
+
+/**
+ * EC2 Instance State-change Notification, as delivered by EventBridge. Only the fields used are mapped.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Getter
+public class InstanceStateChangeEvent {
+
+    public static final String DETAIL_TYPE = "EC2 Instance State-change Notification";
+
+    @NotNull
+    @Pattern(regexp = DETAIL_TYPE)
+    @JsonProperty("detail-type")
+    private String detailType;
+
+    @Size(max = 64)
+    private String source;
+
+    @NotNull
+    private Instant time;
+
+    @NotBlank
+    @Size(max = 20)
+    private String region;
+
+    @Valid
+    @NotNull
+    private InstanceStateChangeDetail detail;
+}
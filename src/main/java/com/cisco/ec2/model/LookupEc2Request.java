@@ -0,0 +1,26 @@
+package com.cisco.ec2.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Getter
+public class LookupEc2Request {
+
+    public static final String INSTANCE_ID = "i-[0-9a-f]{8,17}";
+
+    @NotEmpty
+    @Size(max = 10000)
+    private List<@Pattern(regexp = INSTANCE_ID) String> instanceIds;
+}
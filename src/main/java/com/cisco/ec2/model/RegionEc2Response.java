@@ -0,0 +1,23 @@
+package com.cisco.ec2.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Getter
+public class RegionEc2Response {
+
+    private String region;
+    private List<Ec2Instance> instances;
+    private String nextToken;
+    private Boolean stale;
+    private ErrorResponse error;
+}
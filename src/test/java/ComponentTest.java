@@ -10,18 +10,25 @@ import com.cisco.ec2.Ec2ClientProvider;
 import com.cisco.ec2.model.Ec2Instance;
 import com.cisco.ec2.model.GetEc2Response;
 import com.cisco.ec2.util.Ec2InstanceAssertions;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.web.client.TestRestTemplate;
-import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
 import java.util.List;
 import java.util.Objects;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
 
 import static com.cisco.ec2.util.Ec2ModelGenerator.generateInstancesResult;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -59,4 +66,47 @@ class ComponentTest {
         assertThat(responseInstances).hasSize(1);
         Ec2InstanceAssertions.assertEc2InstanceAttributes(responseInstances.get(0), instance);
     }
+
+    @Test
+    void shouldExposeMetricsThroughActuator() {
+        ResponseEntity<String> response = restTemplate.getForEntity(String.format("http://localhost:%s/actuator/metrics/ec2.page.instances",
+                randomServerPort), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).contains("\"name\":\"ec2.page.instances\"");
+    }
+
+    @Test
+    void shouldCompressLargeResponses() throws Exception {
+        String region = "eu-west-2";
+        Instance[] instances = IntStream.range(0, 50)
+                .mapToObj(i -> new Instance().withPlacement(new Placement(region))
+                        .withInstanceId("instance" + i)
+                        .withInstanceType("t3.micro")
+                        .withTags(new Tag("Name", "name" + i))
+                        .withState(new InstanceState().withName(InstanceStateName.Running)))
+                .toArray(Instance[]::new);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest())).thenReturn(generateInstancesResult(instances));
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+
+        HttpURLConnection connection = (HttpURLConnection) URI.create(String.format("http://localhost:%s/aws-api/v1/regions/%s/ec2",
+                randomServerPort, region)).toURL().openConnection();
+        connection.setRequestProperty(HttpHeaders.ACCEPT_ENCODING, "gzip");
+
+        assertThat(connection.getResponseCode()).isEqualTo(HttpStatus.OK.value());
+        assertThat(connection.getHeaderField(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        try (InputStream body = new GZIPInputStream(connection.getInputStream())) {
+            assertThat(new ObjectMapper().readValue(body, GetEc2Response.class).getInstances()).hasSize(50);
+        }
+    }
+
+    @Test
+    void shouldNotCompressSmallResponses() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) URI.create(String.format("http://localhost:%s/aws-api/v1/regions/eu-west-1/ec2/snapshot?cursor=invalid",
+                randomServerPort)).toURL().openConnection();
+        connection.setRequestProperty(HttpHeaders.ACCEPT_ENCODING, "gzip");
+
+        assertThat(connection.getResponseCode()).isEqualTo(HttpStatus.BAD_REQUEST.value());
+        assertThat(connection.getHeaderField(HttpHeaders.CONTENT_ENCODING)).isNull();
+    }
 }
@@ -0,0 +1,111 @@
+package com.cisco;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MockClock;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EmfMeterRegistryTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final MockClock clock = new MockClock();
+    private final EmfMeterRegistry registry = new EmfMeterRegistry("aws-api", new PrintStream(out), clock);
+
+    @Test
+    void shouldWriteEmbeddedMetricFormatLinePerMeter() throws IOException {
+        registry.counter("api.errors", "type", "invalid_region").increment();
+
+        List<JsonNode> lines = publish();
+
+        assertThat(lines).hasSize(1);
+        JsonNode line = lines.get(0);
+        JsonNode directive = line.get("_aws").get("CloudWatchMetrics").get(0);
+        assertThat(line.get("_aws").get("Timestamp").asLong()).isEqualTo(clock.wallTime());
+        assertThat(directive.get("Namespace").asText()).isEqualTo("aws-api");
+        assertThat(directive.get("Dimensions").get(0).get(0).asText()).isEqualTo("type");
+        assertThat(directive.get("Metrics").get(0).get("Name").asText()).isEqualTo("api.errors");
+        assertThat(directive.get("Metrics").get(0).get("Unit").asText()).isEqualTo("Count");
+        assertThat(line.get("type").asText()).isEqualTo("invalid_region");
+        assertThat(line.get("api.errors").asDouble()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldPublishChangesSincePreviousPublish() throws IOException {
+        registry.counter("api.errors").increment(2);
+        registry.timer("ec2.describe", "region", "eu-west-1", "outcome", "success").record(30, TimeUnit.MILLISECONDS);
+        publish();
+        registry.counter("api.errors").increment();
+
+        List<JsonNode> lines = publish();
+
+        assertThat(lines).hasSize(1);
+        assertThat(lines.get(0).get("api.errors").asDouble()).isEqualTo(1);
+        assertThat(publish()).isEmpty();
+    }
+
+    @Test
+    void shouldPublishTimerCountSumAndMax() throws IOException {
+        registry.timer("ec2.describe", "region", "eu-west-1", "outcome", "success").record(30, TimeUnit.MILLISECONDS);
+        registry.timer("ec2.describe", "region", "eu-west-1", "outcome", "success").record(10, TimeUnit.MILLISECONDS);
+
+        JsonNode line = publish().get(0);
+
+        assertThat(line.get("region").asText()).isEqualTo("eu-west-1");
+        assertThat(line.get("outcome").asText()).isEqualTo("success");
+        assertThat(line.get("ec2.describe.count").asDouble()).isEqualTo(2);
+        assertThat(line.get("ec2.describe.sum").asDouble()).isEqualTo(40);
+        assertThat(line.get("ec2.describe.max").asDouble()).isEqualTo(30);
+    }
+
+    @Test
+    void shouldPublishHistogramBucketsAsChanges() throws IOException {
+        DistributionSummary summary = DistributionSummary.builder("ec2.page.instances").serviceLevelObjectives(10, 100).register(registry);
+        summary.record(5);
+        summary.record(50);
+        publish();
+        summary.record(50);
+
+        List<JsonNode> lines = publish();
+
+        assertThat(lines).hasSize(2);
+        assertThat(lines).extracting(line -> line.path("le").asText()).contains("100");
+        assertThat(lines).extracting(line -> line.path("ec2.page.instances.histogram").asDouble()
+                + line.path("ec2.page.instances.count").asDouble()).containsOnly(1.0);
+    }
+
+    @Test
+    void shouldPublishGaugeValues() throws IOException {
+        AtomicInteger queued = new AtomicInteger(3);
+        registry.gauge("ec2.rate-limit.queue", queued);
+        publish();
+
+        List<JsonNode> lines = publish();
+
+        assertThat(lines).hasSize(1);
+        assertThat(lines.get(0).get("ec2.rate-limit.queue").asDouble()).isEqualTo(3);
+    }
+
+    private List<JsonNode> publish() throws IOException {
+        out.reset();
+        registry.publish();
+        List<JsonNode> lines = new ArrayList<>();
+        for (String line : out.toString("UTF-8").split("\n")) {
+            if (!line.isEmpty()) {
+                lines.add(OBJECT_MAPPER.readTree(line));
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,63 @@
+package com.cisco;
+
+import com.amazonaws.serverless.proxy.internal.LambdaContainerHandler;
+import com.amazonaws.serverless.proxy.internal.testutils.AwsProxyRequestBuilder;
+import com.amazonaws.serverless.proxy.internal.testutils.MockLambdaContext;
+import com.amazonaws.serverless.proxy.model.AwsProxyResponse;
+import com.amazonaws.services.lambda.runtime.Context;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Local cold start harness: loads the lambda handler the way the lambda runtime does and logs init duration and
+ * latency of the first invocation. None of the requests reach aws.
+ */
+class StreamLambdaHandlerTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamLambdaHandlerTest.class);
+    private static final Context CONTEXT = new MockLambdaContext();
+    private static StreamLambdaHandler handler;
+    private static long firstInvocationMillis;
+    private static AwsProxyResponse firstResponse;
+
+    @BeforeAll
+    static void coldStart() throws IOException {
+        handler = new StreamLambdaHandler();
+        long start = System.nanoTime();
+        firstResponse = invoke("/aws-api/v1/regions/abc/ec2");
+        firstInvocationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOGGER.info("Cold start report: init duration {} ms, first invocation {} ms",
+                StreamLambdaHandler.getInitDurationMillis(), firstInvocationMillis);
+    }
+
+    @Test
+    void shouldServeFirstInvocation() {
+        assertThat(firstResponse.getStatusCode()).isEqualTo(400);
+        assertThat(firstResponse.getBody()).contains("Unknown region: abc");
+        assertThat(firstInvocationMillis).isGreaterThanOrEqualTo(0);
+    }
+
+    @Test
+    void shouldNotServeSwaggerInLambdaProfile() throws IOException {
+        AwsProxyResponse response = invoke("/v2/api-docs");
+
+        assertThat(response.getStatusCode()).isEqualTo(404);
+    }
+
+    private static AwsProxyResponse invoke(String path) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream input = new AwsProxyRequestBuilder(path, "GET").buildStream()) {
+            handler.handleRequest(input, output, CONTEXT);
+        }
+        return LambdaContainerHandler.getObjectMapper().readValue(output.toByteArray(), AwsProxyResponse.class);
+    }
+}
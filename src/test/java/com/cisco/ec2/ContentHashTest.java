@@ -0,0 +1,55 @@
+package com.cisco.ec2;
+
+import com.cisco.ec2.model.Ec2Instance;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContentHashTest {
+
+    @Test
+    void shouldHashEqualInstancesEqually() {
+        assertThat(ContentHash.of(Arrays.asList(instance("a", "x"), instance("b", "y"))))
+                .isEqualTo(ContentHash.of(Arrays.asList(instance("a", "x"), instance("b", "y"))));
+    }
+
+    @Test
+    void shouldHashAnyChangedField() {
+        long hash = ContentHash.of(Collections.singletonList(instance("a", "x")));
+
+        assertThat(ContentHash.of(Collections.singletonList(instance("a", "y")))).isNotEqualTo(hash);
+        assertThat(ContentHash.of(Collections.singletonList(Ec2Instance.builder().instanceId("a").name("x").state("stopped").build())))
+                .isNotEqualTo(hash);
+    }
+
+    @Test
+    void shouldBeOrderSensitive() {
+        assertThat(ContentHash.of(Arrays.asList(instance("a", "x"), instance("b", "y"))))
+                .isNotEqualTo(ContentHash.of(Arrays.asList(instance("b", "y"), instance("a", "x"))));
+    }
+
+    @Test
+    void shouldSeparateFields() {
+        assertThat(ContentHash.of(Collections.singletonList(instance("ab", null))))
+                .isNotEqualTo(ContentHash.of(Collections.singletonList(instance("a", "b"))));
+        assertThat(ContentHash.of(Collections.singletonList(instance("a", null))))
+                .isNotEqualTo(ContentHash.of(Collections.singletonList(instance("a", ""))));
+    }
+
+    @Test
+    void shouldTagAllPartsWithWeakEtag() {
+        long hash = ContentHash.of(Collections.singletonList(instance("a", "x")));
+
+        assertThat(ContentHash.etag(hash, "token", null)).matches("W/\"[0-9a-f]+\"");
+        assertThat(ContentHash.etag(hash, "token", null)).isEqualTo(ContentHash.etag(hash, "token", null));
+        assertThat(ContentHash.etag(hash, "token", null)).isNotEqualTo(ContentHash.etag(hash, null, null));
+        assertThat(ContentHash.etag(hash, null, true)).isNotEqualTo(ContentHash.etag(hash, null, null));
+    }
+
+    private static Ec2Instance instance(String id, String name) {
+        return Ec2Instance.builder().instanceId(id).name(name).state("running").build();
+    }
+}
@@ -0,0 +1,94 @@
+package com.cisco.ec2;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DeadlineTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        Deadline.clear();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldNeverExpireWithoutDeadline() {
+        assertThat(Deadline.current()).isSameAs(Deadline.NONE);
+        assertThat(Deadline.NONE.isExpired()).isFalse();
+        assertThat(Deadline.NONE.remainingMillis(10000)).isEqualTo(10000);
+        assertThat(Deadline.NONE.call(executor, () -> Thread.currentThread().getName())).isEqualTo(Thread.currentThread().getName());
+    }
+
+    @Test
+    void shouldBindDeadlineToThread() throws InterruptedException {
+        Deadline deadline = Deadline.in(60000);
+        Deadline.set(deadline);
+        Deadline[] other = new Deadline[1];
+        Thread thread = new Thread(() -> other[0] = Deadline.current());
+        thread.start();
+        thread.join();
+
+        assertThat(Deadline.current()).isSameAs(deadline);
+        assertThat(other[0]).isSameAs(Deadline.NONE);
+        assertThat(deadline.remainingMillis(1000)).isEqualTo(1000);
+        assertThat(deadline.remainingMillis()).isBetween(59000L, 60000L);
+    }
+
+    @Test
+    void shouldPassDeadlineToBoundTask() throws Exception {
+        Deadline deadline = Deadline.in(60000);
+
+        assertThat(executor.submit(deadline.bind(Deadline::current)).get()).isSameAs(deadline);
+        assertThat(executor.submit(Deadline::current).get()).isSameAs(Deadline.NONE);
+        assertThat(deadline.call(executor, Deadline::current)).isSameAs(deadline);
+    }
+
+    @Test
+    void shouldExpire() throws InterruptedException {
+        Deadline deadline = Deadline.in(20);
+
+        Thread.sleep(40);
+
+        assertThat(deadline.isExpired()).isTrue();
+        assertThat(deadline.remainingMillis()).isEqualTo(0);
+        assertThat(Deadline.in(-100).isExpired()).isTrue();
+    }
+
+    @Test
+    void shouldCancelCallStillRunningAtDeadline() throws InterruptedException {
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        String result = Deadline.in(50).call(executor, () -> {
+            try {
+                Thread.sleep(5000);
+                return "late";
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                return "interrupted";
+            }
+        });
+
+        assertThat(result).isNull();
+        assertThat(interrupted.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void shouldReturnResultOrFailureOfCallBeforeDeadline() {
+        Deadline deadline = Deadline.in(5000);
+
+        assertThat(deadline.call(executor, () -> "page")).isEqualTo("page");
+        assertThrows(CircuitOpenException.class, () -> deadline.call(executor, () -> {
+            throw new CircuitOpenException("eu-west-1", 1000);
+        }));
+    }
+}
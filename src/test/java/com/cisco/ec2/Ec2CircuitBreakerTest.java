@@ -0,0 +1,126 @@
+package com.cisco.ec2;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.http.timers.client.ClientExecutionTimeoutException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class Ec2CircuitBreakerTest {
+
+    private static final String REGION = "eu-west-1";
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Ec2CircuitBreaker circuitBreaker = new Ec2CircuitBreaker(1, 60000, meterRegistry);
+
+    @Test
+    void shouldOpenOnServerError() {
+        fail(exception("InternalError", 500));
+
+        assertThat(circuitBreaker.getState(REGION)).isEqualTo("OPEN");
+        assertThat(circuitBreaker.getTransitions(REGION, "OPEN")).isEqualTo(1);
+        assertThat(meterRegistry.get("ec2.circuit.state").tag("region", REGION).gauge().value()).isEqualTo(1);
+        assertThat(meterRegistry.get("ec2.circuit.transitions").tags("region", REGION, "state", "OPEN").functionCounter().count()).isEqualTo(1);
+        assertThrows(CircuitOpenException.class, () -> circuitBreaker.execute(REGION, () -> "result"));
+    }
+
+    @Test
+    void shouldOpenOnTimeout() {
+        fail(new SdkClientException("Unable to execute HTTP request", new SocketTimeoutException("Read timed out")));
+
+        assertThat(circuitBreaker.getState(REGION)).isEqualTo("OPEN");
+    }
+
+    @Test
+    void shouldOpenOnClientExecutionTimeout() {
+        fail(new ClientExecutionTimeoutException());
+
+        assertThat(circuitBreaker.getState(REGION)).isEqualTo("OPEN");
+    }
+
+    @Test
+    void shouldOpenOnClientErrorWithoutCause() {
+        fail(new SdkClientException("Unable to execute HTTP request"));
+
+        assertThat(circuitBreaker.getState(REGION)).isEqualTo("OPEN");
+    }
+
+    @Test
+    void shouldNotOpenOnClientErrorThrottlingOrAbort() {
+        fail(exception("InvalidParameterValue", 400));
+        fail(exception("RequestLimitExceeded", 503));
+        fail(new AbortedException());
+        fail(new RateLimitExceededException(REGION));
+        fail(new DeadlineExceededException(REGION));
+
+        assertThat(circuitBreaker.getState(REGION)).isEqualTo("CLOSED");
+        assertThat(circuitBreaker.execute(REGION, () -> "result")).isEqualTo("result");
+        assertThat(circuitBreaker.getRegions()).containsExactly(REGION);
+    }
+
+    @Test
+    void shouldReportClosedCircuitOfUnknownRegion() {
+        assertThat(circuitBreaker.getState("us-east-1")).isEqualTo("CLOSED");
+        assertThat(circuitBreaker.getTransitions("us-east-1", "OPEN")).isEqualTo(0);
+    }
+
+    @Test
+    void shouldOpenOnFailedAsyncCall() {
+        AmazonServiceException serverError = exception("InternalError", 500);
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(serverError);
+
+        CompletableFuture<String> result = circuitBreaker.executeAsync(REGION, () -> failed);
+
+        assertThat(assertThrows(ExecutionException.class, result::get).getCause()).isSameAs(serverError);
+        assertThat(circuitBreaker.getState(REGION)).isEqualTo("OPEN");
+        assertThat(assertThrows(ExecutionException.class, () -> circuitBreaker.executeAsync(REGION,
+                () -> CompletableFuture.completedFuture("result")).get()).getCause()).isInstanceOf(CircuitOpenException.class);
+    }
+
+    @Test
+    void shouldStayOpenWhenInFlightCallCompletesAfterOpening() throws Exception {
+        CompletableFuture<String> inFlight = new CompletableFuture<>();
+        CompletableFuture<String> result = circuitBreaker.executeAsync(REGION, () -> inFlight);
+        fail(exception("InternalError", 500));
+
+        inFlight.complete("result");
+
+        assertThat(result.get()).isEqualTo("result");
+        assertThat(circuitBreaker.getState(REGION)).isEqualTo("OPEN");
+        assertThat(circuitBreaker.getTransitions(REGION, "CLOSED")).isZero();
+        assertThrows(CircuitOpenException.class, () -> circuitBreaker.execute(REGION, () -> "result"));
+    }
+
+    @Test
+    void shouldNotOpenOnThrottledAsyncCall() throws Exception {
+        CompletableFuture<String> throttled = new CompletableFuture<>();
+        throttled.completeExceptionally(exception("RequestLimitExceeded", 503));
+
+        assertThrows(ExecutionException.class, () -> circuitBreaker.executeAsync(REGION, () -> throttled).get());
+
+        assertThat(circuitBreaker.getState(REGION)).isEqualTo("CLOSED");
+        assertThat(circuitBreaker.executeAsync(REGION, () -> CompletableFuture.completedFuture("result")).get()).isEqualTo("result");
+    }
+
+    private void fail(RuntimeException exception) {
+        RuntimeException thrown = assertThrows(RuntimeException.class, () -> circuitBreaker.execute(REGION, () -> {
+            throw exception;
+        }));
+        assertThat(thrown).isSameAs(exception);
+    }
+
+    private static AmazonServiceException exception(String errorCode, int status) {
+        AmazonServiceException exception = new AmazonServiceException(errorCode);
+        exception.setErrorCode(errorCode);
+        exception.setStatusCode(status);
+        return exception;
+    }
+}
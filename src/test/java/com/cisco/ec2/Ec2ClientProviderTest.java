@@ -1,18 +1,162 @@
 package com.cisco.ec2;
 
 import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class Ec2ClientProviderTest {
 
     @Test
     void shouldReturnClient() {
-        Ec2ClientProvider ec2ClientProvider = new Ec2ClientProvider();
+        Ec2ClientProvider ec2ClientProvider = new Ec2ClientProvider(32, 60000, new String[0], 50, 2000, 10000, 15000, false, "", new SimpleMeterRegistry());
 
-        AmazonEC2 amazonEC2 = ec2ClientProvider.getClient("abc");
+        AmazonEC2 amazonEC2 = ec2ClientProvider.getClient("eu-west-1");
 
         assertThat(amazonEC2).isNotNull();
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldReuseClientForRegion() {
+        Ec2ClientProvider ec2ClientProvider = new Ec2ClientProvider(32, 60000, new String[0], 50, 2000, 10000, 15000, false, "", new SimpleMeterRegistry());
+
+        AmazonEC2 first = ec2ClientProvider.getClient("eu-west-1");
+        AmazonEC2 second = ec2ClientProvider.getClient("eu-west-1");
+
+        assertThat(second).isSameAs(first);
+        assertThat(ec2ClientProvider.getMisses()).isEqualTo(1);
+        assertThat(ec2ClientProvider.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldTimeClientAcquisition() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        Ec2ClientProvider ec2ClientProvider = new Ec2ClientProvider(32, 60000, new String[0], 50, 2000, 10000, 15000, false, "", meterRegistry);
+
+        ec2ClientProvider.getClient("eu-west-1");
+        ec2ClientProvider.getClient("eu-west-1");
+        ec2ClientProvider.getClient("eu-west-1");
+
+        assertThat(meterRegistry.get("ec2.client.acquire").tag("cache", "miss").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("ec2.client.acquire").tag("cache", "hit").timer().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("ec2.client.count").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRejectUnknownRegion() {
+        Ec2ClientProvider ec2ClientProvider = new Ec2ClientProvider(32, 60000, new String[0], 50, 2000, 10000, 15000, false, "", new SimpleMeterRegistry());
+
+        InvalidRegionException exception = assertThrows(InvalidRegionException.class, () -> ec2ClientProvider.getClient("abc"));
+
+        assertThat(exception.getMessage()).isEqualTo("Unknown region: abc");
+        assertThat(ec2ClientProvider.getClientCount()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldPrewarmConfiguredRegions() {
+        Ec2ClientProvider ec2ClientProvider = new Ec2ClientProvider(32, 60000, new String[]{"eu-west-1", "us-east-1"}, 50, 2000, 10000, 15000, false, "", new SimpleMeterRegistry());
+
+        ec2ClientProvider.prewarm();
+        ec2ClientProvider.getClient("us-east-1");
+
+        assertThat(ec2ClientProvider.getClientCount()).isEqualTo(2);
+        assertThat(ec2ClientProvider.getMisses()).isEqualTo(2);
+        assertThat(ec2ClientProvider.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedClientWhenFull() throws InterruptedException {
+        Ec2ClientProvider ec2ClientProvider = new Ec2ClientProvider(2, 60000, new String[0], 50, 2000, 10000, 15000, false, "", new SimpleMeterRegistry());
+
+        AmazonEC2 evicted = ec2ClientProvider.getClient("eu-west-1");
+        Thread.sleep(5);
+        ec2ClientProvider.getClient("us-east-1");
+        Thread.sleep(5);
+        ec2ClientProvider.getClient("ap-south-1");
+
+        assertThat(ec2ClientProvider.getClientCount()).isEqualTo(2);
+        assertThat(ec2ClientProvider.getClient("eu-west-1")).isNotSameAs(evicted);
+    }
+
+    @Test
+    void shouldShutDownIdleClients() throws InterruptedException {
+        Ec2ClientProvider ec2ClientProvider = new Ec2ClientProvider(32, 50, new String[0], 50, 2000, 10000, 15000, false, "", new SimpleMeterRegistry());
+
+        ec2ClientProvider.getClient("eu-west-1");
+        Thread.sleep(100);
+        ec2ClientProvider.getClient("us-east-1");
+
+        assertThat(ec2ClientProvider.getClientCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldSendRequestsToConfiguredEndpoint() throws IOException {
+        AtomicReference<String> requestBody = new AtomicReference<>();
+        HttpServer server = startEc2(requestBody);
+        try {
+            Ec2ClientProvider ec2ClientProvider = new Ec2ClientProvider(32, 60000, new String[0], 50, 2000, 10000, 15000, false,
+                    "http://localhost:" + server.getAddress().getPort(), new SimpleMeterRegistry());
+
+            DescribeInstancesResult result = ec2ClientProvider.getClient("eu-west-1").describeInstances();
+
+            assertThat(result.getReservations().get(0).getInstances().get(0).getInstanceId()).isEqualTo("i-1");
+            assertThat(requestBody.get()).contains("Action=DescribeInstances");
+            ec2ClientProvider.shutdown();
+        } finally {
+            System.clearProperty("aws.accessKeyId");
+            System.clearProperty("aws.secretKey");
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void shouldShutDownEvictedClientOnceRequestTimeoutPassed() throws Exception {
+        HttpServer server = startEc2(new AtomicReference<>());
+        try {
+            Ec2ClientProvider ec2ClientProvider = new Ec2ClientProvider(1, 60000, new String[0], 50, 500, 1000, 1000, false,
+                    "http://localhost:" + server.getAddress().getPort(), new SimpleMeterRegistry());
+            AmazonEC2 evicted = ec2ClientProvider.getClient("eu-west-1");
+            Thread.sleep(5);
+            ec2ClientProvider.getClient("us-east-1");
+
+            assertThat(ec2ClientProvider.getClientCount()).isEqualTo(1);
+            assertThat(evicted.describeInstances().getReservations()).hasSize(1);
+            Thread.sleep(2000);
+            assertThrows(RuntimeException.class, evicted::describeInstances);
+            ec2ClientProvider.shutdown();
+        } finally {
+            System.clearProperty("aws.accessKeyId");
+            System.clearProperty("aws.secretKey");
+            server.stop(0);
+        }
+    }
+
+    private static HttpServer startEc2(AtomicReference<String> requestBody) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            try (InputStream body = exchange.getRequestBody(); OutputStream response = exchange.getResponseBody()) {
+                requestBody.set(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+                byte[] xml = ("<DescribeInstancesResponse><requestId>123abc</requestId><reservationSet><item>"
+                        + "<reservationId>r-1</reservationId><instancesSet><item><instanceId>i-1</instanceId></item></instancesSet>"
+                        + "</item></reservationSet></DescribeInstancesResponse>").getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, xml.length);
+                response.write(xml);
+            }
+        });
+        server.start();
+        System.setProperty("aws.accessKeyId", "test");
+        System.setProperty("aws.secretKey", "test");
+        return server;
+    }
+}
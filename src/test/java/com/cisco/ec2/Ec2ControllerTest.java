@@ -2,14 +2,25 @@ package com.cisco.ec2;
 
 
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.serverless.proxy.RequestReader;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeRegionsResult;
+import com.amazonaws.services.ec2.model.Filter;
 import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.services.ec2.model.InstanceState;
 import com.amazonaws.services.ec2.model.InstanceStateName;
 import com.amazonaws.services.ec2.model.Placement;
+import com.amazonaws.services.ec2.model.Region;
 import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.cisco.ec2.model.GetEc2Response;
 import com.cisco.ec2.util.Ec2ModelGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.commons.lang.RandomStringUtils;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -17,36 +28,58 @@ import org.mockito.Mock;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import javax.validation.ConstraintViolationException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.stream.IntStream;
 
 import static com.cisco.ec2.Ec2InstanceMapper.NAME_TAG;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
 import static org.hamcrest.collection.IsCollectionWithSize.hasSize;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
-import static org.springframework.test.web.servlet.ResultMatcher.matchAll;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(SpringExtension.class)
 @WebMvcTest(Ec2Controller.class)
+@Import({Ec2Configuration.class, Ec2InstanceService.class, MultiRegionEc2Service.class, Ec2InventoryExporter.class,
+        RegionInventoryCache.class, Ec2FleetCounter.class, Ec2InstanceLookup.class, InstanceWatcher.class, Ec2RateLimiter.class, Ec2CircuitBreaker.class, SimpleMeterRegistry.class})
+@TestPropertySource(properties = {"ec2.retry.base-backoff-ms=1", "ec2.retry.max-backoff-ms=10", "ec2.circuit-breaker.failure-threshold=2"})
 class Ec2ControllerTest {
 
     @Autowired
     private MockMvc mockMvc;
+    @Autowired
+    private MeterRegistry meterRegistry;
     @MockBean
     private Ec2ClientProvider ec2ClientProvider;
     @Mock
     private AmazonEC2 ec2Client;
+    @Mock
+    private AmazonEC2 otherEc2Client;
 
     @Test
     void shouldReturnValidResult() throws Exception {
@@ -62,7 +95,7 @@ class Ec2ControllerTest {
         when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
 
         mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)))
-                .andExpect(matchAll(
+                .andExpectAll(
                         status().isOk(),
                         content().contentType(MediaType.APPLICATION_JSON),
                         jsonPath("$.instances[*]").value(hasSize(1)),
@@ -72,7 +105,7 @@ class Ec2ControllerTest {
                         jsonPath("$.instances[0].type").value("ami1"),
                         jsonPath("$.instances[0].availabilityZone").value("eu-west-1"),
                         jsonPath("$.instances[0].privateIp").value("1.1.1.1.1"),
-                        jsonPath("$.instances[0].publicIp").value("2.2.2.2.2")));
+                        jsonPath("$.instances[0].publicIp").value("2.2.2.2.2"));
     }
 
     @Test
@@ -82,10 +115,10 @@ class Ec2ControllerTest {
         when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
 
         mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)))
-                .andExpect(matchAll(
+                .andExpectAll(
                         status().isOk(),
                         content().contentType(MediaType.APPLICATION_JSON),
-                        jsonPath("$.instances[*]").value(hasSize(5))));
+                        jsonPath("$.instances[*]").value(hasSize(5)));
     }
 
     @Test
@@ -99,10 +132,10 @@ class Ec2ControllerTest {
         when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
 
         mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2?size=%s&nextToken=%s&sort=%s", region, size, nextToken, sort)))
-                .andExpect(matchAll(
+                .andExpectAll(
                         status().isOk(),
                         content().contentType(MediaType.APPLICATION_JSON),
-                        jsonPath("$.instances[*]").value(hasSize(5))));
+                        jsonPath("$.instances[*]").value(hasSize(5)));
         verify(ec2Client, times(1)).describeInstances(request);
     }
 
@@ -127,51 +160,51 @@ class Ec2ControllerTest {
     @Test
     void shouldNotExceedMaxSizeOfRegionLength() throws Exception {
         mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", RandomStringUtils.randomAlphanumeric(25))))
-                .andExpect(matchAll(
+                .andExpectAll(
                         status().isBadRequest(),
                         content().contentType(MediaType.APPLICATION_JSON),
                         jsonPath("$.errorMessage").value("getEc2Instances.region: size must be between 0 and 20"),
-                        jsonPath("$.status").value(400)));
+                        jsonPath("$.status").value(400));
     }
 
     @Test
     void shouldMeetMinSizeRequirement() throws Exception {
         mockMvc.perform(get("/aws-api/v1/regions/eu-west-1/ec2?size=1"))
-                .andExpect(matchAll(
+                .andExpectAll(
                         status().isBadRequest(),
                         content().contentType(MediaType.APPLICATION_JSON),
                         jsonPath("$.errorMessage").value("getEc2Instances.size: must be greater than or equal to 5"),
-                        jsonPath("$.status").value(400)));
+                        jsonPath("$.status").value(400));
     }
 
     @Test
     void shouldNotExceedMaxSizeOfResult() throws Exception {
         mockMvc.perform(get("/aws-api/v1/regions/eu-west-1/ec2?size=10000"))
-                .andExpect(matchAll(
+                .andExpectAll(
                         status().isBadRequest(),
                         content().contentType(MediaType.APPLICATION_JSON),
                         jsonPath("$.errorMessage").value("getEc2Instances.size: must be less than or equal to 500"),
-                        jsonPath("$.status").value(400)));
+                        jsonPath("$.status").value(400));
     }
 
     @Test
     void shouldNotExceedMaxLengthOfNextTokenParam() throws Exception {
         mockMvc.perform(get("/aws-api/v1/regions/eu-west-1/ec2?nextToken=" + RandomStringUtils.randomAlphanumeric(1025)))
-                .andExpect(matchAll(
+                .andExpectAll(
                         status().isBadRequest(),
                         content().contentType(MediaType.APPLICATION_JSON),
                         jsonPath("$.errorMessage").value("getEc2Instances.nextToken: size must be between 0 and 1024"),
-                        jsonPath("$.status").value(400)));
+                        jsonPath("$.status").value(400));
     }
 
     @Test
     void shouldNotExceedMaxSortParamLength() throws Exception {
         mockMvc.perform(get("/aws-api/v1/regions/eu-west-1/ec2?sort=" + RandomStringUtils.randomAlphanumeric(257)))
-                .andExpect(matchAll(
+                .andExpectAll(
                         status().isBadRequest(),
                         content().contentType(MediaType.APPLICATION_JSON),
                         jsonPath("$.errorMessage").value("getEc2Instances.sort: size must be between 0 and 256"),
-                        jsonPath("$.status").value(400)));
+                        jsonPath("$.status").value(400));
     }
 
     @Test
@@ -195,12 +228,12 @@ class Ec2ControllerTest {
         when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
 
         mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2?sort=name", region)))
-                .andExpect(matchAll(
+                .andExpectAll(
                         status().isOk(),
                         content().contentType(MediaType.APPLICATION_JSON),
                         jsonPath("$.instances[*]").value(hasSize(2)),
                         jsonPath("$.instances[0].name").value("AmyFirst"),
-                        jsonPath("$.instances[1].name").value("BmySecond")));
+                        jsonPath("$.instances[1].name").value("BmySecond"));
     }
 
     @Test
@@ -211,12 +244,110 @@ class Ec2ControllerTest {
         when(ec2Client.describeInstances(new DescribeInstancesRequest())).thenThrow(exception);
 
         mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)))
-                .andExpect(matchAll(
+                .andExpectAll(
                         status().isForbidden(),
                         jsonPath("$.errorMessage").value("Downstream failure"),
                         jsonPath("$.requestId").value("123abc"),
                         jsonPath("$.errorType").value("Client"),
-                        jsonPath("$.status").value("403")));
+                        jsonPath("$.status").value("403"));
+    }
+
+    @Test
+    void shouldRecordPipelineMetrics() throws Exception {
+        String region = "eu-west-3";
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest())).thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 3)));
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2?sort=name", region)))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/aws-api/v1/regions/eu-west-3/ec2/snapshot?cursor=invalid"))
+                .andExpect(status().isBadRequest());
+
+        assertThat(meterRegistry.get("ec2.describe").tags("region", region, "outcome", "success").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("ec2.instances.map").tag("sort", "name").timer().count()).isGreaterThanOrEqualTo(1);
+        assertThat(meterRegistry.get("ec2.page.instances").summary().count()).isGreaterThanOrEqualTo(1);
+        assertThat(meterRegistry.get("http.response.serialization").tag("type", "GetEc2Response").timer().count()).isGreaterThanOrEqualTo(1);
+        assertThat(meterRegistry.get("api.errors").tag("type", "invalid_cursor").counter().count()).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    void shouldRetryThrottledCall() throws Exception {
+        String region = "sa-east-1";
+        AmazonServiceException throttled = buildException("Rate exceeded", 503, "123abc");
+        throttled.setErrorCode("RequestLimitExceeded");
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest()))
+                .thenThrow(throttled)
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 1)));
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.instances[*]").value(hasSize(1)));
+    }
+
+    @Test
+    void shouldReturn429WithRetryAfterWhenStillThrottled() throws Exception {
+        String region = "ca-central-1";
+        AmazonServiceException throttled = buildException("Rate exceeded", 503, "123abc");
+        throttled.setErrorCode("RequestLimitExceeded");
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest())).thenThrow(throttled);
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)))
+                .andExpectAll(
+                        status().isTooManyRequests(),
+                        header().string(HttpHeaders.RETRY_AFTER, "1"),
+                        jsonPath("$.errorMessage").value("Downstream failure"),
+                        jsonPath("$.status").value(429));
+        verify(ec2Client, times(4)).describeInstances(new DescribeInstancesRequest());
+    }
+
+    @Test
+    void shouldServeStaleInstancesWhileCircuitOpen() throws Exception {
+        String region = "eu-north-1";
+        AmazonServiceException unavailable = buildException("Unavailable", 500, "123abc");
+        unavailable.setErrorType(AmazonServiceException.ErrorType.Service);
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest()))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 2)))
+                .thenThrow(unavailable);
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.stale").doesNotExist());
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)))
+                    .andExpect(status().isInternalServerError());
+        }
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.instances[*]").value(hasSize(2)),
+                        jsonPath("$.stale").value(true));
+        verify(ec2Client, times(9)).describeInstances(new DescribeInstancesRequest());
+    }
+
+    @Test
+    void shouldFailFastWhileCircuitOpen() throws Exception {
+        String region = "me-south-1";
+        AmazonServiceException unavailable = buildException("Unavailable", 500, "123abc");
+        unavailable.setErrorType(AmazonServiceException.ErrorType.Service);
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest())).thenThrow(unavailable);
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)))
+                    .andExpect(status().isInternalServerError());
+        }
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)))
+                .andExpectAll(
+                        status().isServiceUnavailable(),
+                        header().exists(HttpHeaders.RETRY_AFTER),
+                        jsonPath("$.errorMessage").value("Circuit open for region: me-south-1"),
+                        jsonPath("$.status").value(503));
+        verify(ec2Client, times(8)).describeInstances(new DescribeInstancesRequest());
     }
 
     @Test
@@ -226,10 +357,21 @@ class Ec2ControllerTest {
         when(ec2Client.describeInstances(new DescribeInstancesRequest())).thenThrow(new ConstraintViolationException("error", new HashSet<>()));
 
         mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)))
-                .andExpect(matchAll(
+                .andExpectAll(
                         status().isBadRequest(),
                         jsonPath("$.errorMessage").value("error"),
-                        jsonPath("$.status").value("400")));
+                        jsonPath("$.status").value("400"));
+    }
+
+    @Test
+    void shouldReturn400OnUnknownRegion() throws Exception {
+        when(ec2ClientProvider.getClient("abc")).thenThrow(new InvalidRegionException("abc"));
+
+        mockMvc.perform(get("/aws-api/v1/regions/abc/ec2"))
+                .andExpectAll(
+                        status().isBadRequest(),
+                        jsonPath("$.errorMessage").value("Unknown region: abc"),
+                        jsonPath("$.status").value("400"));
     }
 
     @Test
@@ -239,10 +381,351 @@ class Ec2ControllerTest {
         when(ec2Client.describeInstances(new DescribeInstancesRequest())).thenThrow(new RuntimeException("error"));
 
         mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)))
-                .andExpect(matchAll(
+                .andExpectAll(
                         status().isInternalServerError(),
                         jsonPath("$.errorMessage").value("Couldn't process request"),
-                        jsonPath("$.status").value("500")));
+                        jsonPath("$.status").value("500"));
+    }
+
+    @Test
+    void shouldReturnInstancesForRequestedRegions() throws Exception {
+        when(ec2Client.describeInstances(new DescribeInstancesRequest())).thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances("eu-west-1", 2)));
+        when(otherEc2Client.describeInstances(new DescribeInstancesRequest())).thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances("us-east-1", 3)));
+        when(ec2ClientProvider.getClient("eu-west-1")).thenReturn(ec2Client);
+        when(ec2ClientProvider.getClient("us-east-1")).thenReturn(otherEc2Client);
+
+        mockMvc.perform(get("/aws-api/v1/ec2?regions=eu-west-1,us-east-1"))
+                .andExpectAll(
+                        status().isOk(),
+                        content().contentType(MediaType.APPLICATION_JSON),
+                        jsonPath("$.regions[*]").value(hasSize(2)),
+                        jsonPath("$.regions[0].region").value("eu-west-1"),
+                        jsonPath("$.regions[0].instances[*]").value(hasSize(2)),
+                        jsonPath("$.regions[1].region").value("us-east-1"),
+                        jsonPath("$.regions[1].instances[*]").value(hasSize(3)));
+    }
+
+    @Test
+    void shouldReturnInstancesForAllEnabledRegions() throws Exception {
+        when(ec2Client.describeRegions()).thenReturn(new DescribeRegionsResult().withRegions(new Region().withRegionName("us-east-1"), new Region().withRegionName("eu-west-1")));
+        when(ec2Client.describeInstances(new DescribeInstancesRequest())).thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances("eu-west-1", 2)));
+        when(otherEc2Client.describeInstances(new DescribeInstancesRequest())).thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances("us-east-1", 3)));
+        when(ec2ClientProvider.getClient("eu-west-1")).thenReturn(ec2Client);
+        when(ec2ClientProvider.getClient("us-east-1")).thenReturn(otherEc2Client);
+
+        mockMvc.perform(get("/aws-api/v1/ec2"))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.regions[*]").value(hasSize(2)),
+                        jsonPath("$.regions[0].region").value("eu-west-1"),
+                        jsonPath("$.regions[1].region").value("us-east-1"));
+    }
+
+    @Test
+    void shouldReturnPartialResultsWhenRegionFails() throws Exception {
+        when(ec2Client.describeInstances(new DescribeInstancesRequest())).thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances("eu-west-1", 2)));
+        when(otherEc2Client.describeInstances(new DescribeInstancesRequest())).thenThrow(buildException("error", 403, "123abc"));
+        when(ec2ClientProvider.getClient("eu-west-1")).thenReturn(ec2Client);
+        when(ec2ClientProvider.getClient("us-east-1")).thenReturn(otherEc2Client);
+
+        mockMvc.perform(get("/aws-api/v1/ec2?regions=eu-west-1,us-east-1"))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.regions[0].instances[*]").value(hasSize(2)),
+                        jsonPath("$.regions[1].instances").doesNotExist(),
+                        jsonPath("$.regions[1].error.errorMessage").value("Downstream failure"),
+                        jsonPath("$.regions[1].error.requestId").value("123abc"),
+                        jsonPath("$.regions[1].error.status").value("403"));
+    }
+
+    @Test
+    void shouldNotExceedMaxNumberOfRegions() throws Exception {
+        String regions = String.join(",", IntStream.range(0, 33).mapToObj(i -> "eu-west-1").toArray(String[]::new));
+
+        mockMvc.perform(get("/aws-api/v1/ec2?regions=" + regions))
+                .andExpectAll(
+                        status().isBadRequest(),
+                        jsonPath("$.errorMessage").value("getMultiRegionEc2Instances.regions: size must be between 0 and 32"),
+                        jsonPath("$.status").value(400));
+    }
+
+    @Test
+    void shouldExportAllPagesAsNdjson() throws Exception {
+        String region = "eu-west-1";
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 2)).withNextToken("page2"));
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000).withNextToken("page2")))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 3)));
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+
+        String body = mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/export", region)))
+                .andExpectAll(
+                        status().isOk(),
+                        content().contentType("application/x-ndjson"),
+                        header().string("Server-Timing", containsString("describe;dur=")))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = body.split("\n");
+        assertThat(lines).hasSize(5);
+        assertThat(lines[0]).startsWith("{\"name\":");
+    }
+
+    @Test
+    void shouldReportFailureOfFirstExportPageWithStatus() throws Exception {
+        String region = "eu-west-1";
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000))).thenThrow(buildException("error", 403, "123abc"));
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/export", region)))
+                .andExpectAll(
+                        status().isForbidden(),
+                        jsonPath("$.errorMessage").value("Downstream failure"),
+                        jsonPath("$.requestId").value("123abc"));
+    }
+
+    @Test
+    void shouldEndExportWithErrorLineWhenLaterPageFails() throws Exception {
+        String region = "eu-west-1";
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 2)).withNextToken("page2"));
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000).withNextToken("page2")))
+                .thenThrow(buildException("error", 503, "123abc"));
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+
+        String body = mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/export", region)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = body.split("\n");
+        assertThat(lines).hasSize(3);
+        assertThat(lines[2]).isEqualTo("{\"region\":\"eu-west-1\",\"error\":{\"errorMessage\":\"Downstream failure\",\"errorType\":\"Client\",\"status\":503,\"requestId\":\"123abc\"}}");
+    }
+
+    @Test
+    void shouldReportFailureOfLaterExportPageLikeOtherPartialResponses() throws Exception {
+        String region = "eu-west-1";
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 2)).withNextToken("page2"));
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000).withNextToken("page2")))
+                .thenThrow(new DeadlineExceededException(region));
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+
+        String body = mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/export", region)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = body.split("\n");
+        assertThat(lines[2]).isEqualTo("{\"region\":\"eu-west-1\",\"error\":{\"errorMessage\":\"Downstream timeout\",\"status\":504}}");
+    }
+
+    @Test
+    void shouldEndExportWithNextTokenAtClientDeadline() throws Exception {
+        String region = "cn-north-1";
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 2)).withNextToken("page2"));
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000).withNextToken("page2")))
+                .thenAnswer(invocation -> {
+                    Thread.sleep(2000);
+                    return Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 3));
+                });
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+
+        String body = mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/export", region))
+                        .header(DeadlineFilter.TIMEOUT_HEADER, "1300"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = body.split("\n");
+        assertThat(lines).hasSize(3);
+        assertThat(lines[2]).isEqualTo("{\"region\":\"cn-north-1\",\"nextToken\":\"page2\"}");
+    }
+
+    @Test
+    void shouldResumeExportFromNextToken() throws Exception {
+        String region = "eu-west-1";
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000).withNextToken("page2")))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 3)));
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+
+        String body = mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/export?nextToken=page2", region)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        assertThat(body.split("\n")).hasSize(3);
+    }
+
+    @Test
+    void shouldReturnCachedSnapshotWithAge() throws Exception {
+        String region = "us-west-1";
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 5)));
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot", region)));
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot?sort=name", region)))
+                .andExpectAll(
+                        status().isOk(),
+                        header().string("Age", "0"),
+                        jsonPath("$.instances[*]").value(hasSize(5)));
+
+        verify(ec2Client, times(1)).describeInstances(new DescribeInstancesRequest().withMaxResults(1000));
+    }
+
+    @Test
+    void shouldBypassSnapshotCacheOnNoCache() throws Exception {
+        String region = "us-west-2";
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 5)));
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot", region)));
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot", region)).header("Cache-Control", "no-cache"))
+                .andExpect(status().isOk());
+
+        verify(ec2Client, times(2)).describeInstances(new DescribeInstancesRequest().withMaxResults(1000));
+    }
+
+    @Test
+    void shouldPassFiltersToDownstreamCall() throws Exception {
+        String region = "eu-west-1";
+        DescribeInstancesRequest request = new DescribeInstancesRequest().withFilters(
+                new Filter("instance-state-name").withValues("running", "stopped"),
+                new Filter("instance-type").withValues("t2.micro"),
+                new Filter("availability-zone").withValues("eu-west-1a"),
+                new Filter("vpc-id").withValues("vpc-1"),
+                new Filter("tag:env").withValues("prod", "dev"),
+                new Filter("tag-key").withValues("team"));
+        when(ec2Client.describeInstances(request)).thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 5)));
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2?state=running,stopped&type=t2.micro&availabilityZone=eu-west-1a" +
+                "&vpcId=vpc-1&tag=env=prod&tag=env=dev&tag=team", region)))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.instances[*]").value(hasSize(5)));
+        verify(ec2Client, times(1)).describeInstances(request);
+    }
+
+    @Test
+    void shouldFilterByNamePrefixWhileMapping() throws Exception {
+        String region = "eu-west-1";
+        Instance[] instances = generateInstances(region, 3);
+        instances[0].setTags(Collections.singletonList(new Tag(NAME_TAG, "WebServer-1")));
+        instances[1].setTags(Collections.singletonList(new Tag(NAME_TAG, "db-1")));
+        instances[2].setTags(Collections.singletonList(new Tag(NAME_TAG, "webserver-2")));
+        when(ec2Client.describeInstances(new DescribeInstancesRequest())).thenReturn(Ec2ModelGenerator.generateInstancesResult(instances));
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2?name=webServer&sort=name", region)))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.instances[*]").value(hasSize(2)),
+                        jsonPath("$.instances[0].name").value("WebServer-1"),
+                        jsonPath("$.instances[1].name").value("webserver-2"));
+    }
+
+    @Test
+    void shouldRejectUnknownState() throws Exception {
+        mockMvc.perform(get("/aws-api/v1/regions/eu-west-1/ec2?state=sleeping"))
+                .andExpectAll(
+                        status().isBadRequest(),
+                        content().contentType(MediaType.APPLICATION_JSON),
+                        jsonPath("$.errorMessage").value("getEc2Instances.states[0].<list element>: must match \"" + InstanceFilter.STATES + "\""),
+                        jsonPath("$.status").value(400));
+    }
+
+    @Test
+    void shouldNotExceedMaxTagFilterLength() throws Exception {
+        mockMvc.perform(get("/aws-api/v1/regions/eu-west-1/ec2?tag=" + RandomStringUtils.randomAlphanumeric(128)))
+                .andExpectAll(
+                        status().isBadRequest(),
+                        jsonPath("$.errorMessage").value("getEc2Instances.tags[0].<list element>: must match \"" + InstanceFilter.TAG + "\""),
+                        jsonPath("$.status").value(400));
+    }
+
+    @Test
+    void shouldNotExceedMaxNameFilterLength() throws Exception {
+        mockMvc.perform(get("/aws-api/v1/regions/eu-west-1/ec2?name=" + RandomStringUtils.randomAlphanumeric(257)))
+                .andExpectAll(
+                        status().isBadRequest(),
+                        jsonPath("$.errorMessage").value("getEc2Instances.name: size must be between 0 and 256"),
+                        jsonPath("$.status").value(400));
+    }
+
+    @Test
+    void shouldPassFiltersToExportCalls() throws Exception {
+        String region = "eu-west-1";
+        DescribeInstancesRequest request = new DescribeInstancesRequest().withMaxResults(1000)
+                .withFilters(new Filter("instance-state-name").withValues("running"));
+        when(ec2Client.describeInstances(request)).thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 2)));
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/export?state=running", region)))
+                .andExpect(status().isOk());
+
+        verify(ec2Client, times(1)).describeInstances(request);
+    }
+
+    @Test
+    void shouldSortWholeSnapshotBeforePaging() throws Exception {
+        String region = "ap-south-1";
+        Instance[] instances = generateInstances(region, 3);
+        instances[0].setTags(Collections.singletonList(new Tag(NAME_TAG, "c")));
+        instances[1].setTags(Collections.singletonList(new Tag(NAME_TAG, "a")));
+        instances[2].setTags(Collections.singletonList(new Tag(NAME_TAG, "b")));
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(instances));
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot?sort=name&size=5", region)))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.instances[*]").value(hasSize(3)),
+                        jsonPath("$.instances[0].name").value("a"),
+                        jsonPath("$.instances[1].name").value("b"),
+                        jsonPath("$.instances[2].name").value("c"),
+                        jsonPath("$.nextToken").doesNotExist());
+    }
+
+    @Test
+    void shouldFollowSnapshotCursor() throws Exception {
+        String region = "ap-northeast-1";
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 7)));
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+
+        String first = mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot?sort=type&size=5", region)))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.instances[*]").value(hasSize(5)),
+                        jsonPath("$.nextToken").exists())
+                .andReturn().getResponse().getContentAsString();
+        String cursor = first.substring(first.indexOf("\"nextToken\":\"") + 13, first.lastIndexOf('"'));
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot?cursor=%s", region, cursor)))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.instances[*]").value(hasSize(2)),
+                        jsonPath("$.nextToken").doesNotExist());
+        verify(ec2Client, times(1)).describeInstances(new DescribeInstancesRequest().withMaxResults(1000));
+    }
+
+    @Test
+    void shouldReturn400OnInvalidCursor() throws Exception {
+        mockMvc.perform(get("/aws-api/v1/regions/eu-west-1/ec2/snapshot?cursor=abc"))
+                .andExpectAll(
+                        status().isBadRequest(),
+                        jsonPath("$.errorMessage").value("Invalid cursor"),
+                        jsonPath("$.status").value(400));
+    }
+
+    @Test
+    void shouldReturn410OnExpiredCursor() throws Exception {
+        mockMvc.perform(get("/aws-api/v1/regions/eu-west-1/ec2/snapshot?cursor=" + new SnapshotCursor(-1, "name", 0, 5).encode()))
+                .andExpectAll(
+                        status().isGone(),
+                        jsonPath("$.errorMessage").value("Cursor expired, restart from the first page"),
+                        jsonPath("$.status").value(410));
     }
 
     private AmazonServiceException buildException(String message, int status, String id) {
@@ -253,6 +736,419 @@ class Ec2ControllerTest {
         return exception;
     }
 
+    @Test
+    void shouldBreakLatencyDownInServerTimingHeader() throws Exception {
+        String region = "ap-southeast-1";
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest())).thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 3)));
+
+        String serverTiming = mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("Server-Timing");
+
+        assertThat(serverTiming).matches("client;dur=\\d+\\.\\d{3}, describe;dur=\\d+\\.\\d{3}, map;dur=\\d+\\.\\d{3}, "
+                + "sort;dur=\\d+\\.\\d{3}, ser;dur=\\d+\\.\\d{3}, total;dur=\\d+\\.\\d{3}");
+    }
+
+    @Test
+    void shouldReportSnapshotCacheOutcomeInServerTimingHeader() throws Exception {
+        String region = "ap-southeast-2";
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 5)));
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot", region)))
+                .andExpect(header().string("Server-Timing", containsString("cache;desc=miss;dur=")));
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot", region)))
+                .andExpect(header().string("Server-Timing", allOf(containsString("cache;desc=hit;dur="), not(containsString("describe")))));
+    }
+
+    @Test
+    void shouldReportServerTimingOfErrors() throws Exception {
+        mockMvc.perform(get("/aws-api/v1/regions/eu-west-1/ec2/snapshot?cursor=invalid"))
+                .andExpectAll(
+                        status().isBadRequest(),
+                        header().string("Server-Timing", startsWith("ser;dur=")));
+    }
+
+    @Test
+    void shouldReturn304WhenInstancesNotModified() throws Exception {
+        String region = "ap-northeast-2";
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest())).thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 3)));
+
+        String etag = mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        assertThat(etag).isNotEmpty();
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpectAll(
+                        status().isNotModified(),
+                        header().string(HttpHeaders.ETAG, etag),
+                        header().string("Server-Timing", containsString("total;dur=")),
+                        content().string(""));
+    }
+
+    @Test
+    void shouldReturnInstancesWhenModified() throws Exception {
+        String region = "ap-northeast-3";
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest()))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 3)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 4)));
+
+        String etag = mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpectAll(
+                        status().isOk(),
+                        header().string(HttpHeaders.ETAG, not(etag)),
+                        jsonPath("$.instances[*]").value(hasSize(4)));
+    }
+
+    @Test
+    void shouldReturn304WhenSnapshotPageNotModified() throws Exception {
+        String region = "ap-east-1";
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 5)));
+
+        String etag = mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot?size=5&sort=name", region)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot?size=5&sort=name", region)).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpectAll(
+                        status().isNotModified(),
+                        content().string(""));
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot?size=5", region)).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void shouldNegotiateBinaryFormats() throws Exception {
+        String region = "ap-southeast-3";
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest())).thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 3)));
+
+        byte[] cbor = mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)).accept(MediaType.APPLICATION_CBOR))
+                .andExpectAll(
+                        status().isOk(),
+                        content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+        byte[] smile = mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)).accept(Ec2Configuration.SMILE))
+                .andExpectAll(
+                        status().isOk(),
+                        content().contentType(Ec2Configuration.SMILE))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertThat(new ObjectMapper(new CBORFactory()).readValue(cbor, GetEc2Response.class).getInstances()).hasSize(3);
+        assertThat(new ObjectMapper(new SmileFactory()).readValue(smile, GetEc2Response.class).getInstances()).hasSize(3);
+        assertThat(meterRegistry.get("http.response.serialization").tags("type", "GetEc2Response", "format", "cbor").timer().count()).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    void shouldPreferJsonWhenAnyFormatIsAccepted() throws Exception {
+        String region = "ap-southeast-3";
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest())).thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 3)));
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2", region)).accept(MediaType.ALL))
+                .andExpectAll(
+                        status().isOk(),
+                        content().contentType(MediaType.APPLICATION_JSON));
+    }
+
+    @Test
+    void shouldReturnRequestedFieldsOnly() throws Exception {
+        String region = "us-gov-west-1";
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest())).thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 3)));
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2?fields=instanceId,state&sort=name", region)))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.instances[*]").value(hasSize(3)),
+                        jsonPath("$.instances[0].instanceId").exists(),
+                        jsonPath("$.instances[0].state").exists(),
+                        jsonPath("$.instances[0].name").doesNotExist(),
+                        jsonPath("$.instances[0].privateIp").doesNotExist());
+    }
+
+    @Test
+    void shouldReturnRequestedFieldsOfSnapshot() throws Exception {
+        String region = "eu-south-2";
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 5)));
+
+        String all = mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot", region)))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot?fields=instanceId", region)).header(HttpHeaders.IF_NONE_MATCH, all))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.instances[*]").value(hasSize(5)),
+                        jsonPath("$.instances[0].instanceId").exists(),
+                        jsonPath("$.instances[0].state").doesNotExist());
+    }
+
+    @Test
+    void shouldRejectUnknownField() throws Exception {
+        mockMvc.perform(get("/aws-api/v1/regions/eu-west-1/ec2?fields=instanceId,vpcId"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldCountInstancesOfAllPages() throws Exception {
+        String region = "me-south-1";
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        Instance running = new Instance().withPlacement(new Placement(region + "a")).withInstanceType("t3.micro")
+                .withState(new InstanceState().withName(InstanceStateName.Running)).withTags(new Tag("team", "infra"));
+        Instance stopped = new Instance().withPlacement(new Placement(region + "b")).withInstanceType("m5.large")
+                .withState(new InstanceState().withName(InstanceStateName.Stopped)).withTags(new Tag("team", "data"));
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(running, running).withNextToken("page2"));
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000).withNextToken("page2")))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(stopped));
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/counts?tagKey=team", region)))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.total").value(3),
+                        jsonPath("$.states.running").value(2),
+                        jsonPath("$.states.stopped").value(1),
+                        jsonPath("$.types['t3.micro']").value(2),
+                        jsonPath("$.availabilityZones['me-south-1b']").value(1),
+                        jsonPath("$.tags.team.infra").value(2),
+                        jsonPath("$.tags.team.data").value(1));
+    }
+
+    @Test
+    void shouldReturnPartialCountsWithNextTokenAtLambdaDeadline() throws Exception {
+        String region = "eu-south-1";
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        Instance running = new Instance().withPlacement(new Placement(region + "a")).withInstanceType("t3.micro")
+                .withState(new InstanceState().withName(InstanceStateName.Running));
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(running, running).withNextToken("page2"));
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000).withNextToken("page2")))
+                .thenAnswer(invocation -> {
+                    Thread.sleep(2000);
+                    return Ec2ModelGenerator.generateInstancesResult(running);
+                });
+        Context lambdaContext = mock(Context.class);
+        when(lambdaContext.getRemainingTimeInMillis()).thenReturn(1300);
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/counts", region))
+                        .requestAttr(RequestReader.LAMBDA_CONTEXT_PROPERTY, lambdaContext))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.total").value(2),
+                        jsonPath("$.nextToken").value("page2"));
+    }
+
+    @Test
+    void shouldReturn504WhenFirstCountsPageMissesDeadline() throws Exception {
+        String region = "us-gov-east-1";
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000))).thenAnswer(invocation -> {
+            Thread.sleep(2000);
+            return Ec2ModelGenerator.generateInstancesResult();
+        });
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/counts", region))
+                        .header(DeadlineFilter.TIMEOUT_HEADER, "1100"))
+                .andExpectAll(
+                        status().isGatewayTimeout(),
+                        jsonPath("$.errorMessage").value("Downstream timeout"));
+    }
+
+    @Test
+    void shouldServeCountsOfCachedSnapshot() throws Exception {
+        String region = "me-central-1";
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances(region, 4)));
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot", region)));
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/counts", region)))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.total").value(4),
+                        jsonPath("$.availabilityZones['me-central-1']").value(4),
+                        jsonPath("$.tags").doesNotExist());
+
+        verify(ec2Client, times(1)).describeInstances(new DescribeInstancesRequest().withMaxResults(1000));
+    }
+
+    @Test
+    void shouldCountInstancesOfRequestedRegions() throws Exception {
+        when(ec2ClientProvider.getClient("af-south-1")).thenReturn(ec2Client);
+        when(ec2ClientProvider.getClient("il-central-1")).thenReturn(otherEc2Client);
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(generateInstances("af-south-1", 2)));
+        when(otherEc2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000))).thenThrow(buildException("error", 403, "123abc"));
+
+        mockMvc.perform(get("/aws-api/v1/ec2/counts?regions=af-south-1,il-central-1"))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.regions[0].region").value("af-south-1"),
+                        jsonPath("$.regions[0].total").value(2),
+                        jsonPath("$.regions[1].region").value("il-central-1"),
+                        jsonPath("$.regions[1].total").doesNotExist(),
+                        jsonPath("$.regions[1].error.status").value(403));
+    }
+
+    @Test
+    void shouldNotExceedMaxTagKeyLength() throws Exception {
+        mockMvc.perform(get("/aws-api/v1/regions/eu-west-1/ec2/counts?tagKey=" + RandomStringUtils.randomAlphabetic(128)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldLookUpInstancesById() throws Exception {
+        String region = "ca-central-1";
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        DescribeInstancesRequest request = new DescribeInstancesRequest().withMaxResults(1000)
+                .withFilters(new Filter("instance-id", Arrays.asList("i-0000000b", "i-0000000a")));
+        when(ec2Client.describeInstances(request)).thenReturn(Ec2ModelGenerator.generateInstancesResult(new Instance()
+                .withInstanceId("i-0000000a")
+                .withState(new InstanceState().withName(InstanceStateName.Running))));
+
+        mockMvc.perform(post(String.format("/aws-api/v1/regions/%s/ec2/lookup?fields=state", region))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"instanceIds\":[\"i-0000000b\",\"i-0000000a\",\"i-0000000b\"]}"))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.instances[*]").value(hasSize(1)),
+                        jsonPath("$.instances[0].state").value("running"),
+                        jsonPath("$.instances[0].instanceId").doesNotExist(),
+                        jsonPath("$.notFound[*]").value(hasSize(1)),
+                        jsonPath("$.notFound[0]").value("i-0000000b"),
+                        jsonPath("$.failed").doesNotExist());
+    }
+
+    @Test
+    void shouldReturn400OnLookupInUnknownRegion() throws Exception {
+        when(ec2ClientProvider.getClient("abc")).thenThrow(new InvalidRegionException("abc"));
+
+        mockMvc.perform(post("/aws-api/v1/regions/abc/ec2/lookup")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"instanceIds\":[\"i-0000000a\"]}"))
+                .andExpectAll(
+                        status().isBadRequest(),
+                        jsonPath("$.errorMessage").value("Unknown region: abc"),
+                        jsonPath("$.status").value("400"));
+    }
+
+    @Test
+    void shouldRejectInvalidInstanceIds() throws Exception {
+        mockMvc.perform(post("/aws-api/v1/regions/eu-west-1/ec2/lookup")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"instanceIds\":[\"i-0000000a\",\"vpc-123\"]}"))
+                .andExpectAll(
+                        status().isBadRequest(),
+                        jsonPath("$.status").value(400));
+        mockMvc.perform(post("/aws-api/v1/regions/eu-west-1/ec2/lookup")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"instanceIds\":[]}"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/aws-api/v1/regions/eu-west-1/ec2/lookup")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"instanceIds\":"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldPatchSnapshotWithInstanceStateChange() throws Exception {
+        String region = "mx-central-1";
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(new Instance()
+                        .withInstanceId("i-0000000a")
+                        .withState(new InstanceState().withName(InstanceStateName.Running))));
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+        String etag = mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot", region)))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(post("/aws-api/v1/ec2/events")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(stateChangeEvent(region, "i-0000000a", "stopping")))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/snapshot", region)))
+                .andExpectAll(
+                        status().isOk(),
+                        header().string("ETag", not(etag)),
+                        jsonPath("$.instances[0].state").value("stopping"));
+        verify(ec2Client, times(1)).describeInstances(new DescribeInstancesRequest().withMaxResults(1000));
+    }
+
+    @Test
+    void shouldRejectInvalidStateChangeEvents() throws Exception {
+        mockMvc.perform(post("/aws-api/v1/ec2/events")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(stateChangeEvent("eu-west-1", "i-0000000a", "rebooting")))
+                .andExpectAll(
+                        status().isBadRequest(),
+                        jsonPath("$.status").value(400));
+        mockMvc.perform(post("/aws-api/v1/ec2/events")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(stateChangeEvent("eu-west-1", "vpc-123", "running")))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/aws-api/v1/ec2/events")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(stateChangeEvent("eu-west-1", "i-0000000a", "running").replace("State-change", "Spot Interruption")))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldStreamInstanceChangesToWatchers() throws Exception {
+        String region = "ap-south-2";
+        when(ec2Client.describeInstances(new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(new Instance()
+                        .withInstanceId("i-0000000a")
+                        .withState(new InstanceState().withName(InstanceStateName.Running))));
+        when(ec2ClientProvider.getClient(region)).thenReturn(ec2Client);
+
+        MvcResult watch = mockMvc.perform(get(String.format("/aws-api/v1/regions/%s/ec2/watch?state=running", region))
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(post("/aws-api/v1/ec2/events")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(stateChangeEvent(region, "i-0000000a", "stopping")))
+                .andExpect(status().isNoContent());
+
+        String body = "";
+        for (int i = 0; i < 100 && !body.contains("event:removed"); i++) {
+            Thread.sleep(50);
+            body = watch.getResponse().getContentAsString();
+        }
+        assertThat(watch.getResponse().getContentType()).startsWith(MediaType.TEXT_EVENT_STREAM_VALUE);
+        assertThat(body).startsWith("event:snapshot\n")
+                .contains("event:removed\nid:")
+                .contains("data:{\"instanceId\":\"i-0000000a\",\"state\":\"stopping\"}\n\n");
+    }
+
+    @Test
+    void shouldRejectInvalidWatchFilters() throws Exception {
+        mockMvc.perform(get("/aws-api/v1/regions/eu-west-1/ec2/watch?state=rebooting").accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpectAll(
+                        status().isBadRequest(),
+                        content().contentType(MediaType.APPLICATION_JSON),
+                        jsonPath("$.status").value(400));
+    }
+
+    private static String stateChangeEvent(String region, String instanceId, String state) {
+        return "{\"version\":\"0\",\"id\":\"7bf73129-1428-4cd3-a780-95db273d1602\","
+                + "\"detail-type\":\"EC2 Instance State-change Notification\",\"source\":\"aws.ec2\","
+                + "\"account\":\"123456789012\",\"time\":\"" + Instant.now() + "\",\"region\":\"" + region + "\","
+                + "\"resources\":[\"arn:aws:ec2:" + region + ":123456789012:instance/" + instanceId + "\"],"
+                + "\"detail\":{\"instance-id\":\"" + instanceId + "\",\"state\":\"" + state + "\"}}";
+    }
+
     private Instance[] generateInstances(String region, int size) {
         Instance[] result = new Instance[size];
         IntStream.range(0, size)
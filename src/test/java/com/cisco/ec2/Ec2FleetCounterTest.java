@@ -0,0 +1,145 @@
+package com.cisco.ec2;
+
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.amazonaws.services.ec2.model.Tag;
+import com.cisco.ec2.model.Ec2Instance;
+import com.cisco.ec2.model.GetEc2CountsResponse;
+import com.cisco.ec2.util.Ec2ModelGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class Ec2FleetCounterTest {
+
+    private static final String REGION = "eu-west-1";
+    private final Ec2InstanceService ec2InstanceService = mock(Ec2InstanceService.class);
+    private final RegionInventoryCache regionInventoryCache = mock(RegionInventoryCache.class);
+    private final ExecutorService ec2Executor = Executors.newCachedThreadPool();
+    private final Ec2FleetCounter counter = new Ec2FleetCounter(ec2InstanceService, regionInventoryCache, ec2Executor, 1000);
+
+    @AfterEach
+    void tearDown() {
+        Deadline.clear();
+        ec2Executor.shutdownNow();
+    }
+
+    @Test
+    void shouldCountAllPages() {
+        when(ec2InstanceService.describeInstances(REGION, new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(instance("running", "infra"), instance("running", "data")).withNextToken("page2"));
+        when(ec2InstanceService.describeInstances(REGION, new DescribeInstancesRequest().withMaxResults(1000).withNextToken("page2")))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(instance("stopped", "infra")));
+
+        GetEc2CountsResponse counts = counter.count(REGION, Collections.singletonList("team"));
+
+        assertThat(counts.getTotal()).isEqualTo(3L);
+        assertThat(counts.getStates()).containsEntry("running", 2L).containsEntry("stopped", 1L);
+        assertThat(counts.getTags().get("team")).containsEntry("infra", 2L).containsEntry("data", 1L);
+        assertThat(counts.getStale()).isNull();
+        verify(regionInventoryCache, never()).getIfPresent(any());
+    }
+
+    @Test
+    void shouldServeCountsOfFreshSnapshot() {
+        RegionInventorySnapshot snapshot = snapshot("running", "stopped");
+        when(regionInventoryCache.getIfPresent(REGION)).thenReturn(snapshot);
+
+        GetEc2CountsResponse counts = counter.count(REGION, null);
+
+        assertThat(counts.getTotal()).isEqualTo(2L);
+        assertThat(counts.getStale()).isNull();
+        verify(ec2InstanceService, never()).describeInstances(eq(REGION), any());
+    }
+
+    @Test
+    void shouldServeCountsOfExpiredSnapshotWhileCircuitOpen() {
+        RegionInventorySnapshot snapshot = snapshot("running");
+        when(regionInventoryCache.getIfPresent(REGION)).thenReturn(snapshot);
+        when(regionInventoryCache.isStale(snapshot)).thenReturn(true);
+        when(ec2InstanceService.describeInstances(eq(REGION), any())).thenThrow(new CircuitOpenException(REGION, 1000));
+
+        GetEc2CountsResponse counts = counter.count(REGION, Collections.emptyList());
+
+        assertThat(counts.getTotal()).isEqualTo(1L);
+        assertThat(counts.getStale()).isTrue();
+    }
+
+    @Test
+    void shouldFailWhileCircuitOpenWithoutSnapshot() {
+        when(ec2InstanceService.describeInstances(eq(REGION), any())).thenThrow(new CircuitOpenException(REGION, 1000));
+
+        assertThrows(CircuitOpenException.class, () -> counter.count(REGION, null));
+    }
+
+    @Test
+    void shouldReturnCountsSoFarWithNextTokenAtDeadline() {
+        when(ec2InstanceService.describeInstances(REGION, new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(instance("running", "infra")).withNextToken("page2"));
+        when(ec2InstanceService.describeInstances(REGION, new DescribeInstancesRequest().withMaxResults(1000).withNextToken("page2")))
+                .thenAnswer(invocation -> {
+                    Thread.sleep(2000);
+                    return Ec2ModelGenerator.generateInstancesResult(instance("stopped", "infra"));
+                });
+        Deadline.set(Deadline.in(200));
+
+        long start = System.currentTimeMillis();
+        GetEc2CountsResponse counts = counter.count(REGION, null);
+
+        assertThat(System.currentTimeMillis() - start).isLessThan(1000);
+        assertThat(counts.getTotal()).isEqualTo(1L);
+        assertThat(counts.getNextToken()).isEqualTo("page2");
+    }
+
+    @Test
+    void shouldResumeCountingFromNextTokenWithoutSnapshot() {
+        when(ec2InstanceService.describeInstances(REGION, new DescribeInstancesRequest().withMaxResults(1000).withNextToken("page2")))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(instance("stopped", "infra")));
+
+        GetEc2CountsResponse counts = counter.count(REGION, null, "page2");
+
+        assertThat(counts.getTotal()).isEqualTo(1L);
+        assertThat(counts.getStates()).containsEntry("stopped", 1L);
+        assertThat(counts.getNextToken()).isNull();
+        verify(regionInventoryCache, never()).getIfPresent(any());
+    }
+
+    @Test
+    void shouldFailWhenFirstPageMissesDeadline() {
+        when(ec2InstanceService.describeInstances(eq(REGION), any())).thenAnswer(invocation -> {
+            Thread.sleep(2000);
+            return Ec2ModelGenerator.generateInstancesResult(instance("running", "infra"));
+        });
+        Deadline.set(Deadline.in(100));
+
+        assertThrows(DeadlineExceededException.class, () -> counter.count(REGION, null));
+    }
+
+    private static Instance instance(String state, String team) {
+        return new Instance()
+                .withState(new InstanceState().withName(state))
+                .withTags(new Tag("team", team));
+    }
+
+    private static RegionInventorySnapshot snapshot(String... states) {
+        Ec2Instance[] instances = new Ec2Instance[states.length];
+        for (int i = 0; i < states.length; i++) {
+            instances[i] = Ec2Instance.builder().instanceId("i-" + i).state(states[i]).build();
+        }
+        return new RegionInventorySnapshot(REGION, Arrays.asList(instances), 1, System.currentTimeMillis());
+    }
+}
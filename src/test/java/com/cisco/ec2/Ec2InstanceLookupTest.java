@@ -0,0 +1,155 @@
+package com.cisco.ec2;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.cisco.ec2.model.LookupEc2Response;
+import com.cisco.ec2.util.Ec2ModelGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class Ec2InstanceLookupTest {
+
+    private static final String REGION = "eu-west-1";
+    private final Ec2InstanceService ec2InstanceService = mock(Ec2InstanceService.class);
+    private final Ec2ClientProvider ec2ClientProvider = mock(Ec2ClientProvider.class);
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldDescribeDeduplicatedIdsInChunks() throws InterruptedException {
+        when(ec2InstanceService.describeInstances(REGION, request("i-00000003", "i-00000001"))).thenReturn(result("i-00000001", "i-00000003"));
+        when(ec2InstanceService.describeInstances(REGION, request("i-00000002", "i-00000004"))).thenReturn(result("i-00000004"));
+        when(ec2InstanceService.describeInstances(REGION, request("i-00000005"))).thenReturn(result("i-00000005"));
+
+        LookupEc2Response response = lookup(2, 4, 1000).lookup(REGION,
+                Arrays.asList("i-00000003", "i-00000001", "i-00000002", "i-00000001", "i-00000004", "i-00000005"), InstanceFields.ALL);
+
+        verify(ec2InstanceService, times(3)).describeInstances(eq(REGION), any());
+        assertThat(response.getInstances()).extracting("instanceId").containsExactly("i-00000001", "i-00000003", "i-00000004", "i-00000005");
+        assertThat(response.getNotFound()).containsExactly("i-00000002");
+        assertThat(response.getFailed()).isNull();
+        assertThat(response.getError()).isNull();
+    }
+
+    @Test
+    void shouldReportIdsOfFailedChunks() throws InterruptedException {
+        when(ec2InstanceService.describeInstances(REGION, request("i-00000001", "i-00000002"))).thenReturn(result("i-00000002", "i-00000001"));
+        AmazonServiceException exception = new AmazonServiceException("error");
+        exception.setStatusCode(503);
+        when(ec2InstanceService.describeInstances(REGION, request("i-00000003"))).thenThrow(exception);
+
+        LookupEc2Response response = lookup(2, 4, 1000).lookup(REGION, Arrays.asList("i-00000001", "i-00000002", "i-00000003"), InstanceFields.ALL);
+
+        assertThat(response.getInstances()).extracting("instanceId").containsExactly("i-00000001", "i-00000002");
+        assertThat(response.getNotFound()).isEmpty();
+        assertThat(response.getFailed()).containsExactly("i-00000003");
+        assertThat(response.getError().getStatus()).isEqualTo(503);
+    }
+
+    @Test
+    void shouldReportChunksWhichTimedOutAsFailed() throws InterruptedException {
+        when(ec2InstanceService.describeInstances(REGION, request("i-00000001"))).thenReturn(result("i-00000001"));
+        when(ec2InstanceService.describeInstances(REGION, request("i-00000002"))).thenAnswer(invocation -> {
+            Thread.sleep(5000);
+            return Ec2ModelGenerator.generateInstancesResult();
+        });
+
+        LookupEc2Response response = lookup(1, 2, 300).lookup(REGION, Arrays.asList("i-00000001", "i-00000002"), InstanceFields.ALL);
+
+        assertThat(response.getInstances()).extracting("instanceId").containsExactly("i-00000001");
+        assertThat(response.getFailed()).containsExactly("i-00000002");
+        assertThat(response.getError().getStatus()).isEqualTo(504);
+    }
+
+    @Test
+    void shouldReportChunksAsUnavailableWhenTheExecutorHasNoRoom() throws InterruptedException {
+        ExecutorService busyExecutor = new Ec2Configuration().ec2Executor(1, 1, false);
+        CountDownLatch release = new CountDownLatch(1);
+        busyExecutor.execute(() -> awaitQuietly(release));
+        busyExecutor.execute(() -> awaitQuietly(release));
+
+        LookupEc2Response response = new Ec2InstanceLookup(ec2InstanceService, ec2ClientProvider, busyExecutor, 1, 2, 1000, 1000)
+                .lookup(REGION, Arrays.asList("i-00000001", "i-00000002"), InstanceFields.ALL);
+        release.countDown();
+        busyExecutor.shutdownNow();
+
+        assertThat(response.getInstances()).isEmpty();
+        assertThat(response.getFailed()).containsExactly("i-00000001", "i-00000002");
+        assertThat(response.getError().getStatus()).isEqualTo(503);
+    }
+
+    @Test
+    void shouldDescribeNoMoreChunksAtOnceThanParallelism() throws InterruptedException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        when(ec2InstanceService.describeInstances(eq(REGION), any())).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            running.decrementAndGet();
+            return Ec2ModelGenerator.generateInstancesResult();
+        });
+
+        LookupEc2Response response = lookup(1, 2, 5000).lookup(REGION,
+                Arrays.asList("i-00000001", "i-00000002", "i-00000003", "i-00000004", "i-00000005", "i-00000006"), InstanceFields.ALL);
+
+        verify(ec2InstanceService, times(6)).describeInstances(eq(REGION), any());
+        assertThat(maxRunning.get()).isEqualTo(2);
+        assertThat(response.getNotFound()).hasSize(6);
+    }
+
+    @Test
+    void shouldMatchFoundIdsWhenInstanceIdIsNotRequested() throws InterruptedException {
+        when(ec2InstanceService.describeInstances(REGION, request("i-00000001", "i-00000002"))).thenReturn(result("i-00000001"));
+
+        LookupEc2Response response = lookup(200, 4, 1000).lookup(REGION, Arrays.asList("i-00000001", "i-00000002"),
+                InstanceFields.of(Arrays.asList("state")));
+
+        assertThat(response.getInstances()).extracting("instanceId").containsOnly((Object) null);
+        assertThat(response.getInstances()).extracting("state").containsExactly("running");
+        assertThat(response.getNotFound()).containsExactly("i-00000002");
+    }
+
+    private Ec2InstanceLookup lookup(int chunkSize, int parallelism, long timeoutMillis) {
+        return new Ec2InstanceLookup(ec2InstanceService, ec2ClientProvider, executor, chunkSize, parallelism, 1000, timeoutMillis);
+    }
+
+    private static DescribeInstancesResult result(String... instanceIds) {
+        return Ec2ModelGenerator.generateInstancesResult(Arrays.stream(instanceIds)
+                .map(id -> new Instance().withInstanceId(id).withState(new InstanceState().withName("running")))
+                .toArray(Instance[]::new));
+    }
+
+    private static DescribeInstancesRequest request(String... instanceIds) {
+        return new DescribeInstancesRequest().withMaxResults(1000).withFilters(new Filter("instance-id", Arrays.asList(instanceIds)));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -13,11 +13,13 @@ import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import static com.cisco.ec2.Ec2InstanceMapper.NAME_TAG;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.assertj.core.util.Lists.newArrayList;
 
 class Ec2InstanceMapperTest {
@@ -129,6 +131,115 @@ class Ec2InstanceMapperTest {
         assertThat(result.get(3).getPrivateIp()).isEqualTo("4.8.9.0.1");
     }
 
+    @Test
+    void shouldSortInstancesWithoutSortKeyLast() {
+        List<Ec2Instance> instances = Arrays.asList(
+                Ec2Instance.builder().instanceId("a").build(),
+                Ec2Instance.builder().instanceId("b").name("web").publicIp("2.2.2.2").build(),
+                Ec2Instance.builder().instanceId("c").name("db").publicIp("1.1.1.1").build());
+
+        assertThat(Ec2InstanceMapper.sort(instances, "name")).extracting("instanceId").containsExactly("c", "b", "a");
+        assertThat(Ec2InstanceMapper.sort(instances, "publicIp")).extracting("instanceId").containsExactly("c", "b", "a");
+    }
+
+    @Test
+    void shouldFilterWhileMapping() {
+        List<Instance> instances = generateInstancesWithNames("kkk", "vvv", "eee", "aaa");
+
+        List<Ec2Instance> result = Ec2InstanceMapper.toEc2Instances(generateReservations(instances), "name",
+                instance -> instance.getName().compareTo("f") > 0);
+
+        assertThat(result).hasSize(2);
+        assertThat(result.get(0).getName()).isEqualTo("kkk");
+        assertThat(result.get(1).getName()).isEqualTo("vvv");
+    }
+
+    @Test
+    void shouldMapMissingAttributesToNull() {
+        Instance instance = new Instance()
+                .withInstanceId("instanceId")
+                .withTags(new Tag("env", "prod"))
+                .withState(new InstanceState().withName(InstanceStateName.Running));
+
+        List<Ec2Instance> result = Ec2InstanceMapper.toEc2Instances(generateReservations(newArrayList(instance)));
+
+        assertThat(result).hasSize(1);
+        assertThat(result.get(0).getName()).isNull();
+        assertThat(result.get(0).getAvailabilityZone()).isNull();
+        assertThat(result.get(0).getPrivateIp()).isNull();
+        assertThat(result.get(0).getPublicIp()).isNull();
+        assertThat(result.get(0).getType()).isNull();
+        assertThat(result.get(0).getState()).isEqualTo("running");
+    }
+
+    @Test
+    void shouldUseFirstNameTagIgnoringKeyCase() {
+        Instance instance = generateInstance(null, "instanceId", null, null, null, null, null);
+        instance.setTags(newArrayList(new Tag("env", "prod"), new Tag("NAME", "first"), new Tag("Name", "second")));
+
+        List<Ec2Instance> result = Ec2InstanceMapper.toEc2Instances(generateReservations(newArrayList(instance)));
+
+        assertThat(result.get(0).getName()).isEqualTo("first");
+    }
+
+    @Test
+    void shouldMapInstancesOfAllReservations() {
+        List<Reservation> reservations = generateReservations(generateInstancesWithIds("c", "a"));
+        reservations.add(new Reservation().withInstances(generateInstancesWithIds("b")));
+        reservations.add(new Reservation());
+
+        List<Ec2Instance> result = Ec2InstanceMapper.toEc2Instances(reservations);
+
+        assertThat(result).extracting("instanceId").containsExactly("a", "b", "c");
+    }
+
+    @Test
+    void shouldKeepDescribeOrderOfEqualSortKeys() {
+        List<Instance> instances = generateInstancesWithIds("c", "a", "b");
+        instances.forEach(instance -> instance.getState().setName("running"));
+
+        List<Ec2Instance> result = Ec2InstanceMapper.toEc2Instances(generateReservations(instances), "state");
+
+        assertThat(result).extracting("instanceId").containsExactly("c", "a", "b");
+    }
+
+    @Test
+    void shouldMapRequestedFieldsOnly() {
+        Instance instance = generateInstance("myInstance", "instanceId", "eu-west-1a", "t3.micro", "running", "1.1.1.1", "2.2.2.2");
+
+        List<Ec2Instance> result = Ec2InstanceMapper.toEc2Instances(generateReservations(newArrayList(instance)), null,
+                Ec2InstanceMapper.ALL, InstanceFields.of(Arrays.asList("instanceId", "state")));
+
+        assertThat(result).extracting("instanceId", "state", "name", "type", "availabilityZone", "privateIp", "publicIp")
+                .containsExactly(tuple("instanceId", "running", null, null, null, null, null));
+    }
+
+    @Test
+    void shouldSortByKeyWhichIsNotRequested() {
+        List<Instance> instances = generateInstancesWithNames("kkk", "vvv", "eee", "aaa");
+        for (int i = 0; i < instances.size(); i++) {
+            instances.get(i).setInstanceId("id" + i);
+        }
+
+        List<Ec2Instance> result = Ec2InstanceMapper.toEc2Instances(generateReservations(instances), "name",
+                Ec2InstanceMapper.ALL, InstanceFields.of(Collections.singletonList("instanceId")));
+
+        assertThat(result).extracting("instanceId").containsExactly("id3", "id2", "id0", "id1");
+        assertThat(result).extracting("name").containsOnly((Object) null);
+    }
+
+    @Test
+    void shouldFilterOnNameWhichIsNotRequested() {
+        List<Instance> instances = generateInstancesWithNames("kkk", "vvv");
+
+        List<Ec2Instance> result = Ec2InstanceMapper.toEc2Instances(generateReservations(instances), null,
+                InstanceFilter.builder().name("K").build().toPredicate(), InstanceFields.of(Collections.singletonList("state")));
+
+        assertThat(result).hasSize(1);
+        assertThat(result.get(0).getName()).isNull();
+        assertThat(result.get(0).getState()).isNotNull();
+    }
+
     private List<Reservation> generateReservations(List<Instance> instances) {
         List<Reservation> result = new ArrayList<>();
         result.add(new Reservation().withInstances(instances));
@@ -0,0 +1,164 @@
+package com.cisco.ec2;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class Ec2RateLimiterTest {
+
+    private static final String REGION = "eu-west-1";
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Ec2RateLimiter rateLimiter = new Ec2RateLimiter(1, 20, 0.5, 0.5, 5000, 3, 1, 10, meterRegistry);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    void shouldRetryThrottledCallAndBackOffRate() {
+        String result = rateLimiter.execute(REGION, () -> {
+            if (calls.incrementAndGet() < 3) {
+                throw exception("RequestLimitExceeded", 503);
+            }
+            return "result";
+        });
+
+        assertThat(result).isEqualTo("result");
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(rateLimiter.getRate(REGION)).isEqualTo(5.5);
+        assertThat(rateLimiter.getRegions()).containsExactly(REGION);
+        assertThat(meterRegistry.get("ec2.rate-limit.rate").tag("region", REGION).gauge().value()).isEqualTo(5.5);
+        assertThat(meterRegistry.get("ec2.rate-limit.queue").tag("region", REGION).gauge().value()).isEqualTo(0);
+        assertThat(meterRegistry.get("ec2.rate-limit.throttled").tag("region", REGION).timeGauge().value()).isGreaterThanOrEqualTo(0);
+    }
+
+    @Test
+    void shouldRetryServerAndIoFailures() {
+        String result = rateLimiter.execute(REGION, () -> {
+            int call = calls.incrementAndGet();
+            if (call == 1) {
+                throw exception("InternalError", 500);
+            }
+            if (call == 2) {
+                throw new SdkClientException("Unable to execute HTTP request", new IOException("Connection reset"));
+            }
+            return "result";
+        });
+
+        assertThat(result).isEqualTo("result");
+        assertThat(rateLimiter.getRate(REGION)).isEqualTo(20);
+        assertThat(rateLimiter.getThrottledMillis(REGION)).isEqualTo(0);
+    }
+
+    @Test
+    void shouldNotRetryClientErrors() {
+        AmazonServiceException invalid = exception("InvalidParameterValue", 400);
+
+        AmazonServiceException thrown = assertThrows(AmazonServiceException.class, () -> rateLimiter.execute(REGION, () -> {
+            calls.incrementAndGet();
+            throw invalid;
+        }));
+
+        assertThat(thrown).isSameAs(invalid);
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldNotRetryAbortedCall() {
+        assertThrows(AbortedException.class, () -> rateLimiter.execute(REGION, () -> {
+            calls.incrementAndGet();
+            throw new AbortedException();
+        }));
+
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldGiveUpAfterMaxRetries() {
+        AmazonServiceException throttled = exception("Throttling", 400);
+
+        AmazonServiceException thrown = assertThrows(AmazonServiceException.class, () -> rateLimiter.execute(REGION, () -> {
+            calls.incrementAndGet();
+            throw throttled;
+        }));
+
+        assertThat(thrown).isSameAs(throttled);
+        assertThat(calls.get()).isEqualTo(4);
+        assertThat(rateLimiter.getRate(REGION)).isEqualTo(1.25);
+        assertThat(rateLimiter.getThrottledMillis(REGION)).isGreaterThanOrEqualTo(0);
+        assertThat(rateLimiter.getQueueDepth(REGION)).isEqualTo(0);
+    }
+
+    @Test
+    void shouldGiveUpRetryingAtDeadline() {
+        Ec2RateLimiter shortDeadline = new Ec2RateLimiter(1, 20, 0.5, 0.5, 0, 3, 1, 10, meterRegistry);
+
+        assertThrows(AmazonServiceException.class, () -> shortDeadline.execute(REGION, () -> {
+            calls.incrementAndGet();
+            throw exception("RequestLimitExceeded", 503);
+        }));
+
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldGiveUpRetryingAtRequestDeadline() {
+        Deadline.set(Deadline.in(0));
+        try {
+            assertThrows(AmazonServiceException.class, () -> rateLimiter.execute(REGION, () -> {
+                calls.incrementAndGet();
+                throw exception("RequestLimitExceeded", 503);
+            }));
+        } finally {
+            Deadline.clear();
+        }
+
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRetryThrottledAsyncCall() throws Exception {
+        CompletableFuture<String> result = rateLimiter.executeAsync(REGION, () -> {
+            CompletableFuture<String> call = new CompletableFuture<>();
+            if (calls.incrementAndGet() < 3) {
+                call.completeExceptionally(exception("RequestLimitExceeded", 503));
+            } else {
+                call.complete("result");
+            }
+            return call;
+        });
+
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("result");
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(rateLimiter.getRate(REGION)).isEqualTo(5.5);
+        assertThat(rateLimiter.getQueueDepth(REGION)).isEqualTo(0);
+    }
+
+    @Test
+    void shouldNotRetryAsyncClientErrors() {
+        AmazonServiceException invalid = exception("InvalidParameterValue", 400);
+
+        CompletableFuture<String> result = rateLimiter.executeAsync(REGION, () -> {
+            calls.incrementAndGet();
+            throw invalid;
+        });
+
+        assertThat(assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS)).getCause()).isSameAs(invalid);
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    private static AmazonServiceException exception(String errorCode, int status) {
+        AmazonServiceException exception = new AmazonServiceException(errorCode);
+        exception.setErrorCode(errorCode);
+        exception.setStatusCode(status);
+        return exception;
+    }
+}
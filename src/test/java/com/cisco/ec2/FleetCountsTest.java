@@ -0,0 +1,87 @@
+package com.cisco.ec2;
+
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.amazonaws.services.ec2.model.Placement;
+import com.amazonaws.services.ec2.model.Tag;
+import com.cisco.ec2.model.Ec2Instance;
+import com.cisco.ec2.model.GetEc2CountsResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class FleetCountsTest {
+
+    @Test
+    void shouldCountByStateTypeAndAvailabilityZone() {
+        FleetCounts counts = new FleetCounts();
+        counts.add(instance("running", "t3.micro", "eu-west-1a"));
+        counts.add(instance("running", "m5.large", "eu-west-1b"));
+        counts.add(instance("stopped", "t3.micro", "eu-west-1a"));
+
+        GetEc2CountsResponse response = counts.toResponse();
+
+        assertThat(response.getTotal()).isEqualTo(3L);
+        assertThat(response.getStates()).containsExactly(entry("running", 2L), entry("stopped", 1L));
+        assertThat(response.getTypes()).containsExactly(entry("m5.large", 1L), entry("t3.micro", 2L));
+        assertThat(response.getAvailabilityZones()).containsExactly(entry("eu-west-1a", 2L), entry("eu-west-1b", 1L));
+        assertThat(response.getTags()).isNull();
+    }
+
+    @Test
+    void shouldCountRequestedTagKeysOnly() {
+        FleetCounts counts = new FleetCounts(Arrays.asList("team", "env"));
+        counts.add(instance("running", "t3.micro", "eu-west-1a").withTags(new Tag("team", "infra"), new Tag("owner", "bob")));
+        counts.add(instance("running", "t3.micro", "eu-west-1a").withTags(new Tag("team", "infra"), new Tag("env", "prod")));
+        counts.add(instance("running", "t3.micro", "eu-west-1a"));
+
+        GetEc2CountsResponse response = counts.toResponse();
+
+        assertThat(response.getTags()).containsOnlyKeys("team", "env");
+        assertThat(response.getTags().get("team")).containsExactly(entry("infra", 2L));
+        assertThat(response.getTags().get("env")).containsExactly(entry("prod", 1L));
+    }
+
+    @Test
+    void shouldCountInstancesWithoutValuesInTotalOnly() {
+        FleetCounts counts = new FleetCounts(Collections.singletonList("team"));
+        counts.add(new Instance());
+
+        GetEc2CountsResponse response = counts.toResponse();
+
+        assertThat(response.getTotal()).isEqualTo(1L);
+        assertThat(response.getStates()).isEmpty();
+        assertThat(response.getAvailabilityZones()).isEmpty();
+        assertThat(response.getTags().get("team")).isEmpty();
+    }
+
+    @Test
+    void shouldRemoveInstancesFromCopyOnly() {
+        FleetCounts counts = new FleetCounts();
+        counts.add(ec2Instance("running"));
+        counts.add(ec2Instance("stopped"));
+
+        FleetCounts copy = counts.copy();
+        copy.remove(ec2Instance("stopped"));
+        copy.add(ec2Instance("running"));
+
+        assertThat(copy.toResponse().getStates()).containsExactly(entry("running", 2L));
+        assertThat(copy.getTotal()).isEqualTo(2L);
+        assertThat(counts.toResponse().getStates()).containsExactly(entry("running", 1L), entry("stopped", 1L));
+    }
+
+    private static Instance instance(String state, String type, String availabilityZone) {
+        return new Instance()
+                .withState(new InstanceState().withName(state))
+                .withInstanceType(type)
+                .withPlacement(new Placement(availabilityZone));
+    }
+
+    private static Ec2Instance ec2Instance(String state) {
+        return Ec2Instance.builder().state(state).type("t3.micro").availabilityZone("eu-west-1a").build();
+    }
+}
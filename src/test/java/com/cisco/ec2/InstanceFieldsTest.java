@@ -0,0 +1,63 @@
+package com.cisco.ec2;
+
+import com.cisco.ec2.model.Ec2Instance;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class InstanceFieldsTest {
+
+    private final Ec2Instance instance = new Ec2Instance("name", "id", "running", "t3.micro", "eu-west-1a", "10.0.0.1", "54.0.0.1");
+
+    @Test
+    void shouldRequestAllFieldsWhenNotSet() {
+        assertThat(InstanceFields.of(null)).isSameAs(InstanceFields.ALL);
+        assertThat(InstanceFields.of(Collections.emptyList())).isSameAs(InstanceFields.ALL);
+        assertThat(InstanceFields.of(Arrays.asList("name", "instanceId", "state", "type", "availabilityZone", "privateIp", "publicIp")).isAll()).isTrue();
+    }
+
+    @Test
+    void shouldContainRequestedFieldsOnly() {
+        InstanceFields fields = InstanceFields.of(Arrays.asList("instanceId", "state"));
+
+        assertThat(fields.contains(InstanceFields.INSTANCE_ID)).isTrue();
+        assertThat(fields.contains(InstanceFields.STATE)).isTrue();
+        assertThat(fields.contains(InstanceFields.NAME)).isFalse();
+        assertThat(fields.isAll()).isFalse();
+    }
+
+    @Test
+    void shouldAddFieldOnlyWhenMissing() {
+        InstanceFields fields = InstanceFields.of(Collections.singletonList("instanceId"));
+
+        assertThat(fields.with("instanceId")).isSameAs(fields);
+        assertThat(fields.with("name").contains(InstanceFields.NAME)).isTrue();
+        assertThat(fields.contains(InstanceFields.NAME)).isFalse();
+    }
+
+    @Test
+    void shouldProjectInstances() {
+        List<Ec2Instance> projected = InstanceFields.of(Arrays.asList("instanceId", "publicIp")).project(Collections.singletonList(instance));
+
+        assertThat(projected).extracting("name", "instanceId", "state", "type", "availabilityZone", "privateIp", "publicIp")
+                .containsExactly(tuple(null, "id", null, null, null, null, "54.0.0.1"));
+    }
+
+    @Test
+    void shouldNotCopyInstancesWhenAllFieldsRequested() {
+        List<Ec2Instance> instances = Collections.singletonList(instance);
+
+        assertThat(InstanceFields.ALL.project(instances)).isSameAs(instances);
+    }
+
+    @Test
+    void shouldRejectUnknownField() {
+        assertThrows(IllegalArgumentException.class, () -> InstanceFields.of(Collections.singletonList("vpcId")));
+    }
+}
@@ -0,0 +1,73 @@
+package com.cisco.ec2;
+
+import com.amazonaws.services.ec2.model.Filter;
+import com.cisco.ec2.model.Ec2Instance;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InstanceFilterTest {
+
+    @Test
+    void shouldNotCreateFiltersWhenNothingIsSet() {
+        assertThat(InstanceFilter.NONE.toEc2Filters()).isEmpty();
+        assertThat(InstanceFilter.NONE.toPredicate().test(Ec2Instance.builder().build())).isTrue();
+    }
+
+    @Test
+    void shouldGroupTagValuesByKey() {
+        InstanceFilter filter = InstanceFilter.builder()
+                .tags(Arrays.asList("env=prod", "team", "env=dev", "owner=", "cost=a=b"))
+                .build();
+
+        assertThat(filter.toEc2Filters()).containsExactly(
+                new Filter("tag:env").withValues("prod", "dev"),
+                new Filter("tag-key").withValues("team"),
+                new Filter("tag:owner").withValues(""),
+                new Filter("tag:cost").withValues("a=b"));
+    }
+
+    @Test
+    void shouldCreateFilterPerAttribute() {
+        InstanceFilter filter = InstanceFilter.builder()
+                .states(Collections.singletonList("running"))
+                .types(Collections.singletonList("t2.micro"))
+                .availabilityZones(Collections.singletonList("eu-west-1a"))
+                .vpcIds(Collections.singletonList("vpc-1"))
+                .build();
+
+        assertThat(filter.toEc2Filters()).containsExactly(
+                new Filter("instance-state-name").withValues("running"),
+                new Filter("instance-type").withValues("t2.micro"),
+                new Filter("availability-zone").withValues("eu-west-1a"),
+                new Filter("vpc-id").withValues("vpc-1"));
+    }
+
+    @Test
+    void shouldMatchNamePrefixIgnoringCase() {
+        InstanceFilter filter = InstanceFilter.builder().name("Web").build();
+
+        assertThat(filter.toEc2Filters()).isEmpty();
+        assertThat(filter.toPredicate().test(Ec2Instance.builder().name("webserver").build())).isTrue();
+        assertThat(filter.toPredicate().test(Ec2Instance.builder().name("db").build())).isFalse();
+        assertThat(filter.toPredicate().test(Ec2Instance.builder().build())).isFalse();
+    }
+
+    @Test
+    void shouldMatchMappedInstances() {
+        InstanceFilter filter = InstanceFilter.builder()
+                .states(Arrays.asList("running", "pending"))
+                .availabilityZones(Collections.singletonList("eu-west-1a"))
+                .name("web")
+                .build();
+
+        assertThat(filter.toInstancePredicate().test(Ec2Instance.builder().name("Web-1").state("running").type("t3.micro").availabilityZone("eu-west-1a").build())).isTrue();
+        assertThat(filter.toInstancePredicate().test(Ec2Instance.builder().name("web-1").state("stopped").availabilityZone("eu-west-1a").build())).isFalse();
+        assertThat(filter.toInstancePredicate().test(Ec2Instance.builder().name("web-1").state("pending").availabilityZone("eu-west-1b").build())).isFalse();
+        assertThat(filter.toInstancePredicate().test(Ec2Instance.builder().name("db-1").state("running").availabilityZone("eu-west-1a").build())).isFalse();
+        assertThat(InstanceFilter.NONE.toInstancePredicate().test(Ec2Instance.builder().build())).isTrue();
+    }
+}
@@ -0,0 +1,199 @@
+package com.cisco.ec2;
+
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.amazonaws.services.ec2.model.Tag;
+import com.cisco.ec2.model.Ec2Instance;
+import com.cisco.ec2.util.Ec2ModelGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class InstanceWatcherTest {
+
+    private static final String REGION = "eu-west-1";
+    private static final Predicate<Ec2Instance> ALL = instance -> true;
+    private final Ec2InstanceService ec2InstanceService = mock(Ec2InstanceService.class);
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final List<RecordingEmitter> emitters = new CopyOnWriteArrayList<>();
+    private final CountDownLatch sent = new CountDownLatch(1);
+    private final AtomicReference<Instance[]> fleet = new AtomicReference<>();
+    private InstanceWatcher watcher;
+
+    @BeforeEach
+    void setUp() {
+        when(ec2InstanceService.describeInstances(eq(REGION), any())).thenAnswer(invocation -> Ec2ModelGenerator.generateInstancesResult(fleet.get()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        sent.countDown();
+        watcher.shutdown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldSendChangesMatchingFilterOfEachSubscriber() throws Exception {
+        givenInstances(instance("a", "running"), instance("b", "stopped"));
+        RegionInventoryCache cache = cache(45000);
+        watcher = watcher(cache, 10, 60000);
+        watcher.watch(REGION, ALL);
+        watcher.watch(REGION, instance -> "running".equals(instance.getState()));
+        sent.countDown();
+
+        cache.applyStateChange(REGION, "a", "stopping", System.currentTimeMillis());
+        cache.applyStateChange(REGION, "b", "pending", System.currentTimeMillis());
+        cache.applyStateChange(REGION, "b", "running", System.currentTimeMillis());
+
+        long version = cache.get(REGION).getVersion();
+        assertThat(emitters.get(0).await(4)).containsExactly(
+                "event:snapshot\nid:" + (version - 3) + "\ndata:" + (version - 3) + "\n\n",
+                "event:changed\nid:" + (version - 2) + "\ndata:{\"name\":\"a\",\"instanceId\":\"a\",\"state\":\"stopping\"}\n\n",
+                "event:changed\nid:" + (version - 1) + "\ndata:{\"name\":\"b\",\"instanceId\":\"b\",\"state\":\"pending\"}\n\n",
+                "event:changed\nid:" + version + "\ndata:{\"name\":\"b\",\"instanceId\":\"b\",\"state\":\"running\"}\n\n");
+        assertThat(emitters.get(1).await(3)).containsExactly(
+                "event:snapshot\nid:" + (version - 3) + "\ndata:" + (version - 3) + "\n\n",
+                "event:removed\nid:" + (version - 2) + "\ndata:{\"name\":\"a\",\"instanceId\":\"a\",\"state\":\"stopping\"}\n\n",
+                "event:added\nid:" + version + "\ndata:{\"name\":\"b\",\"instanceId\":\"b\",\"state\":\"running\"}\n\n");
+    }
+
+    @Test
+    void shouldSendChangesFoundByRefresh() throws Exception {
+        givenInstances(instance("a", "running"));
+        RegionInventoryCache cache = cache(50);
+        watcher = watcher(cache, 10, 20);
+        watcher.watch(REGION, ALL);
+        sent.countDown();
+
+        givenInstances(instance("b", "running"));
+
+        List<String> events = emitters.get(0).await(3);
+        assertThat(events.get(1)).startsWith("event:removed\n").contains("\"instanceId\":\"a\"");
+        assertThat(events.get(2)).startsWith("event:added\n").contains("\"instanceId\":\"b\"");
+    }
+
+    @Test
+    void shouldEndStreamOfSubscriberFallingBehind() throws Exception {
+        givenInstances(instance("a", "running"));
+        RegionInventoryCache cache = cache(45000);
+        watcher = watcher(cache, 2, 60000);
+        watcher.watch(REGION, ALL);
+
+        for (String state : new String[]{"stopping", "stopped", "pending", "running", "stopping"}) {
+            cache.applyStateChange(REGION, "a", state, System.currentTimeMillis());
+        }
+        watcher.awaitPublished();
+        sent.countDown();
+
+        for (int i = 0; i < 100 && watcher.getSubscriberCount() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertThat(watcher.getSubscriberCount()).isZero();
+        List<String> events = emitters.get(0).events;
+        assertThat(events.get(events.size() - 1)).isEqualTo("event:overflow\ndata:2\n\n");
+        assertThat(events.size()).isLessThanOrEqualTo(3);
+    }
+
+    @Test
+    void shouldEndStreamOfRegionLoadedAnew() throws Exception {
+        givenInstances(instance("a", "running"));
+        when(ec2InstanceService.describeInstances(eq("us-east-1"), any())).thenAnswer(invocation -> Ec2ModelGenerator.generateInstancesResult(fleet.get()));
+        RegionInventoryCache cache = cache(45000, 1);
+        watcher = watcher(cache, 10, 60000);
+        watcher.watch(REGION, ALL);
+        sent.countDown();
+        long watched = cache.get(REGION).getVersion();
+
+        Thread.sleep(5);
+        cache.get("us-east-1");
+        long loaded = cache.get(REGION).getVersion();
+
+        List<String> events = emitters.get(0).await(2);
+        assertThat(events).containsExactly(
+                "event:snapshot\nid:" + watched + "\ndata:" + watched + "\n\n",
+                "event:resync\nid:" + loaded + "\ndata:" + loaded + "\n\n");
+        for (int i = 0; i < 100 && watcher.getSubscriberCount() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertThat(watcher.getSubscriberCount()).isZero();
+    }
+
+    private InstanceWatcher watcher(RegionInventoryCache cache, int bufferSize, long pollMillis) {
+        return new InstanceWatcher(cache, new ObjectMapper(), bufferSize, pollMillis, 60000, 2) {
+            @Override
+            SseEmitter createEmitter() {
+                RecordingEmitter emitter = new RecordingEmitter(sent);
+                emitters.add(emitter);
+                return emitter;
+            }
+        };
+    }
+
+    private RegionInventoryCache cache(long refreshAfter) {
+        return cache(refreshAfter, 32);
+    }
+
+    private RegionInventoryCache cache(long refreshAfter, int maxRegions) {
+        return new RegionInventoryCache(ec2InstanceService, executor, 60000, refreshAfter, 200, maxRegions, 1000, 60000, 16, 1000);
+    }
+
+    private void givenInstances(Instance... instances) {
+        fleet.set(instances);
+    }
+
+    private static Instance instance(String id, String state) {
+        return new Instance().withInstanceId(id)
+                .withTags(new Tag(Ec2InstanceMapper.NAME_TAG, id))
+                .withState(new InstanceState().withName(state));
+    }
+
+    /**
+     * Records the events sent, without keep-alive comments, once sending is released.
+     */
+    private static class RecordingEmitter extends SseEmitter {
+        private final List<String> events = new CopyOnWriteArrayList<>();
+        private final CountDownLatch released;
+
+        private RecordingEmitter(CountDownLatch released) {
+            this.released = released;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            String event = builder.build().stream().map(part -> part.getData().toString()).collect(Collectors.joining());
+            if (!event.startsWith(":")) {
+                events.add(event);
+            }
+        }
+
+        private List<String> await(int count) throws InterruptedException {
+            for (int i = 0; i < 100 && events.size() < count; i++) {
+                Thread.sleep(50);
+            }
+            return events;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.cisco.ec2;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeRegionsResult;
+import com.amazonaws.services.ec2.model.Region;
+import com.cisco.ec2.model.Ec2Instance;
+import com.cisco.ec2.model.GetEc2CountsResponse;
+import com.cisco.ec2.model.GetEc2Response;
+import com.cisco.ec2.model.GetMultiRegionEc2CountsResponse;
+import com.cisco.ec2.model.GetMultiRegionEc2Response;
+import com.cisco.ec2.model.RegionEc2CountsResponse;
+import com.cisco.ec2.model.RegionEc2Response;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MultiRegionEc2ServiceTest {
+
+    private final Ec2InstanceService ec2InstanceService = mock(Ec2InstanceService.class);
+    private final Ec2FleetCounter ec2FleetCounter = mock(Ec2FleetCounter.class);
+    private final Ec2ClientProvider ec2ClientProvider = mock(Ec2ClientProvider.class);
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final Ec2RateLimiter ec2RateLimiter = new Ec2RateLimiter(1, 20, 0.5, 0.5, 5000, 0, 1, 10, new SimpleMeterRegistry());
+    private final Ec2CircuitBreaker ec2CircuitBreaker = new Ec2CircuitBreaker(1, 60000, new SimpleMeterRegistry());
+    private final MultiRegionEc2Service multiRegionEc2Service = service(executor, 500, 60000);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldQueryRegionsConcurrently() throws InterruptedException {
+        when(ec2InstanceService.getInstances("eu-west-1", null, null, null, InstanceFilter.NONE, InstanceFields.ALL)).thenAnswer(invocation -> slowResponse(300));
+        when(ec2InstanceService.getInstances("us-east-1", null, null, null, InstanceFilter.NONE, InstanceFields.ALL)).thenAnswer(invocation -> slowResponse(300));
+        when(ec2InstanceService.getInstances("ap-south-1", null, null, null, InstanceFilter.NONE, InstanceFields.ALL)).thenAnswer(invocation -> slowResponse(300));
+
+        long start = System.currentTimeMillis();
+        GetMultiRegionEc2Response response = multiRegionEc2Service.getInstances(Arrays.asList("eu-west-1", "us-east-1", "ap-south-1"), null, null, InstanceFilter.NONE, InstanceFields.ALL);
+
+        assertThat(System.currentTimeMillis() - start).isLessThan(800);
+        assertThat(response.getRegions()).hasSize(3);
+        response.getRegions().forEach(region -> assertThat(region.getInstances()).hasSize(1));
+    }
+
+    @Test
+    void shouldReportTimedOutRegion() throws InterruptedException {
+        when(ec2InstanceService.getInstances("eu-west-1", null, null, null, InstanceFilter.NONE, InstanceFields.ALL)).thenAnswer(invocation -> slowResponse(0));
+        when(ec2InstanceService.getInstances("us-east-1", null, null, null, InstanceFilter.NONE, InstanceFields.ALL)).thenAnswer(invocation -> slowResponse(5000));
+
+        GetMultiRegionEc2Response response = multiRegionEc2Service.getInstances(Arrays.asList("eu-west-1", "us-east-1"), null, null, InstanceFilter.NONE, InstanceFields.ALL);
+
+        assertThat(response.getRegions().get(0).getInstances()).hasSize(1);
+        RegionEc2Response timedOut = response.getRegions().get(1);
+        assertThat(timedOut.getInstances()).isNull();
+        assertThat(timedOut.getError().getStatus()).isEqualTo(504);
+        assertThat(timedOut.getError().getErrorMessage()).isEqualTo("Downstream timeout");
+    }
+
+    @Test
+    void shouldReportFailedRegions() throws InterruptedException {
+        AmazonServiceException exception = new AmazonServiceException("error");
+        exception.setStatusCode(503);
+        exception.setRequestId("abc");
+        when(ec2InstanceService.getInstances("eu-west-1", null, null, null, InstanceFilter.NONE, InstanceFields.ALL)).thenThrow(exception);
+        when(ec2InstanceService.getInstances("us-east-1", null, null, null, InstanceFilter.NONE, InstanceFields.ALL)).thenThrow(new InvalidRegionException("us-east-1"));
+        when(ec2InstanceService.getInstances("ap-south-1", null, null, null, InstanceFilter.NONE, InstanceFields.ALL)).thenThrow(new RuntimeException("error"));
+
+        GetMultiRegionEc2Response response = multiRegionEc2Service.getInstances(Arrays.asList("eu-west-1", "us-east-1", "ap-south-1"), null, null, InstanceFilter.NONE, InstanceFields.ALL);
+
+        assertThat(response.getRegions().get(0).getError().getStatus()).isEqualTo(503);
+        assertThat(response.getRegions().get(0).getError().getRequestId()).isEqualTo("abc");
+        assertThat(response.getRegions().get(1).getError().getStatus()).isEqualTo(400);
+        assertThat(response.getRegions().get(2).getError().getStatus()).isEqualTo(500);
+    }
+
+    @Test
+    void shouldCountRegionsConcurrently() throws InterruptedException {
+        when(ec2FleetCounter.count("eu-west-1", Collections.singletonList("team"))).thenReturn(GetEc2CountsResponse.builder()
+                .total(2L)
+                .states(Collections.singletonMap("running", 2L))
+                .tags(Collections.singletonMap("team", Collections.singletonMap("infra", 2L)))
+                .build());
+        when(ec2FleetCounter.count("us-east-1", Collections.singletonList("team"))).thenThrow(new CircuitOpenException("us-east-1", 1000));
+
+        GetMultiRegionEc2CountsResponse response = multiRegionEc2Service.getCounts(Arrays.asList("eu-west-1", "us-east-1"), Collections.singletonList("team"));
+
+        RegionEc2CountsResponse counted = response.getRegions().get(0);
+        assertThat(counted.getRegion()).isEqualTo("eu-west-1");
+        assertThat(counted.getTotal()).isEqualTo(2L);
+        assertThat(counted.getStates()).containsEntry("running", 2L);
+        assertThat(counted.getTags().get("team")).containsEntry("infra", 2L);
+        assertThat(counted.getError()).isNull();
+        RegionEc2CountsResponse failed = response.getRegions().get(1);
+        assertThat(failed.getTotal()).isNull();
+        assertThat(failed.getError().getStatus()).isEqualTo(503);
+    }
+
+    @Test
+    void shouldReportRegionsTheExecutorHasNoRoomForAsUnavailable() throws InterruptedException {
+        ExecutorService boundedExecutor = new Ec2Configuration().ec2Executor(1, 1, false);
+        MultiRegionEc2Service boundedService = service(boundedExecutor, 2000, 60000);
+        when(ec2InstanceService.getInstances(anyString(), isNull(), isNull(), isNull(), eq(InstanceFilter.NONE), eq(InstanceFields.ALL))).thenAnswer(invocation -> slowResponse(100));
+
+        GetMultiRegionEc2Response response = boundedService.getInstances(Arrays.asList("eu-west-1", "us-east-1", "ap-south-1"), null, null, InstanceFilter.NONE, InstanceFields.ALL);
+        boundedExecutor.shutdownNow();
+
+        assertThat(response.getRegions().get(0).getInstances()).hasSize(1);
+        assertThat(response.getRegions().get(1).getInstances()).hasSize(1);
+        RegionEc2Response rejected = response.getRegions().get(2);
+        assertThat(rejected.getInstances()).isNull();
+        assertThat(rejected.getError().getStatus()).isEqualTo(503);
+    }
+
+    @Test
+    void shouldQueryRegionsBeyondPoolSizeConcurrentlyOnVirtualThreads() throws InterruptedException {
+        ExecutorService virtualExecutor = new Ec2Configuration().ec2Executor(1, 1, true);
+        MultiRegionEc2Service virtualService = service(virtualExecutor, 500, 60000);
+        List<String> regions = IntStream.range(0, 32).mapToObj(i -> "region-" + i).collect(Collectors.toList());
+        Set<Boolean> virtual = ConcurrentHashMap.newKeySet();
+        when(ec2InstanceService.getInstances(anyString(), isNull(), isNull(), isNull(), eq(InstanceFilter.NONE), eq(InstanceFields.ALL))).thenAnswer(invocation -> {
+            virtual.add(Thread.currentThread().isVirtual());
+            return slowResponse(300);
+        });
+
+        long start = System.currentTimeMillis();
+        GetMultiRegionEc2Response response = virtualService.getInstances(regions, null, null, InstanceFilter.NONE, InstanceFields.ALL);
+        virtualExecutor.shutdownNow();
+
+        assertThat(System.currentTimeMillis() - start).isLessThan(800);
+        assertThat(response.getRegions()).hasSize(32);
+        response.getRegions().forEach(region -> assertThat(region.getInstances()).hasSize(1));
+        assertThat(virtual).containsExactly(true);
+    }
+
+    @Test
+    void shouldCacheEnabledRegionsForTtl() {
+        AmazonEC2 ec2 = mock(AmazonEC2.class);
+        when(ec2ClientProvider.getClient("eu-west-1")).thenReturn(ec2);
+        when(ec2.describeRegions()).thenReturn(regions("us-east-1", "eu-west-1"));
+
+        assertThat(multiRegionEc2Service.getEnabledRegions()).containsExactly("eu-west-1", "us-east-1");
+        assertThat(multiRegionEc2Service.getEnabledRegions()).containsExactly("eu-west-1", "us-east-1");
+        verify(ec2, times(1)).describeRegions();
+
+        MultiRegionEc2Service expiringService = service(executor, 500, 0);
+        expiringService.getEnabledRegions();
+        expiringService.getEnabledRegions();
+        verify(ec2, times(3)).describeRegions();
+    }
+
+    @Test
+    void shouldServePreviousRegionsWhenDescribingThemFails() {
+        AmazonEC2 ec2 = mock(AmazonEC2.class);
+        when(ec2ClientProvider.getClient("eu-west-1")).thenReturn(ec2);
+        AmazonServiceException exception = new AmazonServiceException("error");
+        exception.setStatusCode(500);
+        when(ec2.describeRegions()).thenReturn(regions("us-east-1")).thenThrow(exception);
+        MultiRegionEc2Service expiringService = service(executor, 500, 0);
+
+        assertThat(expiringService.getEnabledRegions()).containsExactly("us-east-1");
+        assertThat(expiringService.getEnabledRegions()).containsExactly("us-east-1");
+        assertThat(ec2CircuitBreaker.getState("eu-west-1")).isEqualTo("OPEN");
+        assertThat(expiringService.getEnabledRegions()).containsExactly("us-east-1");
+        verify(ec2, times(2)).describeRegions();
+    }
+
+    @Test
+    void shouldNotDescribeRegionsWhileCircuitOfDefaultRegionIsOpen() {
+        AmazonEC2 ec2 = mock(AmazonEC2.class);
+        when(ec2ClientProvider.getClient("eu-west-1")).thenReturn(ec2);
+        AmazonServiceException exception = new AmazonServiceException("error");
+        exception.setStatusCode(500);
+        assertThrows(AmazonServiceException.class, () -> ec2CircuitBreaker.execute("eu-west-1", () -> {
+            throw exception;
+        }));
+
+        assertThrows(CircuitOpenException.class, multiRegionEc2Service::getEnabledRegions);
+        verify(ec2, never()).describeRegions();
+    }
+
+    private MultiRegionEc2Service service(ExecutorService executor, long timeoutMillis, long regionsTtlMillis) {
+        return new MultiRegionEc2Service(ec2InstanceService, ec2FleetCounter, ec2ClientProvider, executor, ec2RateLimiter, ec2CircuitBreaker,
+                "eu-west-1", timeoutMillis, regionsTtlMillis);
+    }
+
+    private static DescribeRegionsResult regions(String... names) {
+        return new DescribeRegionsResult().withRegions(Arrays.stream(names).map(name -> new Region().withRegionName(name)).collect(Collectors.toList()));
+    }
+
+    private static GetEc2Response slowResponse(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+        return GetEc2Response.builder()
+                .instances(Collections.singletonList(Ec2Instance.builder().instanceId("id").build()))
+                .build();
+    }
+}
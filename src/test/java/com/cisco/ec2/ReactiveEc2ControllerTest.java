@@ -0,0 +1,168 @@
+package com.cisco.ec2;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.ec2.AmazonEC2Async;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.amazonaws.services.ec2.model.InstanceStateName;
+import com.amazonaws.services.ec2.model.Placement;
+import com.amazonaws.services.ec2.model.Tag;
+import com.cisco.ec2.util.Ec2ModelGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import static com.cisco.ec2.Ec2InstanceMapper.NAME_TAG;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(SpringExtension.class)
+@WebFluxTest(ReactiveEc2Controller.class)
+@ActiveProfiles(ReactiveEc2Configuration.REACTIVE_PROFILE)
+@Import({Ec2InstanceService.class, Ec2RateLimiter.class, Ec2CircuitBreaker.class, SimpleMeterRegistry.class})
+@TestPropertySource(properties = {"ec2.retry.base-backoff-ms=1", "ec2.retry.max-backoff-ms=10"})
+class ReactiveEc2ControllerTest {
+
+    private static final String REGION = "eu-west-1";
+    @Autowired
+    private WebTestClient webTestClient;
+    @MockBean
+    private Ec2ClientProvider ec2ClientProvider;
+    @Mock
+    private AmazonEC2Async ec2Client;
+
+    @Test
+    void shouldReturnInstancesWithEtag() {
+        respond(new DescribeInstancesRequest(), Ec2ModelGenerator.generateInstancesResult(instance("i-1", "first")));
+
+        webTestClient.get().uri("/aws-api/v1/regions/{region}/ec2", REGION)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectHeader().valueMatches("ETag", "W/\".+\"")
+                .expectBody()
+                .jsonPath("$.instances.length()").isEqualTo(1)
+                .jsonPath("$.instances[0].instanceId").isEqualTo("i-1")
+                .jsonPath("$.instances[0].name").isEqualTo("first")
+                .jsonPath("$.instances[0].state").isEqualTo("running");
+    }
+
+    @Test
+    void shouldReturnInstancesAsCbor() throws Exception {
+        respond(new DescribeInstancesRequest(), Ec2ModelGenerator.generateInstancesResult(instance("i-1", "first")));
+
+        byte[] body = webTestClient.get().uri("/aws-api/v1/regions/{region}/ec2", REGION)
+                .accept(MediaType.APPLICATION_CBOR)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_CBOR)
+                .expectBody(byte[].class)
+                .returnResult().getResponseBody();
+
+        assertThat(new ObjectMapper(new CBORFactory()).readTree(body).at("/instances/0/instanceId").asText()).isEqualTo("i-1");
+    }
+
+    @Test
+    void shouldExportAllPagesAsNdjson() {
+        respond(new DescribeInstancesRequest().withMaxResults(1000),
+                Ec2ModelGenerator.generateInstancesResult(instance("i-1", "first"), instance("i-2", "second")).withNextToken("page2"));
+        respond(new DescribeInstancesRequest().withMaxResults(1000).withNextToken("page2"),
+                Ec2ModelGenerator.generateInstancesResult(instance("i-3", "third")));
+
+        String body = webTestClient.get().uri("/aws-api/v1/regions/{region}/ec2/export?fields=instanceId", REGION)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(Ec2InventoryExporter.NDJSON)
+                .expectBody(String.class)
+                .returnResult().getResponseBody();
+
+        assertThat(body.split("\n")).containsExactly("{\"instanceId\":\"i-1\"}", "{\"instanceId\":\"i-2\"}", "{\"instanceId\":\"i-3\"}");
+    }
+
+    @Test
+    void shouldEndExportWithErrorLineWhenLaterPageFails() {
+        respond(new DescribeInstancesRequest().withMaxResults(1000),
+                Ec2ModelGenerator.generateInstancesResult(instance("i-1", "first")).withNextToken("page2"));
+        AmazonServiceException forbidden = new AmazonServiceException("error");
+        forbidden.setStatusCode(403);
+        forbidden.setRequestId("123abc");
+        forbidden.setErrorType(AmazonServiceException.ErrorType.Service);
+        fail(new DescribeInstancesRequest().withMaxResults(1000).withNextToken("page2"), forbidden);
+
+        String body = webTestClient.get().uri("/aws-api/v1/regions/{region}/ec2/export?fields=instanceId", REGION)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .returnResult().getResponseBody();
+
+        String[] lines = body.split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(lines[1]).isEqualTo("{\"region\":\"eu-west-1\",\"error\":{\"errorMessage\":\"Downstream failure\",\"errorType\":\"Service\",\"status\":403,\"requestId\":\"123abc\"}}");
+    }
+
+    @Test
+    void shouldReportDownstreamFailureWithStatus() {
+        AmazonServiceException forbidden = new AmazonServiceException("error");
+        forbidden.setStatusCode(403);
+        forbidden.setRequestId("123abc");
+        fail(new DescribeInstancesRequest(), forbidden);
+
+        webTestClient.get().uri("/aws-api/v1/regions/{region}/ec2", REGION)
+                .exchange()
+                .expectStatus().isForbidden()
+                .expectBody()
+                .jsonPath("$.errorMessage").isEqualTo("Downstream failure")
+                .jsonPath("$.requestId").isEqualTo("123abc");
+    }
+
+    @Test
+    void shouldRejectInvalidParams() {
+        webTestClient.get().uri("/aws-api/v1/regions/{region}/ec2?size=1", REGION)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void respond(DescribeInstancesRequest request, DescribeInstancesResult result) {
+        when(ec2ClientProvider.getAsyncClient(REGION)).thenReturn(ec2Client);
+        doAnswer(invocation -> {
+            invocation.getArgument(1, AsyncHandler.class).onSuccess(request, result);
+            return null;
+        }).when(ec2Client).describeInstancesAsync(eq(request), any(AsyncHandler.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void fail(DescribeInstancesRequest request, Exception exception) {
+        when(ec2ClientProvider.getAsyncClient(REGION)).thenReturn(ec2Client);
+        doAnswer(invocation -> {
+            invocation.getArgument(1, AsyncHandler.class).onError(exception);
+            return null;
+        }).when(ec2Client).describeInstancesAsync(eq(request), any(AsyncHandler.class));
+    }
+
+    private static Instance instance(String instanceId, String name) {
+        return new Instance().withPlacement(new Placement(REGION))
+                .withInstanceId(instanceId)
+                .withInstanceType("t3.micro")
+                .withTags(new Tag(NAME_TAG, name))
+                .withState(new InstanceState().withName(InstanceStateName.Running));
+    }
+}
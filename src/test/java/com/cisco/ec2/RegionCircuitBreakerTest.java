@@ -0,0 +1,101 @@
+package com.cisco.ec2;
+
+import com.cisco.ec2.RegionCircuitBreaker.State;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RegionCircuitBreakerTest {
+
+    private final RegionCircuitBreaker breaker = new RegionCircuitBreaker("eu-west-1", 2, 50);
+
+    @Test
+    void shouldOpenAfterConsecutiveFailures() {
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+
+        breaker.onFailure();
+
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(breaker.getTransitions(State.OPEN)).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRejectCallsWhileOpen() {
+        open();
+
+        CircuitOpenException exception = assertThrows(CircuitOpenException.class, breaker::acquire);
+
+        assertThat(exception.getMessage()).isEqualTo("Circuit open for region: eu-west-1");
+        assertThat(exception.getRetryAfterMillis()).isBetween(0L, 50L);
+    }
+
+    @Test
+    void shouldIgnoreSuccessWhileOpen() {
+        open();
+
+        breaker.onSuccess();
+
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(breaker.getTransitions(State.CLOSED)).isZero();
+        assertThrows(CircuitOpenException.class, breaker::acquire);
+    }
+
+    @Test
+    void shouldLetSingleProbeThroughOnceOpenIntervalPassed() throws InterruptedException {
+        open();
+        Thread.sleep(60);
+
+        breaker.acquire();
+
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        assertThrows(CircuitOpenException.class, breaker::acquire);
+    }
+
+    @Test
+    void shouldCloseWhenProbeSucceeds() throws InterruptedException {
+        open();
+        Thread.sleep(60);
+        breaker.acquire();
+
+        breaker.onSuccess();
+
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        assertThat(breaker.getTransitions(State.HALF_OPEN)).isEqualTo(1);
+        assertThat(breaker.getTransitions(State.CLOSED)).isEqualTo(1);
+        breaker.acquire();
+    }
+
+    @Test
+    void shouldOpenAgainWhenProbeFails() throws InterruptedException {
+        open();
+        Thread.sleep(60);
+        breaker.acquire();
+
+        breaker.onFailure();
+
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(breaker.getTransitions(State.OPEN)).isEqualTo(2);
+        assertThrows(CircuitOpenException.class, breaker::acquire);
+    }
+
+    @Test
+    void shouldReleaseProbeWhenIgnored() throws InterruptedException {
+        open();
+        Thread.sleep(60);
+        breaker.acquire();
+
+        breaker.onIgnored();
+        breaker.acquire();
+
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+    }
+
+    private void open() {
+        breaker.onFailure();
+        breaker.onFailure();
+    }
+}
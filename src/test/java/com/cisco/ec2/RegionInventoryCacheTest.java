@@ -0,0 +1,348 @@
+package com.cisco.ec2;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.amazonaws.services.ec2.model.Placement;
+import com.amazonaws.services.ec2.model.Tag;
+import com.cisco.ec2.util.Ec2ModelGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.cisco.ec2.Ec2InstanceMapper.NAME_TAG;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RegionInventoryCacheTest {
+
+    private static final String REGION = "eu-west-1";
+    private final Ec2InstanceService ec2InstanceService = mock(Ec2InstanceService.class);
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldLoadAllPagesSortedByInstanceId() {
+        when(ec2InstanceService.describeInstances(REGION, new DescribeInstancesRequest().withMaxResults(1000)))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(instance("c"), instance("a")).withNextToken("page2"));
+        when(ec2InstanceService.describeInstances(REGION, new DescribeInstancesRequest().withMaxResults(1000).withNextToken("page2")))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(instance("b")));
+
+        RegionInventorySnapshot snapshot = cache(60000, 45000, 32, 1000).get(REGION);
+
+        assertThat(snapshot.getRegion()).isEqualTo(REGION);
+        assertThat(snapshot.getInstances()).extracting("instanceId").containsExactly("a", "b", "c");
+    }
+
+    @Test
+    void shouldServeCachedSnapshot() {
+        givenInstances(REGION, "a");
+        RegionInventoryCache cache = cache(60000, 45000, 32, 1000);
+
+        RegionInventorySnapshot first = cache.get(REGION);
+        RegionInventorySnapshot second = cache.get(REGION);
+
+        assertThat(second).isSameAs(first);
+        verify(ec2InstanceService, times(1)).describeInstances(eq(REGION), any());
+    }
+
+    @Test
+    void shouldRefreshInBackgroundBeforeExpiry() throws InterruptedException {
+        givenInstances(REGION, "a");
+        RegionInventoryCache cache = cache(60000, 50, 32, 1000);
+        RegionInventorySnapshot first = cache.get(REGION);
+        Thread.sleep(100);
+
+        RegionInventorySnapshot served = cache.get(REGION);
+        Thread.sleep(100);
+
+        verify(ec2InstanceService, times(2)).describeInstances(eq(REGION), any());
+        assertThat(served).isSameAs(first);
+        assertThat(cache.get(REGION).getVersion()).isGreaterThan(first.getVersion());
+    }
+
+    @Test
+    void shouldLoadExpiredSnapshot() throws InterruptedException {
+        givenInstances(REGION, "a");
+        RegionInventoryCache cache = cache(50, 50, 32, 1000);
+        RegionInventorySnapshot first = cache.get(REGION);
+        Thread.sleep(100);
+
+        RegionInventorySnapshot second = cache.get(REGION);
+
+        assertThat(second.getVersion()).isGreaterThan(first.getVersion());
+    }
+
+    @Test
+    void shouldReloadOnRequest() {
+        givenInstances(REGION, "a");
+        RegionInventoryCache cache = cache(60000, 45000, 32, 1000);
+        RegionInventorySnapshot first = cache.get(REGION);
+
+        RegionInventorySnapshot reloaded = cache.reload(REGION);
+
+        assertThat(reloaded.getVersion()).isGreaterThan(first.getVersion());
+        assertThat(cache.get(REGION)).isSameAs(reloaded);
+    }
+
+    @Test
+    void shouldKeepReplacedSnapshotsForCursors() {
+        givenInstances(REGION, "a");
+        RegionInventoryCache cache = cache(60000, 45000, 32, 1000);
+        RegionInventorySnapshot first = cache.get(REGION);
+        RegionInventorySnapshot second = cache.reload(REGION);
+        cache.reload(REGION);
+        cache.applyStateChange(REGION, "a", "stopping", System.currentTimeMillis());
+
+        assertThat(cache.get(REGION, first.getVersion())).isSameAs(first);
+        assertThat(cache.get(REGION, second.getVersion())).isSameAs(second);
+        assertThrows(ExpiredCursorException.class, () -> cache.get("us-east-1", second.getVersion()));
+    }
+
+    @Test
+    void shouldExpireReplacedSnapshotsAfterRetention() throws InterruptedException {
+        givenInstances(REGION, "a");
+        RegionInventoryCache cache = cache(60000, 45000, 32, 1000, 50, 16);
+        RegionInventorySnapshot first = cache.get(REGION);
+        RegionInventorySnapshot second = cache.reload(REGION);
+
+        assertThat(cache.get(REGION, first.getVersion())).isSameAs(first);
+
+        Thread.sleep(100);
+
+        assertThrows(ExpiredCursorException.class, () -> cache.get(REGION, first.getVersion()));
+        assertThat(cache.get(REGION, second.getVersion())).isSameAs(second);
+    }
+
+    @Test
+    void shouldKeepAtMostMaxVersionsOfRegion() {
+        givenInstances(REGION, "a");
+        RegionInventoryCache cache = cache(60000, 45000, 32, 1000, 60000, 2);
+        RegionInventorySnapshot first = cache.get(REGION);
+        RegionInventorySnapshot second = cache.reload(REGION);
+        RegionInventorySnapshot third = cache.reload(REGION);
+        cache.reload(REGION);
+
+        assertThrows(ExpiredCursorException.class, () -> cache.get(REGION, first.getVersion()));
+        assertThat(cache.get(REGION, second.getVersion())).isSameAs(second);
+        assertThat(cache.get(REGION, third.getVersion())).isSameAs(third);
+    }
+
+    @Test
+    void shouldLoadRegionOnceForConcurrentCallers() throws Exception {
+        when(ec2InstanceService.describeInstances(eq(REGION), any())).thenAnswer(invocation -> {
+            Thread.sleep(200);
+            return Ec2ModelGenerator.generateInstancesResult(instance("a"));
+        });
+        RegionInventoryCache cache = cache(60000, 45000, 32, 1000);
+        List<Callable<RegionInventorySnapshot>> callers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            callers.add(() -> cache.get(REGION));
+        }
+
+        List<Future<RegionInventorySnapshot>> results = executor.invokeAll(callers);
+
+        for (Future<RegionInventorySnapshot> result : results) {
+            assertThat(result.get()).isSameAs(results.get(0).get());
+        }
+        verify(ec2InstanceService, times(1)).describeInstances(eq(REGION), any());
+    }
+
+    @Test
+    void shouldPropagateLoadFailure() {
+        AmazonServiceException exception = new AmazonServiceException("error");
+        when(ec2InstanceService.describeInstances(eq(REGION), any())).thenThrow(exception);
+
+        AmazonServiceException thrown = assertThrows(AmazonServiceException.class, () -> cache(60000, 45000, 32, 1000).get(REGION));
+
+        assertThat(thrown).isSameAs(exception);
+    }
+
+    @Test
+    void shouldServeExpiredSnapshotWhenLoadFails() throws InterruptedException {
+        givenInstances(REGION, "a");
+        RegionInventoryCache cache = cache(50, 50, 32, 1000);
+        RegionInventorySnapshot first = cache.get(REGION);
+        when(ec2InstanceService.describeInstances(eq(REGION), any())).thenThrow(new CircuitOpenException(REGION, 1000));
+        Thread.sleep(100);
+
+        RegionInventorySnapshot served = cache.get(REGION);
+
+        assertThat(served).isSameAs(first);
+        assertThat(cache.isStale(served)).isTrue();
+    }
+
+    @Test
+    void shouldNotServeSnapshotPastMaxStaleAge() throws InterruptedException {
+        givenInstances(REGION, "a");
+        RegionInventoryCache cache = cache(50, 50, 32, 1000);
+        cache.get(REGION);
+        when(ec2InstanceService.describeInstances(eq(REGION), any())).thenThrow(new CircuitOpenException(REGION, 1000));
+        Thread.sleep(300);
+
+        assertThrows(CircuitOpenException.class, () -> cache.get(REGION));
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedRegionWhenTooManyRegions() throws InterruptedException {
+        givenInstances("eu-west-1", "a");
+        givenInstances("us-east-1", "b");
+        givenInstances("ap-south-1", "c");
+        RegionInventoryCache cache = cache(60000, 45000, 2, 1000);
+
+        cache.get("eu-west-1");
+        Thread.sleep(5);
+        cache.get("us-east-1");
+        Thread.sleep(5);
+        cache.get("ap-south-1");
+        cache.get("eu-west-1");
+
+        assertThat(cache.getRegionCount()).isEqualTo(2);
+        verify(ec2InstanceService, times(2)).describeInstances(eq("eu-west-1"), any());
+    }
+
+    @Test
+    void shouldNotKeepRegionsWhichFailedToLoad() {
+        givenInstances("eu-west-1", "a");
+        when(ec2InstanceService.describeInstances(eq("abc"), any())).thenThrow(new InvalidRegionException("abc"));
+        when(ec2InstanceService.describeInstances(eq("def"), any())).thenThrow(new InvalidRegionException("def"));
+        RegionInventoryCache cache = cache(60000, 45000, 1, 1000);
+
+        RegionInventorySnapshot loaded = cache.get("eu-west-1");
+        assertThrows(InvalidRegionException.class, () -> cache.get("abc"));
+        assertThrows(InvalidRegionException.class, () -> cache.reload("def"));
+
+        assertThat(cache.getRegionCount()).isEqualTo(1);
+        assertThat(cache.get("eu-west-1")).isSameAs(loaded);
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedRegionWhenTooManyInstances() throws InterruptedException {
+        givenInstances("eu-west-1", "a", "b");
+        givenInstances("us-east-1", "c", "d");
+        RegionInventoryCache cache = cache(60000, 45000, 32, 3);
+
+        cache.get("eu-west-1");
+        Thread.sleep(5);
+        cache.get("us-east-1");
+
+        assertThat(cache.getRegionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldPatchSnapshotWithStateChange() {
+        givenInstances(REGION, "a", "b");
+        RegionInventoryCache cache = cache(60000, 45000, 32, 1000);
+        RegionInventorySnapshot loaded = cache.get(REGION);
+
+        assertThat(cache.applyStateChange(REGION, "b", "stopping", System.currentTimeMillis())).isTrue();
+
+        RegionInventorySnapshot patched = cache.get(REGION);
+        assertThat(patched.getVersion()).isGreaterThan(loaded.getVersion());
+        assertThat(patched.getInstances()).extracting("state").containsExactly("running", "stopping");
+        assertThat(patched.find("b").getName()).isEqualTo("b");
+        assertThat(cache.get(REGION, loaded.getVersion())).isSameAs(loaded);
+        assertThat(loaded.find("b").getState()).isEqualTo("running");
+        verify(ec2InstanceService, times(1)).describeInstances(eq(REGION), any());
+    }
+
+    @Test
+    void shouldDescribeLaunchedInstance() {
+        givenInstances(REGION, "a", "c");
+        when(ec2InstanceService.describeInstances(REGION, new DescribeInstancesRequest()
+                .withFilters(new Filter("instance-id", Collections.singletonList("b")))))
+                .thenReturn(Ec2ModelGenerator.generateInstancesResult(instance("b")));
+        RegionInventoryCache cache = cache(60000, 45000, 32, 1000);
+        cache.get(REGION);
+
+        assertThat(cache.applyStateChange(REGION, "b", "pending", System.currentTimeMillis())).isTrue();
+        assertThat(cache.applyStateChange(REGION, "d", "pending", System.currentTimeMillis())).isFalse();
+
+        RegionInventorySnapshot patched = cache.get(REGION);
+        assertThat(patched.getInstances()).extracting("instanceId").containsExactly("a", "b", "c");
+        assertThat(patched.find("b").getState()).isEqualTo("pending");
+    }
+
+    @Test
+    void shouldIgnoreOutdatedStateChanges() {
+        givenInstances(REGION, "a");
+        RegionInventoryCache cache = cache(60000, 45000, 32, 1000);
+
+        assertThat(cache.applyStateChange(REGION, "a", "stopping", System.currentTimeMillis())).isFalse();
+
+        RegionInventorySnapshot loaded = cache.get(REGION);
+        long now = System.currentTimeMillis();
+        assertThat(cache.applyStateChange(REGION, "a", "stopped", now + 2000)).isTrue();
+        assertThat(cache.applyStateChange(REGION, "a", "stopping", now + 1000)).isFalse();
+        assertThat(cache.applyStateChange(REGION, "a", "stopping", loaded.getLoadedAt() - 60000)).isFalse();
+
+        assertThat(cache.get(REGION).find("a").getState()).isEqualTo("stopped");
+    }
+
+    @Test
+    void shouldApplyStateChangesReceivedDuringLoadToLoadedSnapshot() throws Exception {
+        givenInstances(REGION, "a", "b");
+        RegionInventoryCache cache = cache(60000, 45000, 32, 1000);
+        cache.get(REGION);
+        CountDownLatch describing = new CountDownLatch(1);
+        CountDownLatch changed = new CountDownLatch(1);
+        when(ec2InstanceService.describeInstances(eq(REGION), any())).thenAnswer(invocation -> {
+            describing.countDown();
+            changed.await();
+            return Ec2ModelGenerator.generateInstancesResult(instance("a"), instance("b"));
+        });
+
+        Future<RegionInventorySnapshot> reload = executor.submit(() -> cache.reload(REGION));
+        describing.await();
+        assertThat(cache.applyStateChange(REGION, "a", "stopping", System.currentTimeMillis())).isTrue();
+        changed.countDown();
+
+        RegionInventorySnapshot reloaded = reload.get();
+        assertThat(reloaded.find("a").getState()).isEqualTo("stopping");
+        assertThat(reloaded.find("b").getState()).isEqualTo("running");
+        assertThat(cache.get(REGION)).isSameAs(reloaded);
+    }
+
+    private RegionInventoryCache cache(long ttl, long refreshAfter, int maxRegions, long maxInstances) {
+        return cache(ttl, refreshAfter, maxRegions, maxInstances, 60000, 16);
+    }
+
+    private RegionInventoryCache cache(long ttl, long refreshAfter, int maxRegions, long maxInstances, long versionRetention, int maxVersions) {
+        return new RegionInventoryCache(ec2InstanceService, executor, ttl, refreshAfter, 200, maxRegions, maxInstances, versionRetention, maxVersions, 1000);
+    }
+
+    private void givenInstances(String region, String... ids) {
+        Instance[] instances = new Instance[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            instances[i] = instance(ids[i]);
+        }
+        when(ec2InstanceService.describeInstances(eq(region), any())).thenAnswer(invocation -> Ec2ModelGenerator.generateInstancesResult(instances));
+    }
+
+    private static Instance instance(String id) {
+        return new Instance().withPlacement(new Placement(REGION))
+                .withInstanceId(id)
+                .withTags(new Tag(NAME_TAG, id))
+                .withState(new InstanceState().withName("running"));
+    }
+}
@@ -0,0 +1,106 @@
+package com.cisco.ec2;
+
+import com.cisco.ec2.model.Ec2Instance;
+import com.cisco.ec2.model.GetEc2Response;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RegionInventorySnapshotTest {
+
+    private final RegionInventorySnapshot snapshot = new RegionInventorySnapshot("eu-west-1", instances("a", "b", "c", "d", "e"), 7, System.currentTimeMillis());
+
+    @Test
+    void shouldSortOncePerSortKey() {
+        List<Ec2Instance> byName = snapshot.sortedBy("name");
+
+        assertThat(byName).extracting("instanceId").containsExactly("e", "d", "c", "b", "a");
+        assertThat(snapshot.sortedBy("name")).isSameAs(byName);
+        assertThat(snapshot.sortedBy(null)).isSameAs(snapshot.getInstances());
+        assertThat(snapshot.sortedBy("unknown")).isSameAs(snapshot.getInstances());
+    }
+
+    @Test
+    void shouldPageThroughSortedSnapshot() {
+        RegionInventorySnapshot snapshot = new RegionInventorySnapshot("eu-west-1", instances("a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k"), 7, System.currentTimeMillis());
+
+        GetEc2Response first = snapshot.page(snapshot.firstPage("name", 5));
+        GetEc2Response second = snapshot.page(SnapshotCursor.decode(first.getNextToken()));
+        GetEc2Response third = snapshot.page(SnapshotCursor.decode(second.getNextToken()));
+
+        assertThat(first.getInstances()).extracting("instanceId").containsExactly("k", "j", "i", "h", "g");
+        assertThat(second.getInstances()).extracting("instanceId").containsExactly("f", "e", "d", "c", "b");
+        assertThat(third.getInstances()).extracting("instanceId").containsExactly("a");
+        assertThat(third.getNextToken()).isNull();
+    }
+
+    @Test
+    void shouldNotOverflowPastLastInstance() {
+        GetEc2Response page = snapshot.page(new SnapshotCursor(7, "instanceId", Integer.MAX_VALUE - 1, 500));
+
+        assertThat(page.getInstances()).isEmpty();
+        assertThat(page.getNextToken()).isNull();
+    }
+
+    @Test
+    void shouldReturnEmptyPageAfterLastInstance() {
+        GetEc2Response page = snapshot.page(new SnapshotCursor(7, "instanceId", 10, 5));
+
+        assertThat(page.getInstances()).isEmpty();
+        assertThat(page.getNextToken()).isNull();
+    }
+
+    @Test
+    void shouldKeepEtagOfUnchangedInventoryAcrossSnapshots() {
+        RegionInventorySnapshot reloaded = new RegionInventorySnapshot("eu-west-1", instances("a", "b", "c", "d", "e"), 8, System.currentTimeMillis());
+        RegionInventorySnapshot changed = new RegionInventorySnapshot("eu-west-1", instances("a", "b", "c", "d", "f"), 9, System.currentTimeMillis());
+        GetEc2Response all = GetEc2Response.builder().instances(snapshot.sortedBy("name")).build();
+
+        assertThat(reloaded.getContentHash()).isEqualTo(snapshot.getContentHash());
+        assertThat(reloaded.etag("name", InstanceFields.ALL, all)).isEqualTo(snapshot.etag("name", InstanceFields.ALL, all));
+        assertThat(changed.etag("name", InstanceFields.ALL, all)).isNotEqualTo(snapshot.etag("name", InstanceFields.ALL, all));
+        assertThat(snapshot.etag("instanceId", InstanceFields.ALL, all)).isNotEqualTo(snapshot.etag("name", InstanceFields.ALL, all));
+    }
+
+    @Test
+    void shouldTagEveryPageDifferently() {
+        SnapshotCursor first = snapshot.firstPage("name", 2);
+        SnapshotCursor second = first.next();
+
+        assertThat(snapshot.etag(first, InstanceFields.ALL, snapshot.page(first))).isNotEqualTo(snapshot.etag(second, InstanceFields.ALL, snapshot.page(second)));
+        assertThat(snapshot.etag(first, InstanceFields.ALL, snapshot.page(first))).isEqualTo(snapshot.etag(first, InstanceFields.ALL, snapshot.page(first)));
+    }
+
+    @Test
+    void shouldPatchCopyUnderNewVersion() {
+        Ec2Instance stopped = Ec2Instance.builder().instanceId("c").name("c-name").state("stopped").build();
+        Ec2Instance launched = Ec2Instance.builder().instanceId("cc").state("pending").build();
+
+        RegionInventorySnapshot patched = snapshot.patch(Arrays.asList(stopped, launched), 8);
+
+        assertThat(patched.getVersion()).isEqualTo(8);
+        assertThat(patched.getLoadedAt()).isEqualTo(snapshot.getLoadedAt());
+        assertThat(patched.getInstances()).extracting("instanceId").containsExactly("a", "b", "c", "cc", "d", "e");
+        assertThat(patched.find("c")).isSameAs(stopped);
+        assertThat(patched.getContentHash()).isNotEqualTo(snapshot.getContentHash());
+        assertThat(patched.getCounts().getTotal()).isEqualTo(6);
+        assertThat(patched.getCounts().toResponse().getStates()).containsEntry("stopped", 1L).containsEntry("pending", 1L);
+        assertThat(snapshot.getInstances()).extracting("instanceId").containsExactly("a", "b", "c", "d", "e");
+        assertThat(snapshot.find("c").getState()).isNull();
+        assertThat(snapshot.find("cc")).isNull();
+        assertThat(snapshot.getCounts().getTotal()).isEqualTo(5);
+    }
+
+    private static List<Ec2Instance> instances(String... ids) {
+        List<Ec2Instance> instances = new ArrayList<>();
+        Arrays.stream(ids).forEach(id -> instances.add(Ec2Instance.builder()
+                .instanceId(id)
+                .name((char) ('a' + 'e' - id.charAt(0)) + "-name")
+                .build()));
+        return instances;
+    }
+}
@@ -0,0 +1,88 @@
+package com.cisco.ec2;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RegionRateLimiterTest {
+
+    private final RegionRateLimiter limiter = new RegionRateLimiter("eu-west-1", 1, 8, 1, 0.5);
+
+    @Test
+    void shouldDecreaseRateMultiplicativelyWhenThrottled() {
+        limiter.onThrottled();
+        assertThat(limiter.getRate()).isEqualTo(4);
+
+        limiter.onThrottled();
+        limiter.onThrottled();
+        limiter.onThrottled();
+        assertThat(limiter.getRate()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldIncreaseRateAdditivelyUpToMax() {
+        limiter.onThrottled();
+
+        limiter.onSuccess();
+        assertThat(limiter.getRate()).isEqualTo(5);
+
+        limiter.onSuccess();
+        limiter.onSuccess();
+        limiter.onSuccess();
+        limiter.onSuccess();
+        assertThat(limiter.getRate()).isEqualTo(8);
+    }
+
+    @Test
+    void shouldServeBurstWithoutWaiting() {
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 8; i++) {
+            limiter.acquire(start);
+        }
+
+        assertThat(limiter.getQueueDepth()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldWaitForPermitWithinDeadline() {
+        RegionRateLimiter slow = new RegionRateLimiter("eu-west-1", 1, 20, 1, 0.5);
+        for (int i = 0; i < 20; i++) {
+            slow.acquire(System.nanoTime());
+        }
+        long start = System.nanoTime();
+
+        slow.acquire(start + TimeUnit.SECONDS.toNanos(1));
+
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    void shouldRejectWhenPermitNotAvailableBeforeDeadline() {
+        limiter.onThrottled();
+        limiter.onThrottled();
+        limiter.onThrottled();
+        limiter.acquire(System.nanoTime());
+
+        RateLimitExceededException exception = assertThrows(RateLimitExceededException.class,
+                () -> limiter.acquire(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100)));
+
+        assertThat(exception.getMessage()).isEqualTo("Rate limit exceeded for region: eu-west-1");
+    }
+
+    @Test
+    void shouldAccumulateTimeSpentThrottled() throws InterruptedException {
+        limiter.onThrottled();
+        Thread.sleep(50);
+        limiter.onThrottled();
+        limiter.onSuccess();
+        long throttled = limiter.getThrottledMillis();
+        Thread.sleep(20);
+
+        assertThat(throttled).isGreaterThanOrEqualTo(50);
+        assertThat(limiter.getThrottledMillis()).isEqualTo(throttled);
+    }
+}
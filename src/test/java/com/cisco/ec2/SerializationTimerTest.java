@@ -0,0 +1,66 @@
+package com.cisco.ec2;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SerializationTimerTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SerializationTimer serializationTimer = new SerializationTimer(meterRegistry, "json");
+    private final MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+
+    @AfterEach
+    void tearDown() {
+        ServerTiming.stop();
+    }
+
+    @Test
+    void shouldWriteDirectlyWhenRequestNotTimed() throws Exception {
+        serializationTimer.write("body", outputMessage, message -> {
+            assertThat(message).isSameAs(outputMessage);
+            message.getBody().write("{}".getBytes(StandardCharsets.UTF_8));
+        });
+
+        assertThat(outputMessage.getBodyAsString()).isEqualTo("{}");
+        assertThat(outputMessage.getHeaders().containsKey(ServerTiming.HEADER)).isFalse();
+        assertThat(meterRegistry.get("http.response.serialization").tags("type", "String", "format", "json").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldSetServerTimingAndLengthBeforeBodyWhenRequestTimed() throws Exception {
+        ServerTiming.start();
+
+        serializationTimer.write("body", outputMessage, message -> {
+            assertThat(message).isNotSameAs(outputMessage);
+            message.getBody().write("{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+        });
+
+        assertThat(outputMessage.getBodyAsString()).isEqualTo("{\"a\":1}");
+        assertThat(outputMessage.getHeaders().getContentLength()).isEqualTo(7);
+        assertThat(outputMessage.getHeaders().getFirst(ServerTiming.HEADER)).startsWith("ser;dur=");
+    }
+
+    @Test
+    void shouldSendResponseOutgrowingBufferAsItIsSerialized() throws Exception {
+        ServerTiming timing = ServerTiming.start();
+        SerializationTimer boundedTimer = new SerializationTimer(meterRegistry, "json", 4);
+
+        boundedTimer.write("body", outputMessage, message -> {
+            message.getBody().write("{\"a\":".getBytes(StandardCharsets.UTF_8));
+            assertThat(outputMessage.getBodyAsString()).isEqualTo("{\"a\":");
+            message.getBody().write("1}".getBytes(StandardCharsets.UTF_8));
+        });
+
+        assertThat(outputMessage.getBodyAsString()).isEqualTo("{\"a\":1}");
+        assertThat(outputMessage.getHeaders().getContentLength()).isEqualTo(-1);
+        assertThat(outputMessage.getHeaders().containsKey(ServerTiming.HEADER)).isFalse();
+        assertThat(timing.getDuration(ServerTiming.Stage.SERIALIZATION)).isPositive();
+    }
+}
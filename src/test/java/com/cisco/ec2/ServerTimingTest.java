@@ -0,0 +1,61 @@
+package com.cisco.ec2;
+
+import com.cisco.ec2.ServerTiming.Stage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ServerTimingTest {
+
+    @AfterEach
+    void tearDown() {
+        ServerTiming.stop();
+    }
+
+    @Test
+    void shouldNotRecordWhenNotStarted() {
+        ServerTiming.record(Stage.DESCRIBE, System.nanoTime());
+        ServerTiming.recordCache("hit", System.nanoTime());
+
+        assertThat(ServerTiming.current()).isNull();
+    }
+
+    @Test
+    void shouldFormatRecordedStagesInMilliseconds() {
+        ServerTiming timing = ServerTiming.start();
+        timing.add(Stage.DESCRIBE, TimeUnit.MICROSECONDS.toNanos(120417));
+        timing.add(Stage.SERIALIZATION, TimeUnit.MICROSECONDS.toNanos(5));
+
+        assertThat(timing.toHeaderValue()).matches("describe;dur=120\\.417, ser;dur=0\\.005, total;dur=\\d+\\.\\d{3}");
+    }
+
+    @Test
+    void shouldAddUpRepeatedStages() {
+        ServerTiming timing = ServerTiming.start();
+        timing.add(Stage.MAP, 1000);
+        timing.add(Stage.MAP, 2000);
+
+        assertThat(timing.getDuration(Stage.MAP)).isEqualTo(3000);
+    }
+
+    @Test
+    void shouldDescribeCacheOutcome() {
+        ServerTiming.start();
+        ServerTiming.recordCache("stale", System.nanoTime());
+
+        assertThat(ServerTiming.current().toHeaderValue()).startsWith("cache;desc=stale;dur=");
+    }
+
+    @Test
+    void shouldReportStagesOfCurrentThreadOnly() throws Exception {
+        ServerTiming timing = ServerTiming.start();
+        Thread other = new Thread(() -> ServerTiming.record(Stage.DESCRIBE, System.nanoTime() - 1000));
+        other.start();
+        other.join();
+
+        assertThat(timing.toHeaderValue()).startsWith("total;dur=");
+    }
+}
@@ -0,0 +1,177 @@
+package com.cisco.ec2;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldShareResultOfCallInFlight() throws Exception {
+        Future<String> leader = executor.submit(() -> singleFlight.execute("key", this::blockingCall));
+        awaitUntil(() -> calls.get() == 1);
+        Future<String> first = executor.submit(() -> singleFlight.execute("key", this::blockingCall));
+        Future<String> second = executor.submit(() -> singleFlight.execute("key", this::blockingCall));
+        awaitUntil(() -> singleFlight.getCoalesced() == 2);
+
+        release.countDown();
+
+        assertThat(leader.get()).isEqualTo("result1");
+        assertThat(first.get()).isEqualTo("result1");
+        assertThat(second.get()).isEqualTo("result1");
+        assertThat(singleFlight.getExecuted()).isEqualTo(1);
+        assertThat(singleFlight.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldNotCoalesceDifferentKeys() throws Exception {
+        Future<String> leader = executor.submit(() -> singleFlight.execute("key", this::blockingCall));
+        awaitUntil(() -> calls.get() == 1);
+        Future<String> other = executor.submit(() -> singleFlight.execute("other", this::blockingCall));
+        awaitUntil(() -> calls.get() == 2);
+
+        release.countDown();
+
+        assertThat(leader.get()).isNotEqualTo(other.get());
+        assertThat(singleFlight.getCoalesced()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldExecuteAgainOnceCallCompleted() {
+        release.countDown();
+
+        assertThat(singleFlight.execute("key", this::blockingCall)).isEqualTo("result1");
+        assertThat(singleFlight.execute("key", this::blockingCall)).isEqualTo("result2");
+        assertThat(singleFlight.getExecuted()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldPropagateExceptionToWaiters() throws InterruptedException {
+        AmazonServiceException throttled = new AmazonServiceException("Rate exceeded");
+        Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+            blockingCall();
+            throw throttled;
+        }));
+        awaitUntil(() -> calls.get() == 1);
+        Future<String> waiter = executor.submit(() -> singleFlight.execute("key", this::blockingCall));
+        awaitUntil(() -> singleFlight.getCoalesced() == 1);
+
+        release.countDown();
+
+        assertThat(assertThrows(ExecutionException.class, leader::get).getCause()).isSameAs(throttled);
+        assertThat(assertThrows(ExecutionException.class, waiter::get).getCause()).isSameAs(throttled);
+        assertThat(singleFlight.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldStopWaitingWhenWaiterInterrupted() throws Exception {
+        Future<String> leader = executor.submit(() -> singleFlight.execute("key", this::blockingCall));
+        awaitUntil(() -> calls.get() == 1);
+        Future<String> cancelled = executor.submit(() -> singleFlight.execute("key", this::blockingCall));
+        Future<String> waiter = executor.submit(() -> singleFlight.execute("key", this::blockingCall));
+        awaitUntil(() -> singleFlight.getCoalesced() == 2);
+
+        cancelled.cancel(true);
+        release.countDown();
+
+        assertThat(leader.get()).isEqualTo("result1");
+        assertThat(waiter.get()).isEqualTo("result1");
+        assertThat(singleFlight.getExecuted()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRetryWhenExecutingCallerAborted() throws Exception {
+        Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+            blockingCall();
+            throw new AbortedException();
+        }));
+        awaitUntil(() -> calls.get() == 1);
+        Future<String> waiter = executor.submit(() -> singleFlight.execute("key", this::blockingCall));
+        awaitUntil(() -> singleFlight.getCoalesced() == 1);
+
+        release.countDown();
+
+        assertThat(assertThrows(ExecutionException.class, leader::get).getCause()).isInstanceOf(AbortedException.class);
+        assertThat(waiter.get()).isEqualTo("result2");
+        assertThat(singleFlight.getExecuted()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldShareFutureOfAsyncCallInFlight() throws Exception {
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        CompletableFuture<String> leader = singleFlight.executeAsync("key", () -> {
+            calls.incrementAndGet();
+            return pending;
+        });
+        CompletableFuture<String> waiter = singleFlight.executeAsync("key", () -> {
+            calls.incrementAndGet();
+            return pending;
+        });
+        Future<String> syncWaiter = executor.submit(() -> singleFlight.execute("key", this::blockingCall));
+        awaitUntil(() -> singleFlight.getCoalesced() == 2);
+
+        pending.complete("async");
+
+        assertThat(leader.get()).isEqualTo("async");
+        assertThat(waiter.get()).isEqualTo("async");
+        assertThat(syncWaiter.get()).isEqualTo("async");
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(singleFlight.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldPropagateAsyncFailureUnwrapped() {
+        AmazonServiceException throttled = new AmazonServiceException("Rate exceeded");
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        CompletableFuture<String> leader = singleFlight.executeAsync("key", () -> pending.thenApply(value -> value));
+        CompletableFuture<String> waiter = singleFlight.executeAsync("key", () -> pending);
+
+        pending.completeExceptionally(throttled);
+
+        assertThat(assertThrows(ExecutionException.class, leader::get).getCause()).isSameAs(throttled);
+        assertThat(assertThrows(ExecutionException.class, waiter::get).getCause()).isSameAs(throttled);
+        assertThat(singleFlight.getInFlight()).isEqualTo(0);
+    }
+
+    private String blockingCall() {
+        int call = calls.incrementAndGet();
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            throw new AbortedException(e);
+        }
+        return "result" + call;
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.cisco.ec2;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SnapshotCursorTest {
+
+    @Test
+    void shouldDecodeEncodedCursor() {
+        SnapshotCursor cursor = SnapshotCursor.decode(new SnapshotCursor(12, "name", 40, 20).encode());
+
+        assertThat(cursor.getVersion()).isEqualTo(12);
+        assertThat(cursor.getSortKey()).isEqualTo("name");
+        assertThat(cursor.getOffset()).isEqualTo(40);
+        assertThat(cursor.getSize()).isEqualTo(20);
+    }
+
+    @Test
+    void shouldAdvanceByPageSize() {
+        SnapshotCursor cursor = new SnapshotCursor(12, "name", 40, 20).next();
+
+        assertThat(cursor.getOffset()).isEqualTo(60);
+        assertThat(cursor.getSize()).isEqualTo(20);
+    }
+
+    @Test
+    void shouldNotOverflowOffset() {
+        SnapshotCursor cursor = new SnapshotCursor(12, "name", Integer.MAX_VALUE - 10, 500).next();
+
+        assertThat(cursor.getOffset()).isEqualTo(Integer.MAX_VALUE);
+        assertThat(cursor.next().getOffset()).isEqualTo(Integer.MAX_VALUE);
+    }
+
+    @Test
+    void shouldOverrideSize() {
+        assertThat(new SnapshotCursor(12, "name", 40, 20).withSize(null).getSize()).isEqualTo(20);
+        assertThat(new SnapshotCursor(12, "name", 40, 20).withSize(5).getSize()).isEqualTo(5);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"%%%", "abc", "1:name:x:10", "1:name:0", "1:name:-1:10", "1:name:0:0", "1:name:0:4", "1:name:0:501", "1:name:0:2147483647", "1:name:0:10:5"})
+    void shouldRejectInvalidCursor(String cursor) {
+        String encoded = cursor.startsWith("%") ? cursor : Base64.getUrlEncoder().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(InvalidCursorException.class, () -> SnapshotCursor.decode(encoded));
+    }
+}
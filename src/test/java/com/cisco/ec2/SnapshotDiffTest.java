@@ -0,0 +1,51 @@
+package com.cisco.ec2;
+
+import com.cisco.ec2.model.Ec2Instance;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotDiffTest {
+
+    private final Ec2Instance a = instance("a", "running");
+    private final Ec2Instance b = instance("b", "running");
+    private final Ec2Instance c = instance("c", "running");
+    private final RegionInventorySnapshot previous = new RegionInventorySnapshot("eu-west-1", Arrays.asList(a, b, c), 1, System.currentTimeMillis());
+
+    @Test
+    void shouldFindAddedRemovedAndChangedInstances() {
+        Ec2Instance stopped = instance("b", "stopped");
+        Ec2Instance launched = instance("d", "pending");
+        RegionInventorySnapshot current = new RegionInventorySnapshot("eu-west-1", Arrays.asList(instance("a", "running"), stopped, launched), 2, System.currentTimeMillis());
+
+        SnapshotDiff diff = SnapshotDiff.between(previous, current);
+
+        assertThat(diff.getVersion()).isEqualTo(2);
+        assertThat(diff.size()).isEqualTo(3);
+        assertThat(diff.before(0)).isSameAs(b);
+        assertThat(diff.after(0)).isSameAs(stopped);
+        assertThat(diff.before(1)).isSameAs(c);
+        assertThat(diff.after(1)).isNull();
+        assertThat(diff.before(2)).isNull();
+        assertThat(diff.after(2)).isSameAs(launched);
+    }
+
+    @Test
+    void shouldFindPatchedInstancesOnly() {
+        Ec2Instance stopping = instance("c", "stopping");
+
+        SnapshotDiff diff = SnapshotDiff.between(previous, previous.patch(Collections.singletonList(stopping), 2));
+
+        assertThat(diff.size()).isEqualTo(1);
+        assertThat(diff.before(0)).isSameAs(c);
+        assertThat(diff.after(0)).isSameAs(stopping);
+        assertThat(SnapshotDiff.between(previous, previous).isEmpty()).isTrue();
+    }
+
+    private static Ec2Instance instance(String id, String state) {
+        return Ec2Instance.builder().instanceId(id).name(id + "-name").state(state).type("t3.micro").build();
+    }
+}